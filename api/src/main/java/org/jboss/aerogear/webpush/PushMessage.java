@@ -16,18 +16,52 @@
  */
 package org.jboss.aerogear.webpush;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
 import java.time.LocalDateTime;
 import java.util.Optional;
 
+/**
+ * A message sent by an application server to a subscription.
+ *
+ * The payload is kept as the bytes that were received, see {@link #content()}. Messages that are
+ * {@link io.netty.util.ReferenceCounted reference counted} hold on to their payload buffer until they have been
+ * released, {@link org.jboss.aerogear.webpush.datastore.DataStore} describes who releases them.
+ */
 public interface PushMessage {
 
     String id();
 
+    /**
+     * The endpoint token of the push message resource, generated once when the message is created.
+     *
+     * @return {@code String} the token used in the push message resource URI.
+     */
+    String token();
+
     String subscription();
 
     Optional<String> receiptSubscription();
 
-    String payload();
+    /**
+     * The payload of this message as it was received, which may well be binary.
+     *
+     * The buffer belongs to the message, callers must neither modify nor release it. A caller that writes the
+     * payload to a channel passes its own reference, such as {@code content().duplicate().retain()}.
+     *
+     * @return {@link ByteBuf} the payload.
+     */
+    ByteBuf content();
+
+    /**
+     * The payload of this message decoded as UTF-8, for payloads that are known to be text.
+     *
+     * @return {@code String} the decoded payload.
+     */
+    default String payload() {
+        return content().toString(CharsetUtil.UTF_8);
+    }
 
     Optional<Integer> ttl();
 
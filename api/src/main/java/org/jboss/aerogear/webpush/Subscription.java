@@ -30,4 +30,44 @@ public interface Subscription {
 
     String pushResourceId();
 
+    /**
+     * Determines whether the passed-in id is the id of this subscription's push resource.
+     *
+     * Implementations that do not hold the push resource id as a {@code String} can override this to avoid
+     * creating one.
+     *
+     * @param pushResourceId the push resource id to compare with.
+     * @return {@code true} if the ids are equal.
+     */
+    default boolean hasPushResourceId(final String pushResourceId) {
+        return pushResourceId().equals(pushResourceId);
+    }
+
+    /**
+     * The endpoint token of the push resource for this subscription.
+     *
+     * Generated once when the subscription is created so that it does not need to be encrypted again
+     * for every response that links to the push resource.
+     *
+     * @return {@code String} the token used in the push resource URI.
+     */
+    String pushToken();
+
+    /**
+     * The endpoint token of the receipt subscribe resource for this subscription.
+     *
+     * @return {@code String} the token used in the receipts resource URI.
+     */
+    String receiptsToken();
+
+    /**
+     * The time at which this subscription expires, after which it is treated as if it had been removed.
+     *
+     * @return {@code long} the expiry in milliseconds since the epoch, or {@link Long#MAX_VALUE} if the subscription
+     * never expires, which is the default.
+     */
+    default long expires() {
+        return Long.MAX_VALUE;
+    }
+
 }
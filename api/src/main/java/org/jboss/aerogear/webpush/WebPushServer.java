@@ -18,34 +18,52 @@ package org.jboss.aerogear.webpush;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
 
 /**
  * A Java implementation of <a href="https://tools.ietf.org/html/draft-ietf-webpush-protocol-00">WebPush</a> Server.
+ *
+ * Operations that involve the server's store return a {@link CompletionStage}, so that callers on an I/O thread
+ * never block on it. The stages may complete on a thread of the store.
  */
 public interface WebPushServer {
 
     /**
-     * TODO add comments
+     * Creates and stores a new subscription.
+     *
+     * @return {@link CompletionStage} that completes with the new subscription once it has been stored.
      */
-    Subscription subscribe();
+    CompletionStage<Subscription> subscribe();
 
-    Optional<Subscription> subscriptionById(String id);
+    CompletionStage<Optional<Subscription>> subscriptionById(String id);
 
-    Optional<Subscription> subscriptionByToken(String token);
+    CompletionStage<Optional<Subscription>> subscriptionByToken(String token);
 
-    Optional<Subscription> subscriptionByPushToken(String pushToken);
+    CompletionStage<Optional<Subscription>> subscriptionByPushToken(String pushToken);
 
-    Optional<Subscription> subscriptionByReceiptToken(String receiptToken);
+    CompletionStage<Optional<Subscription>> subscriptionByReceiptToken(String receiptToken);
 
-    List<PushMessage> removeSubscription(String id);
+    CompletionStage<List<PushMessage>> removeSubscription(String id);
 
-    void saveMessage(PushMessage msg);
+    /**
+     * Saves a message for later delivery.
+     *
+     * @param msg the message to save.
+     * @return {@link CompletionStage} that completes once the message has been durably stored.
+     */
+    CompletionStage<Void> saveMessage(PushMessage msg);
 
-    List<PushMessage> waitingDeliveryMessages(String subId);
+    CompletionStage<List<PushMessage>> waitingDeliveryMessages(String subId);
 
-    void saveSentMessage(PushMessage msg);
+    /**
+     * Saves a message that was delivered and is waiting for an acknowledgement.
+     *
+     * @param msg the message to save.
+     * @return {@link CompletionStage} that completes once the message has been durably stored.
+     */
+    CompletionStage<Void> saveSentMessage(PushMessage msg);
 
-    Optional<PushMessage> sentMessage(String pushMsgResource);
+    CompletionStage<Optional<PushMessage>> sentMessage(String pushMsgResource);
 
     /**
      * Returns the configuration for this WebPush server.
@@ -51,6 +51,13 @@ public interface WebPushServerConfig {
      */
     File privateKey();
 
+    /**
+     * Returns the keystore file in which the server's private key salt and derived key are persisted.
+     *
+     * @return {@link File} the keystore file, or {@code null} if the key should be derived on every start.
+     */
+    File keyStore();
+
     /**
      * Determins whether transport layer security is in use.
      *
@@ -80,12 +87,14 @@ public interface WebPushServerConfig {
     int endpointPort();
 
     /**
-     * Returns the maximum age for a subscription.
+     * Returns the maximum age in milliseconds for a subscription, after which it expires, or {@code 0} if
+     * subscriptions never expire.
      */
     long subscriptionMaxAge();
 
     /**
-     * Returns the maximum age that a message will be stored for.
+     * Returns the maximum age in milliseconds that a message will be stored for, or {@code 0} if messages are
+     * only limited by their TTL. This also bounds how long a delivered message waits for its acknowledgement.
      */
     long messageMaxAge();
 
@@ -94,4 +103,114 @@ public interface WebPushServerConfig {
      */
     long messageMaxSize();
 
+    /**
+     * Returns the maximum number of decrypted endpoint tokens that will be cached.
+     *
+     * @return {@code long} the maximum number of cached tokens, {@code 0} disables the cache.
+     */
+    long tokenCacheMaxSize();
+
+    /**
+     * Returns the maximum age of a cached endpoint token.
+     *
+     * @return {@code long} the maximum age in milliseconds, {@code 0} means that cached tokens never expire.
+     */
+    long tokenCacheMaxAge();
+
+    /**
+     * Returns the maximum number of message writes that are made durable by a single sync of the data store.
+     *
+     * @return {@code int} the maximum group size, {@code 0} syncs every write on its own.
+     */
+    int groupCommitMaxBatch();
+
+    /**
+     * Returns how long a group commit may wait for more writes before syncing the data store.
+     *
+     * @return {@code long} the maximum wait in milliseconds, {@code 0} only groups writes that arrive while the
+     * previous sync is in progress.
+     */
+    long groupCommitMaxLatency();
+
+    /**
+     * Returns the maximum number of push messages written to a connected user agent before they are flushed.
+     * Messages written below this limit are flushed together at the end of the batch or event loop tick.
+     *
+     * @return {@code int} the maximum number of unflushed messages, {@code 0} flushes every message on its own.
+     */
+    int flushMaxPendingMessages();
+
+    /**
+     * Returns the maximum number of payload bytes written to a connected user agent before they are flushed.
+     *
+     * @return {@code long} the maximum number of unflushed bytes, {@code 0} flushes every message on its own.
+     */
+    long flushMaxPendingBytes();
+
+    /**
+     * Returns the maximum number of payload bytes that may be waiting to be written to a single connected user
+     * agent. Messages beyond this limit are kept in the data store until the user agent has caught up.
+     *
+     * @return {@code long} the maximum number of queued bytes, {@code 0} only queues one message at a time.
+     */
+    long outboundQueueMaxBytes();
+
+    /**
+     * Returns how many streams share one record in the access log. Every stream is logged with {@code 1}.
+     *
+     * @return {@code int} the number of streams per access log record, {@code 0} disables the access log.
+     */
+    int accessLogSampling();
+
+    /**
+     * Returns the network transport of the server: {@code nio}, {@code epoll}, {@code io_uring}, or {@code auto}
+     * for the best one that is available on this platform.
+     *
+     * @return {@code String} the name of the transport.
+     */
+    String transport();
+
+    /**
+     * Returns the number of server sockets that accept connections on the same port using {@code SO_REUSEPORT},
+     * which requires a native transport when it is greater than one.
+     *
+     * @return {@code int} the number of acceptors.
+     */
+    int transportAcceptors();
+
+    /**
+     * Returns the maximum number of pending connections of a server socket.
+     *
+     * @return {@code int} the accept backlog.
+     */
+    int socketBacklog();
+
+    /**
+     * Determines whether Nagle's algorithm is disabled on the connections of user agents and application servers.
+     *
+     * @return {@code true} if {@code TCP_NODELAY} is set.
+     */
+    boolean tcpNoDelay();
+
+    /**
+     * Returns the size of the send buffer of a connection.
+     *
+     * @return {@code int} the size in bytes, {@code 0} keeps the default of the operating system.
+     */
+    int socketSendBufferSize();
+
+    /**
+     * Returns the size of the receive buffer of a connection.
+     *
+     * @return {@code int} the size in bytes, {@code 0} keeps the default of the operating system.
+     */
+    int socketReceiveBufferSize();
+
+    /**
+     * Determines whether the epoll transport is edge-triggered rather than level-triggered.
+     *
+     * @return {@code true} if the epoll transport is edge-triggered.
+     */
+    boolean epollEdgeTriggered();
+
 }
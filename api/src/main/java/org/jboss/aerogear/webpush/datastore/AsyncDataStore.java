@@ -0,0 +1,53 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The non-blocking counterpart of {@link DataStore}, used on the request path of a WebPush Server.
+ *
+ * Every operation returns at once with a {@link CompletionStage} that completes when the operation has been
+ * applied, or completes exceptionally when it failed. Stages may complete on any thread, callers that need to
+ * continue on a particular thread have to hand off themselves.
+ *
+ * A {@link DataStore} is turned into an {@code AsyncDataStore} by {@link AsyncDataStoreAdapter}.
+ */
+public interface AsyncDataStore {
+
+    CompletionStage<Void> saveSubscription(Subscription subscription);
+
+    CompletionStage<Optional<Subscription>> subscription(String id);
+
+    CompletionStage<List<PushMessage>> removeSubscription(String id);
+
+    CompletionStage<Void> saveMessage(PushMessage msg);
+
+    CompletionStage<List<PushMessage>> waitingDeliveryMessages(String subId);
+
+    CompletionStage<Void> saveSentMessage(PushMessage msg);
+
+    CompletionStage<Optional<PushMessage>> sentMessage(String subId, String msgId);
+
+    CompletionStage<List<String>> expiredSubscriptions(long now, int batchSize);
+
+}
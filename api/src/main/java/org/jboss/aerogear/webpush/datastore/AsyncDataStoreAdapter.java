@@ -0,0 +1,138 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Adapts a {@link DataStore} to the {@link AsyncDataStore} interface.
+ *
+ * Without an executor, operations run on the calling thread and return stages that are already complete, which
+ * suits stores that never block, such as the in-memory store. With an executor, operations run on
+ * that executor, so that a store that blocks on I/O does not hold up the caller.
+ */
+public final class AsyncDataStoreAdapter implements AsyncDataStore {
+
+    private final DataStore store;
+    private final Executor executor;
+
+    /**
+     * Creates an adapter that runs operations on the calling thread.
+     *
+     * @param store the non-blocking {@link DataStore} to adapt.
+     */
+    public AsyncDataStoreAdapter(final DataStore store) {
+        this(store, null);
+    }
+
+    /**
+     * Creates an adapter that runs operations on the passed-in executor.
+     *
+     * @param store the {@link DataStore} to adapt.
+     * @param executor the {@link Executor} that runs the operations, or {@code null} to run them on the calling
+     * thread.
+     */
+    public AsyncDataStoreAdapter(final DataStore store, final Executor executor) {
+        this.store = Objects.requireNonNull(store, "store must not be null");
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the adapted store.
+     *
+     * @return {@link DataStore} the adapted store.
+     */
+    public DataStore store() {
+        return store;
+    }
+
+    @Override
+    public CompletionStage<Void> saveSubscription(final Subscription subscription) {
+        return run(() -> {
+            store.saveSubscription(subscription);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<Optional<Subscription>> subscription(final String id) {
+        return run(() -> store.subscription(id));
+    }
+
+    @Override
+    public CompletionStage<List<PushMessage>> removeSubscription(final String id) {
+        return run(() -> store.removeSubscription(id));
+    }
+
+    @Override
+    public CompletionStage<Void> saveMessage(final PushMessage msg) {
+        return run(() -> {
+            store.saveMessage(msg);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<List<PushMessage>> waitingDeliveryMessages(final String subId) {
+        return run(() -> store.waitingDeliveryMessages(subId));
+    }
+
+    @Override
+    public CompletionStage<Void> saveSentMessage(final PushMessage msg) {
+        return run(() -> {
+            store.saveSentMessage(msg);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletionStage<Optional<PushMessage>> sentMessage(final String subId, final String msgId) {
+        return run(() -> store.sentMessage(subId, msgId));
+    }
+
+    @Override
+    public CompletionStage<List<String>> expiredSubscriptions(final long now, final int batchSize) {
+        return run(() -> store.expiredSubscriptions(now, batchSize));
+    }
+
+    private <T> CompletionStage<T> run(final Supplier<T> operation) {
+        if (executor != null) {
+            return CompletableFuture.supplyAsync(operation, executor);
+        }
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(operation.get());
+        } catch (final RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncDataStoreAdapter[store=" + store + ", executor=" + executor + "]";
+    }
+}
@@ -19,11 +19,18 @@ package org.jboss.aerogear.webpush.datastore;
 import org.jboss.aerogear.webpush.Subscription;
 import org.jboss.aerogear.webpush.PushMessage;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 /**
  * Handles the storing of subscriptions for a WebPush Server implementation.
+ *
+ * Push messages may be {@link io.netty.util.ReferenceCounted reference counted}. A message passed to
+ * {@link #saveMessage(PushMessage)} or {@link #saveSentMessage(PushMessage)} stays owned by the caller, a store that
+ * keeps the message object retains it and releases it once the message is dropped or expires. Messages returned by
+ * {@link #waitingDeliveryMessages(String)}, {@link #sentMessage(String, String)} and
+ * {@link #removeSubscription(String)} are handed over to the caller, which releases them when done.
  */
 public interface DataStore {
 
@@ -41,6 +48,21 @@ public interface DataStore {
 
     Optional<PushMessage> sentMessage(String subId, String msgId);
 
+    /**
+     * Examines the next batch of subscriptions and returns those that have expired.
+     *
+     * Each call resumes where the previous one stopped, so that repeated calls cover all subscriptions while
+     * examining no more than {@code batchSize} at a time. The expired subscriptions are not removed. Stores that
+     * can not enumerate their subscriptions return an empty list, which is the default.
+     *
+     * @param now the current time in milliseconds since the epoch.
+     * @param batchSize the maximum number of subscriptions to examine.
+     * @return {@code List} the ids of the expired subscriptions among those examined.
+     */
+    default List<String> expiredSubscriptions(long now, int batchSize) {
+        return Collections.emptyList();
+    }
+
     /**
      * Saves the server's private key salt.
      *
@@ -55,4 +77,21 @@ public interface DataStore {
      */
     byte[] getPrivateKeySalt();
 
+    /**
+     * Forces all changes made so far to durable storage.
+     *
+     * Stores that do not persist their state do nothing, which is the default.
+     */
+    default void sync() {
+    }
+
+    /**
+     * Determines whether this store persists its state, and therefore whether {@link #sync()} has any effect.
+     *
+     * @return {@code true} if changes survive a restart once synced, {@code false} by default.
+     */
+    default boolean isDurable() {
+        return false;
+    }
+
 }
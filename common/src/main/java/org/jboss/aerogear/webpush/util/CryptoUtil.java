@@ -13,13 +13,7 @@
 package org.jboss.aerogear.webpush.util;
 
 import org.jboss.aerogear.AeroGearCrypto;
-import org.jboss.aerogear.crypto.BlockCipher;
-import org.jboss.aerogear.crypto.CryptoBox;
-import org.jboss.aerogear.crypto.encoders.Encoder;
 
-import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 
 /**
@@ -29,38 +23,31 @@ public final class CryptoUtil {
 
     public static final String DELIMITER = ":";
 
-    private static final Charset ASCII = Charset.forName("US-ASCII");
-    private static final int IV_SIZE = 16;
-
     private CryptoUtil() {
     }
 
     /**
      * Encrypts the content passed-in.
      *
+     * Creates a new {@link TokenCipher} for every call, code that encrypts repeatedly with the same key
+     * should hold on to a {@link TokenCipher} instead.
+     *
      * @param key the key used for the underlying cypher.
      * @param content the content to encrypted
-     * @return {@code String} the encoded content as base64 encoded string.
+     * @return {@code String} the encrypted content as URL-safe base64 encoded string.
      *
      * @throws Exception
      */
     public static String encrypt(final byte[] key, final String content) throws Exception {
-        final byte[] iv = BlockCipher.getIV();
-        final byte[] encrypted = new CryptoBox(key).encrypt(iv, content.getBytes(ASCII));
-        final String base64 = Encoder.BASE64.encode(prependIV(encrypted, iv));
-        return URLEncoder.encode(base64, ASCII.displayName());
-    }
-
-    private static byte[] prependIV(final byte[] target, final byte[] iv) {
-        final byte[] withIV = new byte[target.length + IV_SIZE];
-        System.arraycopy(iv, 0, withIV, 0, IV_SIZE);
-        System.arraycopy(target, 0, withIV, IV_SIZE, target.length);
-        return withIV;
+        return new TokenCipher(key).encrypt(content);
     }
 
     /**
      * Decrypts the content passed-in.
      *
+     * Creates a new {@link TokenCipher} for every call, code that decrypts repeatedly with the same key
+     * should hold on to a {@link TokenCipher} instead.
+     *
      * @param key the key used for the underlying cypher.
      * @param content the content to decrypted.
      * @return {@code String} the descrypted content as a String.
@@ -69,25 +56,9 @@ public final class CryptoUtil {
      * @throws Exception
      */
     public static String decrypt(final byte[] key, final String content) throws Exception {
-        final byte[] decodedContent = Encoder.BASE64.decode(URLDecoder.decode(content, ASCII.displayName()));
-        final byte[] iv = extractIV(decodedContent);
-        final byte[] decrypted = new CryptoBox(key).decrypt(iv, extractContent(decodedContent));
-        return new String(decrypted, ASCII);
+        return new TokenCipher(key).decryptToString(content);
     }
 
-    private static byte[] extractIV(final byte[] from) {
-        final byte[] iv = new byte[IV_SIZE];
-        System.arraycopy(from, 0, iv, 0, iv.length);
-        return iv;
-    }
-
-    private static byte[] extractContent(final byte[] from) {
-        final byte[] decodedContent = new byte[from.length - IV_SIZE];
-        System.arraycopy(from, IV_SIZE, decodedContent, 0, from.length - IV_SIZE);
-        return decodedContent;
-    }
-
-
     public static byte[] secretKey(final String password, final byte[] salt) {
         try {
             return AeroGearCrypto.pbkdf2().generateSecretKey(password, salt, 100000).getEncoded();
@@ -0,0 +1,192 @@
+/**
+ * JBoss, Home of Professional Open Source Copyright Red Hat, Inc., and individual contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.jboss.aerogear.webpush.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * AES-GCM cipher for endpoint tokens, bound to a single key.
+ *
+ * The key schedule is created once per instance and every thread reuses its own {@link Cipher} and
+ * working buffers, so encrypting or decrypting a token only allocates the resulting value. Tokens are
+ * encoded as URL-safe base64 without padding and can be used in a path as-is.
+ *
+ * Tokens produced by earlier versions, which were standard base64 passed through {@code URLEncoder},
+ * are still accepted by {@link #decrypt(String)}.
+ */
+public final class TokenCipher {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_SIZE = 32;
+    private static final int IV_SIZE = 16;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Sole constructor.
+     *
+     * @param key the 256 bit key used for the underlying cipher.
+     */
+    public TokenCipher(final byte[] key) {
+        if (key == null || key.length != KEY_SIZE) {
+            throw new IllegalArgumentException("key must be " + KEY_SIZE + " bytes");
+        }
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Encrypts the passed-in ASCII content.
+     *
+     * @param content the content to encrypt.
+     * @return {@code String} the URL-safe base64 encoded token.
+     */
+    public String encrypt(final String content) {
+        final byte[] bytes = content.getBytes(ASCII);
+        return encrypt(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Encrypts the passed-in content.
+     *
+     * @param content the array holding the content to encrypt.
+     * @param offset the offset of the content in the array.
+     * @param length the length of the content.
+     * @return {@code String} the URL-safe base64 encoded token.
+     */
+    public String encrypt(final byte[] content, final int offset, final int length) {
+        final State s = state.get();
+        final int sealedLength = IV_SIZE + length + TAG_SIZE;
+        final byte[] sealed = s.sealed(sealedLength);
+        RANDOM.nextBytes(s.iv);
+        System.arraycopy(s.iv, 0, sealed, 0, IV_SIZE);
+        try {
+            s.cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, s.iv));
+            s.cipher.doFinal(content, offset, length, sealed, IV_SIZE);
+        } catch (final GeneralSecurityException e) {
+            throw new RuntimeException("Can not encrypt path", e);
+        }
+        final byte[] encoded = s.encoded(UrlBase64.encodedLength(sealedLength));
+        final int encodedLength = UrlBase64.encode(sealed, sealedLength, encoded);
+        return new String(encoded, 0, encodedLength, ASCII);
+    }
+
+    /**
+     * Decrypts the passed-in token.
+     *
+     * @param token the token to decrypt.
+     * @return {@code byte[]} the decrypted content.
+     * @throws GeneralSecurityException if the token was not created with this cipher's key or was tampered with.
+     * @throws IllegalArgumentException if the token is not valid base64.
+     */
+    public byte[] decrypt(final String token) throws GeneralSecurityException {
+        final State s = state.get();
+        final int length = decrypt(token, s);
+        return Arrays.copyOf(s.plain, length);
+    }
+
+    /**
+     * Decrypts the passed-in token into an ASCII String.
+     *
+     * @param token the token to decrypt.
+     * @return {@code String} the decrypted content.
+     * @throws GeneralSecurityException if the token was not created with this cipher's key or was tampered with.
+     * @throws IllegalArgumentException if the token is not valid base64.
+     */
+    public String decryptToString(final String token) throws GeneralSecurityException {
+        final State s = state.get();
+        final int length = decrypt(token, s);
+        return new String(s.plain, 0, length, ASCII);
+    }
+
+    private int decrypt(final String token, final State s) throws GeneralSecurityException {
+        final byte[] sealed;
+        final int sealedLength;
+        if (token.indexOf('%') >= 0) {
+            sealed = decodeLegacy(token);
+            sealedLength = sealed.length;
+        } else {
+            sealed = s.sealed(UrlBase64.decodedLength(token.length()));
+            sealedLength = UrlBase64.decode(token, sealed);
+        }
+        if (sealedLength < IV_SIZE + TAG_SIZE) {
+            throw new IllegalArgumentException("token is too short");
+        }
+        final byte[] plain = s.plain(sealedLength - IV_SIZE - TAG_SIZE);
+        s.cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_SIZE));
+        return s.cipher.doFinal(sealed, IV_SIZE, sealedLength - IV_SIZE, plain, 0);
+    }
+
+    private static byte[] decodeLegacy(final String token) {
+        try {
+            return Base64.getDecoder().decode(URLDecoder.decode(token, ASCII.name()));
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Per-thread cipher and working buffers.
+     */
+    private static final class State {
+
+        private final Cipher cipher;
+        private final byte[] iv = new byte[IV_SIZE];
+        private byte[] sealed = new byte[INITIAL_BUFFER_SIZE];
+        private byte[] plain = new byte[INITIAL_BUFFER_SIZE];
+        private byte[] encoded = new byte[INITIAL_BUFFER_SIZE];
+
+        State() {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+            }
+        }
+
+        byte[] sealed(final int size) {
+            if (sealed.length < size) {
+                sealed = new byte[size];
+            }
+            return sealed;
+        }
+
+        byte[] plain(final int size) {
+            if (plain.length < size) {
+                plain = new byte[size];
+            }
+            return plain;
+        }
+
+        byte[] encoded(final int size) {
+            if (encoded.length < size) {
+                encoded = new byte[size];
+            }
+            return encoded;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * JBoss, Home of Professional Open Source Copyright Red Hat, Inc., and individual contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.jboss.aerogear.webpush.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.UUID;
+
+/**
+ * Encodes and decodes the identifiers carried in endpoint tokens.
+ *
+ * Identifiers that are UUIDs are packed into a versioned binary layout:
+ * <pre>
+ *   encrypted: header(1) | iv(12) | AES-GCM(uuid(16) [| uuid(16)]) | tag(16)
+ *   signed:    header(1) | uuid(16) [| uuid(16)] | truncated HMAC-SHA256(16)
+ * </pre>
+ * where the header holds the layout version in the high nibble and the mode in the low nibble, and is
+ * authenticated together with the identifiers.
+ *
+ * Signed tokens are not encrypted, anyone holding the URL can read the identifiers they carry, so callers must
+ * only {@link #sign(String) sign} tokens whose identifiers are not secrets. A subscription id for instance
+ * grants access to the subscription's messages and must always be encrypted. Both modes are always accepted
+ * when decoding, as are the textual {@code id:id} tokens of {@link TokenCipher}, which are still produced for
+ * identifiers that are not UUIDs.
+ */
+public final class TokenCodec {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int VERSION_1 = 1;
+    private static final byte ENCRYPTED = (byte) (VERSION_1 << 4);
+    private static final byte SIGNED = (byte) (VERSION_1 << 4 | 1);
+    private static final int HEADER_SIZE = 1;
+    private static final int UUID_SIZE = 16;
+    private static final int UUID_STRING_LENGTH = 36;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+    private static final int MAC_SIZE = 16;
+    private static final int MAX_TOKEN_SIZE = HEADER_SIZE + IV_SIZE + 2 * UUID_SIZE + TAG_SIZE;
+    private static final byte[] MAC_KEY_LABEL = "webpush endpoint token signing".getBytes(ASCII);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec encryptionKey;
+    private final SecretKeySpec signingKey;
+    private final TokenCipher textCipher;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    /**
+     * Sole constructor.
+     *
+     * @param key the 256 bit server key.
+     */
+    public TokenCodec(final byte[] key) {
+        this.textCipher = new TokenCipher(key);
+        this.encryptionKey = new SecretKeySpec(key, "AES");
+        this.signingKey = new SecretKeySpec(deriveSigningKey(key), "HmacSHA256");
+    }
+
+    private static byte[] deriveSigningKey(final byte[] key) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(MAC_KEY_LABEL);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an encrypted token for a single identifier.
+     *
+     * @param id the identifier.
+     * @return {@code String} the URL-safe token.
+     */
+    public String encode(final String id) {
+        return encode(id, false);
+    }
+
+    /**
+     * Creates an encrypted token for a pair of identifiers.
+     *
+     * @param firstId the first identifier, usually the id of the resource.
+     * @param secondId the second identifier, usually the id of the subscription.
+     * @return {@code String} the URL-safe token.
+     */
+    public String encode(final String firstId, final String secondId) {
+        return encode(firstId, secondId, false);
+    }
+
+    /**
+     * Creates a signed token for a single identifier, which can be read by anyone holding the token.
+     *
+     * @param id the identifier, which must not be a secret.
+     * @return {@code String} the URL-safe token.
+     */
+    public String sign(final String id) {
+        return encode(id, true);
+    }
+
+    /**
+     * Creates a signed token for a pair of identifiers, which can be read by anyone holding the token.
+     *
+     * @param firstId the first identifier, which must not be a secret.
+     * @param secondId the second identifier, which must not be a secret.
+     * @return {@code String} the URL-safe token.
+     */
+    public String sign(final String firstId, final String secondId) {
+        return encode(firstId, secondId, true);
+    }
+
+    private String encode(final String id, final boolean signed) {
+        if (!isUuid(id)) {
+            return textCipher.encrypt(id);
+        }
+        final State s = state.get();
+        writeUuid(id, s.body, 0);
+        return encode(s, UUID_SIZE, signed);
+    }
+
+    private String encode(final String firstId, final String secondId, final boolean signed) {
+        if (!isUuid(firstId) || !isUuid(secondId)) {
+            return textCipher.encrypt(firstId + CryptoUtil.DELIMITER + secondId);
+        }
+        final State s = state.get();
+        writeUuid(firstId, s.body, 0);
+        writeUuid(secondId, s.body, UUID_SIZE);
+        return encode(s, 2 * UUID_SIZE, signed);
+    }
+
+    private String encode(final State s, final int bodyLength, final boolean signed) {
+        final byte[] token = s.token;
+        final int length;
+        try {
+            if (signed) {
+                token[0] = SIGNED;
+                System.arraycopy(s.body, 0, token, HEADER_SIZE, bodyLength);
+                s.mac.update(token, 0, HEADER_SIZE + bodyLength);
+                s.mac.doFinal(s.digest, 0);
+                System.arraycopy(s.digest, 0, token, HEADER_SIZE + bodyLength, MAC_SIZE);
+                length = HEADER_SIZE + bodyLength + MAC_SIZE;
+            } else {
+                token[0] = ENCRYPTED;
+                RANDOM.nextBytes(s.iv);
+                System.arraycopy(s.iv, 0, token, HEADER_SIZE, IV_SIZE);
+                s.cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, s.iv));
+                s.cipher.updateAAD(token, 0, HEADER_SIZE);
+                length = HEADER_SIZE + IV_SIZE
+                        + s.cipher.doFinal(s.body, 0, bodyLength, token, HEADER_SIZE + IV_SIZE);
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new RuntimeException("Can not encrypt path", e);
+        }
+        final int encodedLength = UrlBase64.encode(token, length, s.encoded);
+        return new String(s.encoded, 0, encodedLength, ASCII);
+    }
+
+    /**
+     * Returns the identifiers carried by the passed-in token.
+     *
+     * @param token the token to decode.
+     * @return {@code String[]} the identifiers in the order they were encoded.
+     * @throws GeneralSecurityException if the token was not created with this codec's key or was tampered with.
+     * @throws IllegalArgumentException if the token is malformed.
+     */
+    public String[] decode(final String token) throws GeneralSecurityException {
+        if (token.indexOf('%') >= 0 || UrlBase64.decodedLength(token.length()) > MAX_TOKEN_SIZE) {
+            return decodeText(token);
+        }
+        final State s = state.get();
+        final int length = UrlBase64.decode(token, s.token);
+        final int bodyLength;
+        try {
+            if (s.token[0] == ENCRYPTED && isBodyLength(length - HEADER_SIZE - IV_SIZE - TAG_SIZE)) {
+                bodyLength = open(s, length);
+            } else if (s.token[0] == SIGNED && isBodyLength(length - HEADER_SIZE - MAC_SIZE)) {
+                bodyLength = verify(s, length);
+            } else {
+                return decodeText(token);
+            }
+        } catch (final GeneralSecurityException e) {
+            // a textual token can start with the same byte and have the same length as a binary one.
+            return decodeText(token);
+        }
+        if (bodyLength == UUID_SIZE) {
+            return new String[]{readUuid(s.body, 0)};
+        }
+        return new String[]{readUuid(s.body, 0), readUuid(s.body, UUID_SIZE)};
+    }
+
+    private int open(final State s, final int length) throws GeneralSecurityException {
+        s.cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, s.token, HEADER_SIZE, IV_SIZE));
+        s.cipher.updateAAD(s.token, 0, HEADER_SIZE);
+        return s.cipher.doFinal(s.token, HEADER_SIZE + IV_SIZE, length - HEADER_SIZE - IV_SIZE, s.body, 0);
+    }
+
+    private int verify(final State s, final int length) throws GeneralSecurityException {
+        final int bodyLength = length - HEADER_SIZE - MAC_SIZE;
+        s.mac.update(s.token, 0, HEADER_SIZE + bodyLength);
+        s.mac.doFinal(s.digest, 0);
+        if (!macEquals(s.digest, s.token, HEADER_SIZE + bodyLength)) {
+            throw new SignatureException("invalid token signature");
+        }
+        System.arraycopy(s.token, HEADER_SIZE, s.body, 0, bodyLength);
+        return bodyLength;
+    }
+
+    private String[] decodeText(final String token) throws GeneralSecurityException {
+        return textCipher.decryptToString(token).split(CryptoUtil.DELIMITER);
+    }
+
+    private static boolean isBodyLength(final int length) {
+        return length == UUID_SIZE || length == 2 * UUID_SIZE;
+    }
+
+    private static boolean macEquals(final byte[] digest, final byte[] token, final int offset) {
+        int result = 0;
+        for (int i = 0; i < MAC_SIZE; i++) {
+            result |= digest[i] ^ token[offset + i];
+        }
+        return result == 0;
+    }
+
+    private static boolean isUuid(final String id) {
+        if (id.length() != UUID_STRING_LENGTH) {
+            return false;
+        }
+        try {
+            return UUID.fromString(id).toString().equals(id);
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void writeUuid(final String id, final byte[] dst, final int offset) {
+        final UUID uuid = UUID.fromString(id);
+        writeLong(uuid.getMostSignificantBits(), dst, offset);
+        writeLong(uuid.getLeastSignificantBits(), dst, offset + 8);
+    }
+
+    private static String readUuid(final byte[] src, final int offset) {
+        return new UUID(readLong(src, offset), readLong(src, offset + 8)).toString();
+    }
+
+    private static void writeLong(final long value, final byte[] dst, final int offset) {
+        for (int i = 0; i < 8; i++) {
+            dst[offset + i] = (byte) (value >>> 56 - 8 * i);
+        }
+    }
+
+    private static long readLong(final byte[] src, final int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | src[offset + i] & 0xff;
+        }
+        return value;
+    }
+
+    /**
+     * Per-thread cipher, mac and working buffers.
+     */
+    private final class State {
+
+        private final Cipher cipher;
+        private final Mac mac;
+        private final byte[] iv = new byte[IV_SIZE];
+        private final byte[] body = new byte[2 * UUID_SIZE];
+        private final byte[] digest;
+        private final byte[] token = new byte[MAX_TOKEN_SIZE];
+        private final byte[] encoded = new byte[UrlBase64.encodedLength(MAX_TOKEN_SIZE)];
+
+        State() {
+            try {
+                cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(signingKey);
+                digest = new byte[mac.getMacLength()];
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * JBoss, Home of Professional Open Source Copyright Red Hat, Inc., and individual contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.jboss.aerogear.webpush.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * URL-safe base64 without padding, encoding and decoding into caller supplied buffers.
+ */
+final class UrlBase64 {
+
+    private static final byte[] ENCODE_TABLE = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(Charset.forName("US-ASCII"));
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ENCODE_TABLE.length; i++) {
+            DECODE_TABLE[ENCODE_TABLE[i]] = (byte) i;
+        }
+    }
+
+    private UrlBase64() {
+    }
+
+    static int encodedLength(final int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    static int decodedLength(final int length) {
+        return length * 3 / 4;
+    }
+
+    static int encode(final byte[] src, final int length, final byte[] dst) {
+        int d = 0;
+        int s = 0;
+        for (final int end = length - length % 3; s < end; s += 3) {
+            final int bits = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8 | src[s + 2] & 0xff;
+            dst[d++] = ENCODE_TABLE[bits >>> 18 & 0x3f];
+            dst[d++] = ENCODE_TABLE[bits >>> 12 & 0x3f];
+            dst[d++] = ENCODE_TABLE[bits >>> 6 & 0x3f];
+            dst[d++] = ENCODE_TABLE[bits & 0x3f];
+        }
+        final int remaining = length - s;
+        if (remaining > 0) {
+            final int bits = (src[s] & 0xff) << 16 | (remaining == 2 ? (src[s + 1] & 0xff) << 8 : 0);
+            dst[d++] = ENCODE_TABLE[bits >>> 18 & 0x3f];
+            dst[d++] = ENCODE_TABLE[bits >>> 12 & 0x3f];
+            if (remaining == 2) {
+                dst[d++] = ENCODE_TABLE[bits >>> 6 & 0x3f];
+            }
+        }
+        return d;
+    }
+
+    static int decode(final CharSequence src, final byte[] dst) {
+        final int length = src.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("invalid base64 length: " + length);
+        }
+        int bits = 0;
+        int count = 0;
+        int d = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = src.charAt(i);
+            final int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("invalid base64 character: " + c);
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                dst[d++] = (byte) (bits >>> 16);
+                dst[d++] = (byte) (bits >>> 8);
+                dst[d++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            dst[d++] = (byte) (bits >>> 10);
+            dst[d++] = (byte) (bits >>> 2);
+        } else if (count == 2) {
+            dst[d++] = (byte) (bits >>> 4);
+        }
+        return d;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * JBoss, Home of Professional Open Source Copyright Red Hat, Inc., and individual contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.jboss.aerogear.webpush.util;
+
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+
+import org.jboss.aerogear.crypto.BlockCipher;
+import org.jboss.aerogear.crypto.CryptoBox;
+import org.jboss.aerogear.crypto.encoders.Encoder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenCipherTest {
+
+    private static byte[] key;
+
+    @BeforeClass
+    public static void createKey() {
+        key = CryptoUtil.secretKey("key", "some salt for the server private".getBytes());
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final TokenCipher cipher = new TokenCipher(key);
+        final String expected = UUID.randomUUID() + CryptoUtil.DELIMITER + UUID.randomUUID();
+        final String token = cipher.encrypt(expected);
+        assertThat(token.matches("[A-Za-z0-9_-]+"), is(true));
+        assertThat(cipher.decryptToString(token), is(equalTo(expected)));
+    }
+
+    @Test
+    public void roundTripAllLengths() throws Exception {
+        final TokenCipher cipher = new TokenCipher(key);
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            assertThat(cipher.decryptToString(cipher.encrypt(content.toString())), is(equalTo(content.toString())));
+            content.append((char) ('a' + i % 26));
+        }
+    }
+
+    @Test
+    public void decryptLegacyToken() throws Exception {
+        final String expected = UUID.randomUUID().toString();
+        final byte[] iv = BlockCipher.getIV();
+        final byte[] encrypted = new CryptoBox(key).encrypt(iv, expected.getBytes("US-ASCII"));
+        final byte[] withIV = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, withIV, 0, iv.length);
+        System.arraycopy(encrypted, 0, withIV, iv.length, encrypted.length);
+        final String legacyToken = URLEncoder.encode(Encoder.BASE64.encode(withIV), "US-ASCII");
+        assertThat(new TokenCipher(key).decryptToString(legacyToken), is(equalTo(expected)));
+    }
+
+    @Test (expected = GeneralSecurityException.class)
+    public void decryptWithWrongKey() throws Exception {
+        final String token = new TokenCipher(key).encrypt("content");
+        new TokenCipher(CryptoUtil.secretKey("other", "some salt for the server private".getBytes()))
+                .decryptToString(token);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void decryptInvalidToken() throws Exception {
+        new TokenCipher(key).decryptToString("not a token!");
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source Copyright Red Hat, Inc., and individual contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific
+ * language governing permissions and limitations under the License.
+ */
+package org.jboss.aerogear.webpush.util;
+
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenCodecTest {
+
+    private static byte[] key;
+
+    @BeforeClass
+    public static void createKey() {
+        key = CryptoUtil.secretKey("key", "some salt for the server private".getBytes());
+    }
+
+    @Test
+    public void roundTripEncrypted() throws Exception {
+        assertRoundTrip(new TokenCodec(key), false);
+    }
+
+    @Test
+    public void roundTripSigned() throws Exception {
+        assertRoundTrip(new TokenCodec(key), true);
+    }
+
+    @Test
+    public void shorterThanTextTokens() {
+        final String first = UUID.randomUUID().toString();
+        final String second = UUID.randomUUID().toString();
+        final String textToken = new TokenCipher(key).encrypt(first + CryptoUtil.DELIMITER + second);
+        assertThat(new TokenCodec(key).encode(first, second).length(), is(82));
+        assertThat(new TokenCodec(key).sign(first, second).length(), is(66));
+        assertThat(textToken.length(), is(140));
+    }
+
+    @Test
+    public void decodeTextToken() throws Exception {
+        final String first = UUID.randomUUID().toString();
+        final String second = UUID.randomUUID().toString();
+        final String textToken = new TokenCipher(key).encrypt(first + CryptoUtil.DELIMITER + second);
+        assertThat(new TokenCodec(key).decode(textToken), equalTo(new String[]{first, second}));
+    }
+
+    @Test
+    public void nonUuidIdentifiers() throws Exception {
+        final TokenCodec codec = new TokenCodec(key);
+        assertThat(codec.decode(codec.sign("subId")), equalTo(new String[]{"subId"}));
+        assertThat(codec.decode(codec.sign("resourceId", "subId")), equalTo(new String[]{"resourceId", "subId"}));
+        final String upperCase = UUID.randomUUID().toString().toUpperCase();
+        assertThat(codec.decode(codec.encode(upperCase)), equalTo(new String[]{upperCase}));
+    }
+
+    @Test
+    public void decodeEitherMode() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        final TokenCodec codec = new TokenCodec(key);
+        assertThat(codec.decode(codec.sign(id)), equalTo(new String[]{id}));
+        assertThat(codec.decode(codec.encode(id)), equalTo(new String[]{id}));
+    }
+
+    @Test (expected = GeneralSecurityException.class)
+    public void rejectTamperedSignedToken() throws Exception {
+        final TokenCodec codec = new TokenCodec(key);
+        final char[] token = codec.sign(UUID.randomUUID().toString()).toCharArray();
+        token[5] = token[5] == 'A' ? 'B' : 'A';
+        codec.decode(new String(token));
+    }
+
+    @Test (expected = GeneralSecurityException.class)
+    public void rejectSignedTokenWithWrongKey() throws Exception {
+        final String token = new TokenCodec(key).sign(UUID.randomUUID().toString());
+        new TokenCodec(CryptoUtil.secretKey("other", "some salt for the server private".getBytes())).decode(token);
+    }
+
+    private static void assertRoundTrip(final TokenCodec codec, final boolean signed) throws Exception {
+        final String first = UUID.randomUUID().toString();
+        final String second = UUID.randomUUID().toString();
+        final String single = signed ? codec.sign(second) : codec.encode(second);
+        final String pair = signed ? codec.sign(first, second) : codec.encode(first, second);
+        assertThat(single.matches("[A-Za-z0-9_-]+"), is(true));
+        assertThat(pair.matches("[A-Za-z0-9_-]+"), is(true));
+        assertThat(codec.decode(single), equalTo(new String[]{second}));
+        assertThat(codec.decode(pair), equalTo(new String[]{first, second}));
+    }
+
+}
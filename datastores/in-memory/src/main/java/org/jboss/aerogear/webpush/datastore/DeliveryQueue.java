@@ -0,0 +1,173 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.util.ReferenceCountUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, multi-producer single-consumer queue of the messages waiting for delivery to one subscription.
+ *
+ * Producers append by swinging the tail to their node with a compare-and-set, then link the previous tail to it.
+ * The queue is drained once: {@link #drainAndClose()} swaps the tail for a closed marker, which both fixes the
+ * last message of the drain and makes every later {@link #offer(PushMessage)} fail. A producer that loses that
+ * race gets {@code false} and has to offer its message to a new queue, so no message is added to a queue that
+ * has already been drained.
+ *
+ * Between its compare-and-set and linking the previous tail a producer has appended a message that can not be
+ * reached yet. The consumer waits for such links up to the last message, which takes no longer than the two
+ * writes it is waiting for.
+ *
+ * Each message carries a deadline, after which {@link #removeExpired(long, LongAdder)} drops it. Like draining,
+ * that is done by the consumer, and the two must not run concurrently.
+ */
+final class DeliveryQueue {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final Node CLOSED = new Node(null, NO_DEADLINE);
+
+    private final AtomicReference<Node> tail;
+    private final Node head;
+
+    DeliveryQueue() {
+        head = new Node(null, NO_DEADLINE);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Appends a message that never expires, unless the queue has been drained.
+     *
+     * @param msg the message to append.
+     * @return {@code true} if the message was appended, {@code false} if the queue has been closed.
+     */
+    boolean offer(final PushMessage msg) {
+        return offer(msg, NO_DEADLINE);
+    }
+
+    /**
+     * Appends a message unless the queue has been drained.
+     *
+     * @param msg the message to append.
+     * @param deadline the time in milliseconds after which the message expires.
+     * @return {@code true} if the message was appended, {@code false} if the queue has been closed.
+     */
+    boolean offer(final PushMessage msg, final long deadline) {
+        final Node node = new Node(msg, deadline);
+        for (;;) {
+            final Node last = tail.get();
+            if (last == CLOSED) {
+                return false;
+            }
+            if (tail.compareAndSet(last, node)) {
+                last.next = node;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Closes the queue and returns all messages that were appended to it, in the order in which they were appended.
+     *
+     * Must be called by a single consumer.
+     *
+     * @return {@code List} the messages, empty if there were none or the queue had already been drained.
+     */
+    List<PushMessage> drainAndClose() {
+        final Node last = tail.getAndSet(CLOSED);
+        if (last == CLOSED || last == head) {
+            return Collections.emptyList();
+        }
+        final List<PushMessage> messages = new ArrayList<>();
+        for (Node node = head; node != last; ) {
+            Node next = node.next;
+            while (next == null) {
+                // a producer has moved the tail but not yet linked its node.
+                Thread.yield();
+                next = node.next;
+            }
+            if (next.message != null) {
+                messages.add(next.message);
+            }
+            node = next;
+        }
+        return messages;
+    }
+
+    /**
+     * Drops and releases the messages whose deadline has passed. Must be called by the consumer.
+     *
+     * @param now the current time in milliseconds.
+     * @param expired counts the dropped messages.
+     * @return {@code long} the earliest deadline of the remaining messages, or {@link #NO_DEADLINE} if there is none.
+     */
+    long removeExpired(final long now, final LongAdder expired) {
+        long earliest = NO_DEADLINE;
+        Node previous = head;
+        for (Node node = head.next; node != null; node = node.next) {
+            if (node.message == null) {
+                continue;
+            }
+            if (node.deadline > now) {
+                earliest = Math.min(earliest, node.deadline);
+                previous = node;
+                continue;
+            }
+            expired.increment();
+            ReferenceCountUtil.release(node.message);
+            if (node.next != null) {
+                // no producer links to a node that is not the tail, so it can be unlinked.
+                previous.next = node.next;
+            } else {
+                // possibly the tail, which stays in place without its message.
+                node.message = null;
+            }
+        }
+        return earliest;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    boolean isClosed() {
+        return tail.get() == CLOSED;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryQueue[closed=" + isClosed() + "]";
+    }
+
+    private static final class Node {
+
+        private final long deadline;
+        // only cleared by the consumer, when the message expires.
+        private PushMessage message;
+        private volatile Node next;
+
+        Node(final PushMessage message, final long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed timing wheel that runs tasks once their deadline has passed.
+ *
+ * Timeouts are hashed by their tick into a fixed number of buckets, so scheduling and cancelling are constant
+ * time regardless of how many timeouts are pending. Each tick only the bucket of that tick is visited and
+ * timeouts that lie more rounds in the future stay in it. Deadlines are honoured with a precision of one tick.
+ *
+ * The wheel is advanced by a daemon thread that is started with the first timeout, or by calling
+ * {@link #advanceTo(long)} when it was created without one. Tasks run on the advancing thread and should be short.
+ */
+final class HashedTimingWheel implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final LongSupplier clock;
+    private final boolean startWorker;
+    private final long startTime;
+    private long currentTick;
+    private Thread worker;
+    private boolean closed;
+
+    /**
+     * Creates a wheel that is advanced by its own thread using the system clock.
+     *
+     * @param name the name of the worker thread.
+     * @param tickMillis the duration of one tick in milliseconds.
+     * @param wheelSize the number of buckets, rounded up to a power of two.
+     */
+    HashedTimingWheel(final String name, final long tickMillis, final int wheelSize) {
+        this(name, tickMillis, wheelSize, System::currentTimeMillis, true);
+    }
+
+    HashedTimingWheel(final String name, final long tickMillis, final int wheelSize,
+                      final LongSupplier clock, final boolean startWorker) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+        }
+        final int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        this.name = Objects.requireNonNull(name, "name must not be null");
+        this.tickMillis = tickMillis;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.clock = Objects.requireNonNull(clock, "clock must not be null");
+        this.startWorker = startWorker;
+        this.startTime = clock.getAsLong();
+    }
+
+    /**
+     * Schedules a task to run once the deadline has passed. Deadlines in the past run with the next tick.
+     *
+     * @param deadline the time in milliseconds, as given by the clock of this wheel.
+     * @param task the task to run.
+     * @return {@link Timeout} that can be used to cancel the task.
+     */
+    synchronized Timeout schedule(final long deadline, final Runnable task) {
+        Objects.requireNonNull(task, "task must not be null");
+        if (closed) {
+            throw new IllegalStateException("Timing wheel " + name + " has been closed");
+        }
+        // rounded up, so a task never runs before its deadline.
+        final long tick = Math.max(currentTick + 1, ceilDiv(deadline - startTime, tickMillis));
+        final Timeout timeout = new Timeout(this, tick, task);
+        buckets[(int) (tick & mask)].add(timeout);
+        if (startWorker && worker == null) {
+            worker = new Thread(this::run, name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        return timeout;
+    }
+
+    /**
+     * Runs the tasks of all ticks that have passed at the given time.
+     *
+     * @param now the current time in milliseconds.
+     * @return {@code int} the number of tasks that were run.
+     */
+    int advanceTo(final long now) {
+        final List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            final long target = Math.floorDiv(now - startTime, tickMillis);
+            // a full revolution visits every bucket, further ticks would only revisit them.
+            final long first = Math.max(currentTick + 1, target - mask);
+            for (long tick = first; tick <= target; tick++) {
+                buckets[(int) (tick & mask)].expire(target, expired);
+            }
+            currentTick = Math.max(currentTick, target);
+        }
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Timeout task of {} failed", name, e);
+            }
+        }
+        return expired.size();
+    }
+
+    /**
+     * Returns the number of timeouts that have neither run nor been cancelled.
+     *
+     * @return {@code int} the number of pending timeouts.
+     */
+    synchronized int pending() {
+        int pending = 0;
+        for (Bucket bucket : buckets) {
+            pending += bucket.size;
+        }
+        return pending;
+    }
+
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = worker;
+            notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            for (;;) {
+                synchronized (this) {
+                    final long next = startTime + (currentTick + 1) * tickMillis;
+                    long wait = next - clock.getAsLong();
+                    while (!closed && wait > 0) {
+                        wait(wait);
+                        wait = next - clock.getAsLong();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                advanceTo(clock.getAsLong());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void cancel(final Timeout timeout) {
+        if (timeout.bucket != null) {
+            timeout.bucket.remove(timeout);
+        }
+    }
+
+    private static long ceilDiv(final long x, final long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    /**
+     * A scheduled task, which can be cancelled until it has run.
+     */
+    static final class Timeout {
+
+        private final HashedTimingWheel wheel;
+        private final long tick;
+        private final Runnable task;
+        // guarded by the wheel.
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(final HashedTimingWheel wheel, final long tick, final Runnable task) {
+            this.wheel = wheel;
+            this.tick = tick;
+            this.task = task;
+        }
+
+        /**
+         * Prevents the task from running, unless it already has.
+         */
+        void cancel() {
+            wheel.cancel(this);
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, so that cancelled timeouts are unlinked in constant time.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+        private int size;
+
+        void add(final Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+            size++;
+        }
+
+        void remove(final Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+            size--;
+        }
+
+        void expire(final long target, final List<Timeout> expired) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.tick <= target) {
+                    remove(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -17,33 +17,84 @@
 package org.jboss.aerogear.webpush.datastore;
 
 
+import io.netty.util.ReferenceCountUtil;
 import org.jboss.aerogear.webpush.Subscription;
 import org.jboss.aerogear.webpush.PushMessage;
 
-import java.util.ArrayList;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static org.jboss.aerogear.webpush.datastore.DeliveryQueue.NO_DEADLINE;
 
 /**
  * A {@link DataStore} implementation that stores all information in memory.
+ *
+ * The messages of each subscription are held in a single {@link SubscriptionEntry}, which keeps messages waiting
+ * for delivery in a lock-free {@link DeliveryQueue} and delivered messages until they are acknowledged. Entries
+ * are created with the first message of a subscription, and messages of a removed subscription are dropped.
+ *
+ * Waiting messages expire once their TTL has elapsed and receipts of delivered messages once they are older than
+ * {@code messageMaxAge}, so the store stays bounded while subscribers are offline. Each entry has at most one
+ * timeout pending on a {@link HashedTimingWheel}, for the earliest deadline of its messages.
+ *
+ * Messages are kept as they were passed in, so the store retains reference counted messages and their payload
+ * buffers until they are handed out, dropped or expire.
  */
-public class InMemoryDataStore implements DataStore {
+public class InMemoryDataStore implements DataStore, AutoCloseable {
 
     public static final byte[] EMPTY_BYTES = {};
-    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, List<PushMessage>> waitingDeliveryMessages = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, ConcurrentMap<String, PushMessage>> sentMessages = new ConcurrentHashMap<>();
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SIZE = 512;
+
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final ConcurrentMap<String, SubscriptionEntry> entries = new ConcurrentHashMap<>();
+    private final LongAdder expiredMessages = new LongAdder();
+    private final LongAdder expiredReceipts = new LongAdder();
+    private final HashedTimingWheel wheel;
+    private final LongSupplier clock;
+    private final long messageMaxAge;
+
+    private volatile byte[] salt;
+
+    /**
+     * Creates a store in which only messages with a TTL expire.
+     */
+    public InMemoryDataStore() {
+        this(0);
+    }
 
-    private byte[] salt;
+    /**
+     * Creates a store that keeps messages for at most {@code messageMaxAge}.
+     *
+     * @param messageMaxAge the maximum age of a stored message in milliseconds, or {@code 0} for no limit.
+     */
+    public InMemoryDataStore(final long messageMaxAge) {
+        this(messageMaxAge, new HashedTimingWheel("webpush-message-expiry", TICK_MILLIS, WHEEL_SIZE),
+                System::currentTimeMillis);
+    }
+
+    InMemoryDataStore(final long messageMaxAge, final HashedTimingWheel wheel, final LongSupplier clock) {
+        if (messageMaxAge < 0) {
+            throw new IllegalArgumentException("messageMaxAge must not be negative");
+        }
+        this.messageMaxAge = messageMaxAge;
+        this.wheel = Objects.requireNonNull(wheel, "wheel must not be null");
+        this.clock = Objects.requireNonNull(clock, "clock must not be null");
+    }
 
     @Override
     public void saveSubscription(final Subscription subscription) {
         Objects.requireNonNull(subscription, "subscription must not be null");
-        subscriptions.putIfAbsent(subscription.id(), subscription);
+        subscriptions.putIfAbsent(subscription);
     }
 
     @Override
@@ -53,49 +104,46 @@ public class InMemoryDataStore implements DataStore {
 
     @Override
     public List<PushMessage> removeSubscription(final String id) {
-        List<PushMessage> result = null;
-        Subscription subscription;
-        List<PushMessage> waitingDelivery;
-        ConcurrentMap<String, PushMessage> sent;
-        do {
-            subscription = subscriptions.remove(id);
-            waitingDelivery = waitingDeliveryMessages.remove(id);
-            sent = sentMessages.remove(id);
-            if (sent != null) {
-                if (result == null) {
-                    result = new ArrayList<>(sent.values());
-                } else {
-                    result.addAll(sent.values());
-                }
-            }
-        } while (subscription != null || waitingDelivery != null || sent != null);
-        return result != null ? result : Collections.emptyList();
+        subscriptions.remove(id);
+        final SubscriptionEntry entry = entries.remove(id);
+        return entry != null ? entry.remove() : Collections.emptyList();
+    }
+
+    @Override
+    public List<String> expiredSubscriptions(final long now, final int batchSize) {
+        return subscriptions.expired(now, batchSize);
     }
 
     @Override
     public void saveMessage(final PushMessage msg) {
         Objects.requireNonNull(msg, "push message can not be null");
-        final String subId = msg.subscription();
-        final List<PushMessage> currentList = waitingDeliveryMessages.get(subId);
-        if (currentList != null) {
-            currentList.add(msg);
+        final SubscriptionEntry entry = entry(msg.subscription());
+        if (entry == null) {
+            return;
+        }
+        // a message that is stored again, after it was taken out for delivery, keeps the deadline it was first
+        // stored with, as its age counts from its creation.
+        final long created = Math.min(clock.getAsLong(), epochMillis(msg.createdDateTime()));
+        long deadline = messageMaxAge > 0 ? created + messageMaxAge : NO_DEADLINE;
+        if (msg.ttl().isPresent()) {
+            deadline = Math.min(deadline, created + TimeUnit.SECONDS.toMillis(msg.ttl().get()));
+        }
+        ReferenceCountUtil.retain(msg);
+        // an entry that was removed after it was looked up drops the message, as its subscription is gone.
+        if (entry.offer(msg, deadline)) {
+            scheduleExpiry(entry, deadline);
         } else {
-            final List<PushMessage> newList = Collections.synchronizedList(new ArrayList<>());
-            newList.add(msg);
-            final List<PushMessage> previousList = waitingDeliveryMessages.putIfAbsent(subId, newList);
-            if (previousList != null) {
-                previousList.add(msg);
-            }
+            ReferenceCountUtil.release(msg);
         }
     }
 
     @Override
     public List<PushMessage> waitingDeliveryMessages(final String subId) {
-        final List<PushMessage> currentList = waitingDeliveryMessages.remove(subId);
-        if (currentList == null) {
+        final SubscriptionEntry entry = entries.get(subId);
+        if (entry == null) {
             return Collections.emptyList();
         }
-        return Collections.unmodifiableList(currentList);
+        return Collections.unmodifiableList(entry.drain(clock.getAsLong(), expiredMessages));
     }
 
     @Override
@@ -104,31 +152,85 @@ public class InMemoryDataStore implements DataStore {
         if (!msg.receiptSubscription().isPresent()) {
             throw new IllegalArgumentException("push message must have receipt subscription URI");
         }
-
-        final String subId = msg.subscription();
-        ConcurrentMap<String, PushMessage> currentMap = sentMessages.get(subId);
-        if (currentMap == null) {
-            final ConcurrentMap<String, PushMessage> newMap = new ConcurrentHashMap<>();
-            final ConcurrentMap<String, PushMessage> previousMap = sentMessages.putIfAbsent(subId, newMap);
-            currentMap = previousMap != null ? previousMap : newMap;
+        final long deadline = messageMaxAge > 0 ? clock.getAsLong() + messageMaxAge : NO_DEADLINE;
+        final SubscriptionEntry entry = entry(msg.subscription());
+        if (entry == null) {
+            return;
+        }
+        ReferenceCountUtil.retain(msg);
+        if (entry.putSent(msg, deadline)) {
+            scheduleExpiry(entry, deadline);
         }
-        currentMap.put(msg.id(), msg);
     }
 
     @Override
     public Optional<PushMessage> sentMessage(final String subId, final String msgId) {
-        final ConcurrentMap<String, PushMessage> map = sentMessages.get(subId);
-        if (map != null) {
-            return Optional.ofNullable(map.remove(msgId));
+        final SubscriptionEntry entry = entries.get(subId);
+        if (entry != null) {
+            return entry.removeSent(msgId);
         }
         return Optional.empty();
     }
 
+    /**
+     * Returns the number of waiting messages that were dropped because their TTL or the maximum age had elapsed.
+     *
+     * @return {@code long} the number of expired messages.
+     */
+    public long expiredMessages() {
+        return expiredMessages.sum();
+    }
+
+    /**
+     * Returns the number of delivered messages that were not acknowledged within the maximum age.
+     *
+     * @return {@code long} the number of expired receipts.
+     */
+    public long expiredReceipts() {
+        return expiredReceipts.sum();
+    }
+
+    private static long epochMillis(final LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void scheduleExpiry(final SubscriptionEntry entry, final long deadline) {
+        // most messages are added with a later deadline than the pending one, which needs no lock.
+        if (deadline != NO_DEADLINE && entry.needsTimeout(deadline)) {
+            entry.schedule(deadline, wheel, () -> expire(entry));
+        }
+    }
+
+    private void expire(final SubscriptionEntry entry) {
+        final long next = entry.expire(clock.getAsLong(), expiredMessages, expiredReceipts);
+        scheduleExpiry(entry, next);
+    }
+
+    /**
+     * Returns the entry of a subscription, which is created for a subscription that exists, or {@code null} if
+     * the subscription has been removed.
+     */
+    private SubscriptionEntry entry(final String subId) {
+        final SubscriptionEntry entry = entries.get(subId);
+        if (entry != null) {
+            return entry;
+        }
+        if (subscriptions.get(subId) == null) {
+            return null;
+        }
+        final SubscriptionEntry created = entries.computeIfAbsent(subId, k -> new SubscriptionEntry());
+        // removeSubscription may have run in between and missed the new entry, which then has to go as well.
+        if (subscriptions.get(subId) == null && entries.remove(subId, created)) {
+            created.remove().forEach(ReferenceCountUtil::release);
+            return null;
+        }
+        return created;
+    }
+
     @Override
     public void savePrivateKeySalt(final byte[] salt) {
-        if (this.salt != null) {
-            this.salt = salt;
-        }
+        Objects.requireNonNull(salt, "salt must not be null");
+        this.salt = salt;
     }
 
     @Override
@@ -138,4 +240,12 @@ public class InMemoryDataStore implements DataStore {
         }
         return salt;
     }
+
+    /**
+     * Stops expiring messages.
+     */
+    @Override
+    public void close() {
+        wheel.close();
+    }
 }
@@ -0,0 +1,122 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * A {@link PushMessage} read back from a datastore's serialized form.
+ *
+ * The payload is held in a heap array, so the message is not reference counted and needs no release.
+ */
+final class StoredPushMessage implements PushMessage {
+
+    private final String id;
+    private final String token;
+    private final String subscription;
+    private final Optional<String> receiptSubscription;
+    private final byte[] payload;
+    private final Optional<Integer> ttl;
+    private final LocalDateTime createdDateTime;
+
+    StoredPushMessage(final String id,
+                      final String token,
+                      final String subscription,
+                      final Optional<String> receiptSubscription,
+                      final String payload,
+                      final Optional<Integer> ttl,
+                      final LocalDateTime createdDateTime) {
+        this(id, token, subscription, receiptSubscription, payload.getBytes(CharsetUtil.UTF_8), ttl,
+                createdDateTime);
+    }
+
+    StoredPushMessage(final String id,
+                      final String token,
+                      final String subscription,
+                      final Optional<String> receiptSubscription,
+                      final byte[] payload,
+                      final Optional<Integer> ttl,
+                      final LocalDateTime createdDateTime) {
+        this.id = id;
+        this.token = token;
+        this.subscription = subscription;
+        this.receiptSubscription = receiptSubscription;
+        this.payload = payload;
+        this.ttl = ttl;
+        this.createdDateTime = createdDateTime;
+    }
+
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public String token() {
+        return token;
+    }
+
+    @Override
+    public String subscription() {
+        return subscription;
+    }
+
+    @Override
+    public Optional<String> receiptSubscription() {
+        return receiptSubscription;
+    }
+
+    @Override
+    public ByteBuf content() {
+        return Unpooled.wrappedBuffer(payload);
+    }
+
+    @Override
+    public Optional<Integer> ttl() {
+        return ttl;
+    }
+
+    @Override
+    public LocalDateTime createdDateTime() {
+        return createdDateTime;
+    }
+
+    /**
+     * Copies the passed-in message, so that it can be kept without holding on to its payload buffer.
+     *
+     * @param msg the message to copy.
+     * @return {@link PushMessage} the copy.
+     */
+    static PushMessage copyOf(final PushMessage msg) {
+        final ByteBuf content = msg.content();
+        final byte[] payload = new byte[content.readableBytes()];
+        content.getBytes(content.readerIndex(), payload);
+        return new StoredPushMessage(msg.id(), msg.token(), msg.subscription(), msg.receiptSubscription(), payload,
+                msg.ttl(), msg.createdDateTime());
+    }
+
+    @Override
+    public String toString() {
+        return "PushMessage[id=" + id + ", subscription=" + subscription + ", ttl=" + ttl + "]";
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.util.ReferenceCountUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.datastore.HashedTimingWheel.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jboss.aerogear.webpush.datastore.DeliveryQueue.NO_DEADLINE;
+
+/**
+ * The messages of a single subscription: those waiting for delivery and those delivered but not yet acknowledged.
+ *
+ * Holding both in one entry lets {@link InMemoryDataStore} find, fill and remove them with a single map operation.
+ * The waiting messages are kept in a {@link DeliveryQueue} that is swapped for an empty one when it is drained.
+ * Once the entry has been {@link #remove() removed}, it accepts no more messages.
+ *
+ * Messages are added without locking. Draining, expiring and removing consume messages and are serialized on the
+ * entry, which also guards the single timeout that is scheduled for the earliest deadline of its messages.
+ */
+final class SubscriptionEntry {
+
+    private static final AtomicReferenceFieldUpdater<SubscriptionEntry, DeliveryQueue> QUEUE =
+            AtomicReferenceFieldUpdater.newUpdater(SubscriptionEntry.class, DeliveryQueue.class, "queue");
+    private static final DeliveryQueue REMOVED = new DeliveryQueue();
+
+    static {
+        REMOVED.drainAndClose();
+    }
+
+    private final ConcurrentMap<String, Receipt> sent = new ConcurrentHashMap<>();
+    private volatile DeliveryQueue queue = new DeliveryQueue();
+    // the deadline of the pending timeout, written under the entry lock and read without it.
+    private volatile long scheduled = NO_DEADLINE;
+    private Timeout timeout;
+
+    /**
+     * Appends a message waiting for delivery.
+     *
+     * @param msg the message to append.
+     * @param deadline the time in milliseconds after which the message expires.
+     * @return {@code true} if the message was appended, {@code false} if the entry has been removed.
+     */
+    boolean offer(final PushMessage msg, final long deadline) {
+        for (;;) {
+            final DeliveryQueue current = queue;
+            if (current.offer(msg, deadline)) {
+                return true;
+            }
+            if (current == REMOVED) {
+                return false;
+            }
+            // drained after it was read, the next read sees its replacement.
+        }
+    }
+
+    /**
+     * Returns and removes all messages waiting for delivery that have not expired.
+     *
+     * @param now the current time in milliseconds.
+     * @param expired counts the expired messages that were dropped instead.
+     * @return {@code List} the messages in the order in which they were appended.
+     */
+    synchronized List<PushMessage> drain(final long now, final LongAdder expired) {
+        final DeliveryQueue current = queue;
+        if (current.isEmpty() || current == REMOVED) {
+            return Collections.emptyList();
+        }
+        // the replacement is in place before the drained queue is closed, so producers never wait for it.
+        QUEUE.set(this, new DeliveryQueue());
+        current.removeExpired(now, expired);
+        return current.drainAndClose();
+    }
+
+    /**
+     * Keeps a delivered message until it is acknowledged, taking over the reference that the caller holds.
+     *
+     * @return {@code true} if the message is kept, {@code false} if the entry has been removed and the message
+     *         was released.
+     */
+    boolean putSent(final PushMessage msg, final long deadline) {
+        final Receipt replaced = sent.put(msg.id(), new Receipt(msg, deadline));
+        if (replaced != null) {
+            ReferenceCountUtil.release(replaced.message);
+        }
+        // remove() may have collected the receipts before this one was added.
+        if (queue == REMOVED && sent.remove(msg.id()) != null) {
+            ReferenceCountUtil.release(msg);
+            return false;
+        }
+        return true;
+    }
+
+    Optional<PushMessage> removeSent(final String msgId) {
+        final Receipt receipt = sent.remove(msgId);
+        return receipt != null ? Optional.of(receipt.message) : Optional.empty();
+    }
+
+    /**
+     * Drops the waiting messages and the receipts whose deadline has passed.
+     *
+     * @param now the current time in milliseconds.
+     * @param expiredMessages counts the dropped waiting messages.
+     * @param expiredReceipts counts the dropped receipts.
+     * @return {@code long} the earliest deadline of the remaining messages, or {@link DeliveryQueue#NO_DEADLINE}.
+     */
+    synchronized long expire(final long now, final LongAdder expiredMessages, final LongAdder expiredReceipts) {
+        // cleared first, so a producer that reads it after this walk missed its message schedules a new timeout.
+        scheduled = NO_DEADLINE;
+        timeout = null;
+        final DeliveryQueue current = queue;
+        if (current == REMOVED) {
+            return NO_DEADLINE;
+        }
+        long earliest = current.removeExpired(now, expiredMessages);
+        for (Iterator<Receipt> it = sent.values().iterator(); it.hasNext();) {
+            final Receipt receipt = it.next();
+            if (receipt.deadline > now) {
+                earliest = Math.min(earliest, receipt.deadline);
+            } else if (sent.remove(receipt.message.id(), receipt)) {
+                expiredReceipts.increment();
+                ReferenceCountUtil.release(receipt.message);
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Returns whether a timeout must be scheduled for a deadline, because no earlier one is pending.
+     *
+     * @param deadline the deadline of a message that was added to this entry.
+     * @return {@code true} if {@link #schedule(long, HashedTimingWheel, Runnable)} needs to be called.
+     */
+    boolean needsTimeout(final long deadline) {
+        return deadline < scheduled;
+    }
+
+    /**
+     * Replaces the pending timeout with one for an earlier deadline.
+     *
+     * @param deadline the deadline of a message that was added to this entry.
+     * @param wheel the wheel to schedule the timeout on.
+     * @param task the task that expires the messages of this entry.
+     */
+    synchronized void schedule(final long deadline, final HashedTimingWheel wheel, final Runnable task) {
+        if (deadline >= scheduled || queue == REMOVED) {
+            return;
+        }
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        scheduled = deadline;
+        timeout = wheel.schedule(deadline, task);
+    }
+
+    /**
+     * Discards and releases the waiting messages, after which the entry accepts no more messages.
+     *
+     * @return {@code List} the delivered messages that were waiting for an acknowledgement.
+     */
+    synchronized List<PushMessage> remove() {
+        final DeliveryQueue current = QUEUE.getAndSet(this, REMOVED);
+        for (PushMessage msg : current.drainAndClose()) {
+            ReferenceCountUtil.release(msg);
+        }
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+        if (sent.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<PushMessage> messages = new ArrayList<>(sent.size());
+        // a receipt belongs to whoever takes it out of the map, here or in a concurrent putSent.
+        for (String msgId : sent.keySet()) {
+            final Receipt receipt = sent.remove(msgId);
+            if (receipt != null) {
+                messages.add(receipt.message);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionEntry[sent=" + sent.size() + ", removed=" + (queue == REMOVED) + "]";
+    }
+
+    private static final class Receipt {
+
+        private final PushMessage message;
+        private final long deadline;
+
+        Receipt(final PushMessage message, final long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent index of subscriptions keyed by their UUID identifiers.
+ *
+ * Subscriptions whose {@code id} and {@code pushResourceId} are canonical UUIDs are not stored as objects.
+ * Both identifiers are kept as two {@code long}s each in open addressing tables, and the endpoint tokens
+ * are kept in a single ASCII {@code byte[]} per subscription. Lookups create a light-weight
+ * {@link Subscription} view of a slot. Any other subscription is kept as-is in a regular map.
+ *
+ * The index is split into segments, each guarded by a {@link StampedLock}. Lookups are optimistic and only
+ * take the read lock if they raced with a write to the same segment.
+ *
+ * Expired subscriptions are found by {@link #expired(long, int)}, which scans a bounded number of slots per call
+ * and resumes where the previous call stopped, one segment at a time.
+ */
+final class SubscriptionIndex {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = Integer.numberOfLeadingZeros(SEGMENTS - 1);
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final ConcurrentMap<String, Subscription> others = new ConcurrentHashMap<>();
+    // the position of the expiry scan, segment SEGMENTS stands for the other subscriptions.
+    private int scanSegment;
+    private int scanSlot;
+    private Iterator<Subscription> scanOthers;
+
+    SubscriptionIndex() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Adds the passed-in subscription unless a subscription with the same id is already present.
+     *
+     * @param subscription the subscription to add.
+     * @return {@code true} if the subscription was added.
+     */
+    boolean putIfAbsent(final Subscription subscription) {
+        final String id = subscription.id();
+        final byte[] tokens = packTokens(subscription);
+        if (tokens == null || !Uuids.isCanonical(id) || !Uuids.isCanonical(subscription.pushResourceId())) {
+            return get(id) == null && others.putIfAbsent(id, subscription) == null;
+        }
+        final long msb = Uuids.msb(id);
+        final long lsb = Uuids.lsb(id);
+        if (!others.isEmpty() && others.containsKey(id)) {
+            return false;
+        }
+        final String resourceId = subscription.pushResourceId();
+        return segmentFor(msb, lsb).putIfAbsent(msb, lsb, Uuids.msb(resourceId), Uuids.lsb(resourceId), tokens,
+                subscription.expires());
+    }
+
+    /**
+     * Returns the subscription with the passed-in id.
+     *
+     * @param id the id of the subscription.
+     * @return {@link Subscription} the subscription, or {@code null} if there is none with that id.
+     */
+    Subscription get(final String id) {
+        if (!Uuids.isCanonical(id)) {
+            return others.get(id);
+        }
+        final long msb = Uuids.msb(id);
+        final long lsb = Uuids.lsb(id);
+        final Subscription subscription = segmentFor(msb, lsb).get(id, msb, lsb);
+        return subscription != null || others.isEmpty() ? subscription : others.get(id);
+    }
+
+    /**
+     * Removes the subscription with the passed-in id.
+     *
+     * @param id the id of the subscription.
+     * @return {@link Subscription} the removed subscription, or {@code null} if there was none with that id.
+     */
+    Subscription remove(final String id) {
+        if (!Uuids.isCanonical(id)) {
+            return others.remove(id);
+        }
+        final long msb = Uuids.msb(id);
+        final long lsb = Uuids.lsb(id);
+        final Subscription subscription = segmentFor(msb, lsb).remove(id, msb, lsb);
+        return subscription != null || others.isEmpty() ? subscription : others.remove(id);
+    }
+
+    /**
+     * Scans the next slots of the index for subscriptions that have expired, without removing them.
+     *
+     * Scanning resumes where the previous call stopped and wraps around after the last segment, so that repeated
+     * calls visit every subscription. A single call visits each segment at most once.
+     *
+     * @param now the current time in milliseconds.
+     * @param maxSlots the maximum number of slots to scan.
+     * @return {@code List} the ids of the expired subscriptions that were found.
+     */
+    synchronized List<String> expired(final long now, final int maxSlots) {
+        final List<String> expired = new ArrayList<>();
+        int budget = maxSlots;
+        for (int visited = 0; budget > 0 && visited <= SEGMENTS; visited++) {
+            if (scanSegment < SEGMENTS) {
+                final int end = segments[scanSegment].expired(now, scanSlot, budget, expired);
+                budget -= end - scanSlot;
+                if (end < segments[scanSegment].capacity()) {
+                    scanSlot = end;
+                    continue;
+                }
+                scanSegment++;
+                scanSlot = 0;
+            } else {
+                if (scanOthers == null) {
+                    scanOthers = others.values().iterator();
+                }
+                for (; budget > 0 && scanOthers.hasNext(); budget--) {
+                    final Subscription subscription = scanOthers.next();
+                    if (subscription.expires() <= now) {
+                        expired.add(subscription.id());
+                    }
+                }
+                if (!scanOthers.hasNext()) {
+                    scanOthers = null;
+                    scanSegment = 0;
+                }
+            }
+        }
+        return expired;
+    }
+
+    int size() {
+        int size = others.size();
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriptionIndex[size=" + size() + "]";
+    }
+
+    private Segment segmentFor(final long msb, final long lsb) {
+        return segments[hash(msb, lsb) >>> SEGMENT_SHIFT];
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        final long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+
+    private static byte[] packTokens(final Subscription subscription) {
+        final String pushToken = subscription.pushToken();
+        final String receiptsToken = subscription.receiptsToken();
+        if (pushToken == null || receiptsToken == null || pushToken.length() > 0xFFFF
+                || !isAscii(pushToken) || !isAscii(receiptsToken)) {
+            return null;
+        }
+        final byte[] tokens = new byte[2 + pushToken.length() + receiptsToken.length()];
+        tokens[0] = (byte) (pushToken.length() >>> 8);
+        tokens[1] = (byte) pushToken.length();
+        for (int i = 0; i < pushToken.length(); i++) {
+            tokens[2 + i] = (byte) pushToken.charAt(i);
+        }
+        for (int i = 0, offset = 2 + pushToken.length(); i < receiptsToken.length(); i++) {
+            tokens[offset + i] = (byte) receiptsToken.charAt(i);
+        }
+        return tokens;
+    }
+
+    private static boolean isAscii(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An open addressing table with linear probing, removals shift later entries back instead of leaving
+     * tombstones. A slot is in use when its {@code tokens} entry is not {@code null}.
+     */
+    private static final class Segment extends StampedLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private long[] ids = new long[2 * INITIAL_CAPACITY];
+        private long[] resourceIds = new long[2 * INITIAL_CAPACITY];
+        private long[] expires = new long[INITIAL_CAPACITY];
+        private byte[][] tokens = new byte[INITIAL_CAPACITY][];
+        private int size;
+
+        Subscription get(final String id, final long msb, final long lsb) {
+            final long stamp = tryOptimisticRead();
+            if (stamp != 0) {
+                final Subscription subscription = find(id, msb, lsb);
+                if (validate(stamp)) {
+                    return subscription;
+                }
+            }
+            final long readStamp = readLock();
+            try {
+                return find(id, msb, lsb);
+            } finally {
+                unlockRead(readStamp);
+            }
+        }
+
+        // may run concurrently with a writer when called optimistically, so it must not fail on a torn read.
+        private Subscription find(final String id, final long msb, final long lsb) {
+            final long[] ids = this.ids;
+            final long[] resourceIds = this.resourceIds;
+            final long[] expires = this.expires;
+            final byte[][] tokens = this.tokens;
+            if (ids.length != 2 * tokens.length || resourceIds.length != ids.length
+                    || expires.length != tokens.length) {
+                return null;
+            }
+            final int mask = tokens.length - 1;
+            for (int i = hash(msb, lsb) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                final byte[] slotTokens = tokens[i];
+                if (slotTokens == null) {
+                    return null;
+                }
+                if (ids[2 * i] == msb && ids[2 * i + 1] == lsb) {
+                    return new IndexedSubscription(id, resourceIds[2 * i], resourceIds[2 * i + 1], slotTokens,
+                            expires[i]);
+                }
+            }
+            return null;
+        }
+
+        boolean putIfAbsent(final long msb, final long lsb, final long resourceMsb, final long resourceLsb,
+                            final byte[] slotTokens, final long slotExpires) {
+            final long stamp = writeLock();
+            try {
+                final int slot = slotOf(msb, lsb);
+                if (tokens[slot] != null) {
+                    return false;
+                }
+                set(slot, msb, lsb, resourceMsb, resourceLsb, slotTokens, slotExpires);
+                if (++size > tokens.length * 3 / 4) {
+                    resize();
+                }
+                return true;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        Subscription remove(final String id, final long msb, final long lsb) {
+            final long stamp = writeLock();
+            try {
+                int slot = slotOf(msb, lsb);
+                if (tokens[slot] == null) {
+                    return null;
+                }
+                final Subscription removed = new IndexedSubscription(id, resourceIds[2 * slot],
+                        resourceIds[2 * slot + 1], tokens[slot], expires[slot]);
+                final int mask = tokens.length - 1;
+                for (int next = (slot + 1) & mask; tokens[next] != null; next = (next + 1) & mask) {
+                    final int home = hash(ids[2 * next], ids[2 * next + 1]) & mask;
+                    // move the entry back if the emptied slot lies on its probe path from its home slot.
+                    if ((next - home & mask) >= (next - slot & mask)) {
+                        set(slot, ids[2 * next], ids[2 * next + 1], resourceIds[2 * next], resourceIds[2 * next + 1],
+                                tokens[next], expires[next]);
+                        slot = next;
+                    }
+                }
+                tokens[slot] = null;
+                size--;
+                return removed;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            final long stamp = readLock();
+            try {
+                return size;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        int capacity() {
+            final long stamp = readLock();
+            try {
+                return tokens.length;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Adds the ids of the expired subscriptions in a range of slots.
+         *
+         * @return {@code int} the slot after the scanned range, which is the capacity once all slots were scanned.
+         */
+        int expired(final long now, final int from, final int maxSlots, final List<String> expired) {
+            final long stamp = readLock();
+            try {
+                final int end = (int) Math.min((long) from + maxSlots, tokens.length);
+                for (int i = from; i < end; i++) {
+                    if (tokens[i] != null && expires[i] <= now) {
+                        expired.add(Uuids.toString(ids[2 * i], ids[2 * i + 1]));
+                    }
+                }
+                return Math.max(end, from);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private int slotOf(final long msb, final long lsb) {
+            final int mask = tokens.length - 1;
+            int i = hash(msb, lsb) & mask;
+            while (tokens[i] != null && (ids[2 * i] != msb || ids[2 * i + 1] != lsb)) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void set(final int slot, final long msb, final long lsb, final long resourceMsb,
+                         final long resourceLsb, final byte[] slotTokens, final long slotExpires) {
+            ids[2 * slot] = msb;
+            ids[2 * slot + 1] = lsb;
+            resourceIds[2 * slot] = resourceMsb;
+            resourceIds[2 * slot + 1] = resourceLsb;
+            tokens[slot] = slotTokens;
+            expires[slot] = slotExpires;
+        }
+
+        private void resize() {
+            final long[] oldIds = ids;
+            final long[] oldResourceIds = resourceIds;
+            final long[] oldExpires = expires;
+            final byte[][] oldTokens = tokens;
+            final int capacity = oldTokens.length * 2;
+            ids = new long[2 * capacity];
+            resourceIds = new long[2 * capacity];
+            expires = new long[capacity];
+            tokens = new byte[capacity][];
+            for (int i = 0; i < oldTokens.length; i++) {
+                if (oldTokens[i] != null) {
+                    set(slotOf(oldIds[2 * i], oldIds[2 * i + 1]), oldIds[2 * i], oldIds[2 * i + 1],
+                            oldResourceIds[2 * i], oldResourceIds[2 * i + 1], oldTokens[i], oldExpires[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link Subscription} backed by the contents of an index slot.
+     */
+    private static final class IndexedSubscription implements Subscription {
+
+        private final String id;
+        private final long resourceMsb;
+        private final long resourceLsb;
+        private final byte[] tokens;
+        private final long expires;
+        private String pushResourceId;
+
+        IndexedSubscription(final String id, final long resourceMsb, final long resourceLsb, final byte[] tokens,
+                            final long expires) {
+            this.id = id;
+            this.resourceMsb = resourceMsb;
+            this.resourceLsb = resourceLsb;
+            this.tokens = tokens;
+            this.expires = expires;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public String pushResourceId() {
+            if (pushResourceId == null) {
+                pushResourceId = Uuids.toString(resourceMsb, resourceLsb);
+            }
+            return pushResourceId;
+        }
+
+        @Override
+        public boolean hasPushResourceId(final String pushResourceId) {
+            return Uuids.isCanonical(pushResourceId)
+                    && Uuids.msb(pushResourceId) == resourceMsb
+                    && Uuids.lsb(pushResourceId) == resourceLsb;
+        }
+
+        @Override
+        public String pushToken() {
+            return new String(tokens, 2, pushTokenLength(), ASCII);
+        }
+
+        @Override
+        public String receiptsToken() {
+            final int offset = 2 + pushTokenLength();
+            return new String(tokens, offset, tokens.length - offset, ASCII);
+        }
+
+        @Override
+        public long expires() {
+            return expires;
+        }
+
+        private int pushTokenLength() {
+            return (tokens[0] & 0xFF) << 8 | tokens[1] & 0xFF;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            // like DefaultSubscription, only equal to subscriptions of the same class, which keeps equals symmetric.
+            return o instanceof IndexedSubscription && id.equals(((IndexedSubscription) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "Subscription[id=" + id + ", pushResourceId=" + pushResourceId() + "]";
+        }
+    }
+
+    /**
+     * Allocation free conversion between canonical (lower case) UUID strings and their two {@code long}s.
+     */
+    private static final class Uuids {
+
+        private static final int LENGTH = 36;
+
+        private Uuids() {
+        }
+
+        static boolean isCanonical(final String value) {
+            if (value == null || value.length() != LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < LENGTH; i++) {
+                final char c = value.charAt(i);
+                if (i == 8 || i == 13 || i == 18 || i == 23) {
+                    if (c != '-') {
+                        return false;
+                    }
+                } else if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static long msb(final String uuid) {
+            return hex(uuid, 0, 8) << 32 | hex(uuid, 9, 13) << 16 | hex(uuid, 14, 18);
+        }
+
+        static long lsb(final String uuid) {
+            return hex(uuid, 19, 23) << 48 | hex(uuid, 24, 36);
+        }
+
+        static String toString(final long msb, final long lsb) {
+            return new UUID(msb, lsb).toString();
+        }
+
+        private static long hex(final String value, final int from, final int to) {
+            long result = 0;
+            for (int i = from; i < to; i++) {
+                result = result << 4 | Character.digit(value.charAt(i), 16);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.assertSameMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockSubscription;
+import static org.junit.Assert.fail;
+
+public class AsyncDataStoreAdapterTest {
+
+    @Test
+    public void completesInlineWithoutExecutor() {
+        final AsyncDataStore store = new AsyncDataStoreAdapter(new InMemoryDataStore());
+        final PushMessage msg = mockMessage("sub1", "payload", Optional.empty(), Optional.empty());
+        final CompletableFuture<Void> saved = store.saveSubscription(mockSubscription("sub1"))
+                .thenCompose(v -> store.saveMessage(msg)).toCompletableFuture();
+        assertThat(saved.isDone(), is(true));
+        assertThat(store.subscription("sub1").toCompletableFuture().getNow(null).isPresent(), is(true));
+        final List<PushMessage> messages = store.waitingDeliveryMessages("sub1").toCompletableFuture().getNow(null);
+        assertThat(messages.size(), is(1));
+        assertSameMessage(messages.get(0), msg);
+    }
+
+    @Test
+    public void completesExceptionallyWhenTheStoreThrows() {
+        final AsyncDataStore store = new AsyncDataStoreAdapter(new InMemoryDataStore());
+        final CompletableFuture<Void> saved = store.saveSentMessage(mockMessage("sub1", "payload", Optional.empty(),
+                Optional.empty())).toCompletableFuture();
+        assertThat(saved.isCompletedExceptionally(), is(true));
+        try {
+            saved.join();
+            fail("saving a sent message without receipt subscription must fail");
+        } catch (final CompletionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+        }
+    }
+
+    @Test
+    public void runsOperationsOnExecutor() {
+        final AtomicInteger executed = new AtomicInteger();
+        final Executor executor = command -> {
+            executed.incrementAndGet();
+            command.run();
+        };
+        final AsyncDataStore store = new AsyncDataStoreAdapter(new InMemoryDataStore(), executor);
+        store.saveSubscription(mockSubscription("sub1")).toCompletableFuture().join();
+        assertThat(store.removeSubscription("sub1").toCompletableFuture().join().isEmpty(), is(true));
+        assertThat(executed.get(), is(2));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockSubscription;
+
+public class DeliveryQueueTest {
+
+    @Test
+    public void drainReturnsMessagesInOrderAndCloses() {
+        final DeliveryQueue queue = new DeliveryQueue();
+        final PushMessage first = mockMessage("sub1", "first", Optional.empty(), Optional.empty());
+        final PushMessage second = mockMessage("sub1", "second", Optional.empty(), Optional.empty());
+        assertThat(queue.offer(first), is(true));
+        assertThat(queue.offer(second), is(true));
+        final List<PushMessage> messages = queue.drainAndClose();
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0) == first, is(true));
+        assertThat(messages.get(1) == second, is(true));
+        assertThat(queue.isClosed(), is(true));
+        assertThat(queue.offer(first), is(false));
+        assertThat(queue.drainAndClose().isEmpty(), is(true));
+    }
+
+    @Test
+    public void concurrentPushesAreDeliveredExactlyOnce() throws Exception {
+        final int producers = 4;
+        final int perProducer = 20_000;
+        final List<PushMessage> messages = new ArrayList<>();
+        for (int i = 0; i < producers * perProducer; i++) {
+            messages.add(message(Integer.toString(i)));
+        }
+        final InMemoryDataStore store = new InMemoryDataStore();
+        store.saveSubscription(mockSubscription("sub1"));
+        final ExecutorService executor = Executors.newFixedThreadPool(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<?>> pushes = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final List<PushMessage> own = messages.subList(p * perProducer, (p + 1) * perProducer);
+                pushes.add(executor.submit(() -> {
+                    start.await();
+                    own.forEach(store::saveMessage);
+                    return null;
+                }));
+            }
+            start.countDown();
+            final Set<String> delivered = new HashSet<>();
+            final int[] lastSeen = new int[producers];
+            Arrays.fill(lastSeen, -1);
+            while (delivered.size() < messages.size()) {
+                for (PushMessage msg : store.waitingDeliveryMessages("sub1")) {
+                    assertThat(delivered.add(msg.id()), is(true));
+                    final int index = Integer.parseInt(msg.id());
+                    // messages of a single producer keep their order.
+                    assertThat(index > lastSeen[index / perProducer], is(true));
+                    lastSeen[index / perProducer] = index;
+                }
+            }
+            for (Future<?> push : pushes) {
+                push.get(10, TimeUnit.SECONDS);
+            }
+            assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PushMessage message(final String id) {
+        return new StoredPushMessage(id, "token", "sub1", Optional.empty(), "payload", Optional.empty(),
+                LocalDateTime.now());
+    }
+}
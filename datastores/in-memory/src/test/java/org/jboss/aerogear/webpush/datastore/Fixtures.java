@@ -0,0 +1,76 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test fixtures shared by the tests of the datastores, which depend on the test-jar of this module.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static PushMessage mockMessage(final String subId,
+                                   final String payload,
+                                   final Optional<Integer> ttl,
+                                   final Optional<String> receiptSubscription) {
+        final PushMessage msg = mock(PushMessage.class);
+        when(msg.id()).thenReturn(UUID.randomUUID().toString());
+        when(msg.token()).thenReturn("token");
+        when(msg.subscription()).thenReturn(subId);
+        when(msg.payload()).thenReturn(payload);
+        when(msg.content()).thenReturn(Unpooled.copiedBuffer(payload, CharsetUtil.UTF_8));
+        when(msg.ttl()).thenReturn(ttl);
+        when(msg.receiptSubscription()).thenReturn(receiptSubscription);
+        when(msg.createdDateTime()).thenReturn(LocalDateTime.now());
+        return msg;
+    }
+
+    static Subscription mockSubscription(final String id) {
+        final Subscription subscription = mock(Subscription.class);
+        when(subscription.id()).thenReturn(id);
+        when(subscription.pushResourceId()).thenReturn(UUID.randomUUID().toString());
+        when(subscription.pushToken()).thenReturn("pushToken-" + id);
+        when(subscription.receiptsToken()).thenReturn("receiptsToken-" + id);
+        when(subscription.expires()).thenReturn(Long.MAX_VALUE);
+        return subscription;
+    }
+
+    static void assertSameMessage(final PushMessage actual, final PushMessage expected) {
+        assertThat(actual.id(), equalTo(expected.id()));
+        assertThat(actual.token(), equalTo(expected.token()));
+        assertThat(actual.subscription(), equalTo(expected.subscription()));
+        assertThat(actual.receiptSubscription(), equalTo(expected.receiptSubscription()));
+        assertThat(actual.payload(), equalTo(expected.payload()));
+        assertThat(actual.ttl(), equalTo(expected.ttl()));
+        assertThat(actual.createdDateTime(), equalTo(expected.createdDateTime()));
+    }
+}
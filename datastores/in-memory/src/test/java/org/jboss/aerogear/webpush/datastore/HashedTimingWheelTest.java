@@ -0,0 +1,110 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.datastore.HashedTimingWheel.Timeout;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HashedTimingWheelTest {
+
+    @Test
+    public void runsTasksOnceTheirDeadlineHasPassed() {
+        final AtomicLong clock = new AtomicLong(1000);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 100, 8, clock::get, false);
+        final List<String> ran = new ArrayList<>();
+        wheel.schedule(1250, () -> ran.add("first"));
+        wheel.schedule(1100, () -> ran.add("second"));
+
+        assertThat(wheel.advanceTo(1099), is(0));
+        assertThat(wheel.advanceTo(1100), is(1));
+        assertThat(ran, equalTo(asList("second")));
+        assertThat(wheel.advanceTo(1299), is(0));
+        assertThat(wheel.advanceTo(1300), is(1));
+        assertThat(ran, equalTo(asList("second", "first")));
+        assertThat(wheel.pending(), is(0));
+    }
+
+    @Test
+    public void keepsTimeoutsOfLaterRoundsInTheirBucket() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, clock::get, false);
+        final List<Long> ran = new ArrayList<>();
+        wheel.schedule(20, () -> ran.add(20L));
+        // hashes into the same bucket two revolutions later.
+        wheel.schedule(100, () -> ran.add(100L));
+
+        assertThat(wheel.advanceTo(60), is(1));
+        assertThat(ran, equalTo(asList(20L)));
+        assertThat(wheel.advanceTo(1000), is(1));
+        assertThat(ran, equalTo(asList(20L, 100L)));
+    }
+
+    @Test
+    public void deadlinesInThePastRunWithTheNextTick() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, clock::get, false);
+        wheel.advanceTo(50);
+        final List<String> ran = new ArrayList<>();
+        wheel.schedule(5, () -> ran.add("late"));
+        assertThat(wheel.advanceTo(55), is(0));
+        assertThat(wheel.advanceTo(60), is(1));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotRun() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 4, clock::get, false);
+        final List<String> ran = new ArrayList<>();
+        final Timeout first = wheel.schedule(10, () -> ran.add("first"));
+        wheel.schedule(10, () -> ran.add("second"));
+        final Timeout third = wheel.schedule(10, () -> ran.add("third"));
+        first.cancel();
+        third.cancel();
+        third.cancel();
+
+        assertThat(wheel.pending(), is(1));
+        assertThat(wheel.advanceTo(10), is(1));
+        assertThat(ran, equalTo(asList("second")));
+    }
+
+    @Test
+    public void workerAdvancesTheWheel() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        try (HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 16)) {
+            wheel.schedule(System.currentTimeMillis() + 20, ran::countDown);
+            assertThat(ran.await(5, TimeUnit.SECONDS), is(true));
+        }
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void rejectsTimeoutsOnceClosed() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 10, 16);
+        wheel.close();
+        wheel.schedule(System.currentTimeMillis(), () -> { });
+    }
+}
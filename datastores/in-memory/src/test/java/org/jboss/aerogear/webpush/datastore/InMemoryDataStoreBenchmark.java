@@ -0,0 +1,93 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of concurrent pushes to a single subscription of {@link InMemoryDataStore}, while a
+ * monitor keeps draining the subscription's waiting messages.
+ *
+ * Run with {@code java -cp ... InMemoryDataStoreBenchmark [producers] [messages per producer]}, the defaults are
+ * 8 producers with 1,000,000 messages each.
+ */
+public final class InMemoryDataStoreBenchmark {
+
+    private static final String SUBSCRIPTION = UUID.randomUUID().toString();
+
+    private InMemoryDataStoreBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int producers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        final PushMessage[] messages = new PushMessage[perProducer];
+        for (int i = 0; i < perProducer; i++) {
+            messages[i] = new StoredPushMessage(Integer.toString(i), "token", SUBSCRIPTION, Optional.empty(),
+                    "payload", Optional.empty(), LocalDateTime.now());
+        }
+        for (int round = 0; round < 5; round++) {
+            final InMemoryDataStore store = new InMemoryDataStore();
+            store.saveSubscription(Fixtures.mockSubscription(SUBSCRIPTION));
+            run(store, producers, messages);
+        }
+    }
+
+    private static void run(final InMemoryDataStore store, final int producers, final PushMessage[] messages)
+            throws InterruptedException {
+        final long total = (long) producers * messages.length;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                for (PushMessage msg : messages) {
+                    store.saveMessage(msg);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        long delivered = 0;
+        long drains = 0;
+        while (delivered < total) {
+            delivered += store.waitingDeliveryMessages(SUBSCRIPTION).size();
+            drains++;
+        }
+        final long elapsed = System.nanoTime() - begin;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%d producers pushed and delivered %,d messages in %,dms (%,d/s), %,d drains%n",
+                producers, total, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                total * TimeUnit.SECONDS.toNanos(1) / elapsed, drains);
+    }
+}
@@ -16,17 +16,28 @@
  */
 package org.jboss.aerogear.webpush.datastore;
 
+import io.netty.util.ReferenceCounted;
+import org.jboss.aerogear.webpush.PushMessage;
 import org.jboss.aerogear.webpush.Subscription;
 import org.junit.Test;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.assertSameMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockMessage;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 public class InMemoryDataStoreTest {
 
@@ -41,6 +52,176 @@ public class InMemoryDataStoreTest {
         assertThat(optionalSub.get().pushResourceId(), equalTo(subscription.pushResourceId()));
     }
 
+    @Test
+    public void privateKeySalt() {
+        final InMemoryDataStore store = new InMemoryDataStore();
+        assertThat(store.getPrivateKeySalt().length, is(0));
+        final byte[] salt = {1, 2, 3, 4};
+        store.savePrivateKeySalt(salt);
+        assertThat(store.getPrivateKeySalt(), equalTo(salt));
+    }
+
+    @Test
+    public void removeSubscriptionReturnsSentAndDropsWaitingMessages() {
+        final InMemoryDataStore store = new InMemoryDataStore();
+        final String subId = UUID.randomUUID().toString();
+        store.saveSubscription(mockSubscription(subId, "p123"));
+        store.saveMessage(mockMessage(subId, "waiting", Optional.empty(), Optional.empty()));
+        final PushMessage sent = mockMessage(subId, "sent", Optional.empty(), Optional.of("receiptSubId"));
+        store.saveSentMessage(sent);
+
+        final List<PushMessage> removed = store.removeSubscription(subId);
+        assertThat(removed.size(), is(1));
+        assertSameMessage(removed.get(0), sent);
+        assertThat(store.subscription(subId).isPresent(), is(false));
+        assertThat(store.waitingDeliveryMessages(subId).isEmpty(), is(true));
+        assertThat(store.sentMessage(subId, sent.id()).isPresent(), is(false));
+        assertThat(store.removeSubscription(subId).isEmpty(), is(true));
+    }
+
+    @Test
+    public void sentMessageIsAcknowledgedOnce() {
+        final InMemoryDataStore store = new InMemoryDataStore();
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        final PushMessage sent = mockMessage("sub1", "sent", Optional.empty(), Optional.of("receiptSubId"));
+        store.saveSentMessage(sent);
+        assertSameMessage(store.sentMessage("sub1", sent.id()).get(), sent);
+        assertThat(store.sentMessage("sub1", sent.id()).isPresent(), is(false));
+    }
+
+    @Test
+    public void waitingMessagesExpireAfterTheirTtl() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(0, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        store.saveMessage(mockMessage("sub1", "short", Optional.of(2), Optional.empty()));
+        final PushMessage forever = mockMessage("sub1", "forever", Optional.empty(), Optional.empty());
+        store.saveMessage(forever);
+        store.saveMessage(mockMessage("sub1", "long", Optional.of(3), Optional.empty()));
+
+        clock.set(2000);
+        wheel.advanceTo(clock.get());
+        assertThat(store.expiredMessages(), is(1L));
+        clock.set(3000);
+        wheel.advanceTo(clock.get());
+        assertThat(store.expiredMessages(), is(2L));
+        assertThat(wheel.pending(), is(0));
+
+        final List<PushMessage> waiting = store.waitingDeliveryMessages("sub1");
+        assertThat(waiting.size(), is(1));
+        assertSameMessage(waiting.get(0), forever);
+    }
+
+    @Test
+    public void expiredMessagesAreNotDeliveredBeforeTheWheelHasRun() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(0, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        store.saveMessage(mockMessage("sub1", "short", Optional.of(1), Optional.empty()));
+        clock.set(1500);
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+        assertThat(store.expiredMessages(), is(1L));
+    }
+
+    @Test
+    public void messagesStoredAgainKeepTheirDeadline() {
+        final LocalDateTime created = LocalDateTime.now();
+        final AtomicLong clock = new AtomicLong(created.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(0, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        final PushMessage msg = mockMessage("sub1", "spilled", Optional.of(2), Optional.empty());
+        when(msg.createdDateTime()).thenReturn(created);
+        store.saveMessage(msg);
+        clock.addAndGet(1500);
+        assertSameMessage(store.waitingDeliveryMessages("sub1").get(0), msg);
+
+        store.saveMessage(msg);
+        clock.addAndGet(1000);
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+        assertThat(store.expiredMessages(), is(1L));
+    }
+
+    @Test
+    public void messagesAndReceiptsExpireAfterMessageMaxAge() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(5000, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        store.saveMessage(mockMessage("sub1", "waiting", Optional.of(60), Optional.empty()));
+        final PushMessage sent = mockMessage("sub1", "sent", Optional.empty(), Optional.of("receiptSubId"));
+        store.saveSentMessage(sent);
+
+        // the wheel needs more than one revolution to reach the deadline.
+        clock.set(20000);
+        wheel.advanceTo(clock.get());
+        assertThat(store.expiredMessages(), is(1L));
+        assertThat(store.expiredReceipts(), is(1L));
+        assertThat(store.sentMessage("sub1", sent.id()).isPresent(), is(false));
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeSubscriptionCancelsItsExpiry() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(5000, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        store.saveMessage(mockMessage("sub1", "waiting", Optional.empty(), Optional.empty()));
+        assertThat(wheel.pending(), is(1));
+        store.removeSubscription("sub1");
+        assertThat(wheel.pending(), is(0));
+    }
+
+    @Test
+    public void retainsMessagesUntilTheyAreDropped() {
+        final AtomicLong clock = new AtomicLong(0);
+        final HashedTimingWheel wheel = new HashedTimingWheel("test", 1000, 16, clock::get, false);
+        final InMemoryDataStore store = new InMemoryDataStore(0, wheel, clock::get);
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        final PushMessage expiring = countedMessage("sub1", Optional.of(1));
+        final PushMessage waiting = countedMessage("sub1", Optional.empty());
+        store.saveMessage(expiring);
+        store.saveMessage(waiting);
+        verify((ReferenceCounted) expiring).retain();
+        verify((ReferenceCounted) waiting).retain();
+
+        clock.set(1000);
+        wheel.advanceTo(clock.get());
+        verify((ReferenceCounted) expiring).release();
+        store.removeSubscription("sub1");
+        verify((ReferenceCounted) waiting).release();
+    }
+
+    @Test
+    public void messagesOfARemovedSubscriptionAreDropped() {
+        final InMemoryDataStore store = new InMemoryDataStore();
+        store.saveSubscription(Fixtures.mockSubscription("sub1"));
+        store.removeSubscription("sub1");
+        final PushMessage waiting = countedMessage("sub1", Optional.empty());
+        final PushMessage sent = countedMessage("sub1", Optional.empty());
+        when(sent.receiptSubscription()).thenReturn(Optional.of("receiptSubId"));
+        store.saveMessage(waiting);
+        store.saveSentMessage(sent);
+
+        verify((ReferenceCounted) waiting, never()).retain();
+        verify((ReferenceCounted) sent, never()).retain();
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+        assertThat(store.sentMessage("sub1", sent.id()).isPresent(), is(false));
+        assertThat(store.removeSubscription("sub1").isEmpty(), is(true));
+    }
+
+    private static PushMessage countedMessage(final String subId, final Optional<Integer> ttl) {
+        final PushMessage msg = mock(PushMessage.class, withSettings().extraInterfaces(ReferenceCounted.class));
+        when(msg.id()).thenReturn(UUID.randomUUID().toString());
+        when(msg.subscription()).thenReturn(subId);
+        when(msg.ttl()).thenReturn(ttl);
+        when(msg.createdDateTime()).thenReturn(LocalDateTime.now());
+        return msg;
+    }
+
     private static Subscription mockSubscription(final String id, final String pushResourceId) {
         final Subscription r = mock(Subscription.class);
         when(r.id()).thenReturn(id);
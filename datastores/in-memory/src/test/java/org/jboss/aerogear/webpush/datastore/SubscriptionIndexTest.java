@@ -0,0 +1,207 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.Subscription;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SubscriptionIndexTest {
+
+    @Test
+    public void putAndGet() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Subscription subscription = subscription(uuid(), uuid());
+        assertThat(index.putIfAbsent(subscription), is(true));
+        assertThat(index.putIfAbsent(subscription(subscription.id(), uuid())), is(false));
+        assertSameSubscription(index.get(subscription.id()), subscription);
+        assertThat(index.get(uuid()), is(nullValue()));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void remove() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Subscription subscription = subscription(uuid(), uuid());
+        index.putIfAbsent(subscription);
+        assertSameSubscription(index.remove(subscription.id()), subscription);
+        assertThat(index.get(subscription.id()), is(nullValue()));
+        assertThat(index.remove(subscription.id()), is(nullValue()));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void pushResourceIdAndEquality() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Subscription subscription = subscription(uuid(), uuid());
+        index.putIfAbsent(subscription);
+        final Subscription indexed = index.get(subscription.id());
+        assertThat(indexed.hasPushResourceId(subscription.pushResourceId()), is(true));
+        assertThat(indexed.hasPushResourceId(uuid()), is(false));
+        assertThat(indexed.hasPushResourceId("p123"), is(false));
+        assertThat(indexed.equals(index.get(subscription.id())), is(true));
+        assertThat(indexed.equals(subscription), is(subscription.equals(indexed)));
+    }
+
+    @Test
+    public void nonUuidIdentifiers() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Subscription upperCase = subscription(uuid().toUpperCase(), uuid());
+        final Subscription plain = subscription(uuid(), "p123");
+        index.putIfAbsent(upperCase);
+        index.putIfAbsent(plain);
+        assertThat(index.get(upperCase.id()), is(upperCase));
+        assertThat(index.get(plain.id()), is(plain));
+        assertThat(index.get(upperCase.id().toLowerCase()), is(nullValue()));
+        assertThat(index.remove(plain.id()), is(plain));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void growAndShrink() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final List<Subscription> subscriptions = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            final Subscription subscription = subscription(uuid(), uuid());
+            subscriptions.add(subscription);
+            index.putIfAbsent(subscription);
+        }
+        for (int i = 0; i < subscriptions.size(); i += 2) {
+            assertSameSubscription(index.remove(subscriptions.get(i).id()), subscriptions.get(i));
+        }
+        assertThat(index.size(), is(5000));
+        for (int i = 0; i < subscriptions.size(); i++) {
+            if (i % 2 == 0) {
+                assertThat(index.get(subscriptions.get(i).id()), is(nullValue()));
+            } else {
+                assertSameSubscription(index.get(subscriptions.get(i).id()), subscriptions.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Subscription stable = subscription(uuid(), uuid());
+        index.putIfAbsent(stable);
+        final AtomicInteger misses = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            final boolean writer = t % 2 == 0;
+            new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    if (writer) {
+                        final Subscription subscription = subscription(uuid(), uuid());
+                        index.putIfAbsent(subscription);
+                        index.remove(subscription.id());
+                    } else if (index.get(stable.id()) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertThat(misses.get(), is(0));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void expiredScansBoundedBatches() {
+        final SubscriptionIndex index = new SubscriptionIndex();
+        final Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final Subscription subscription = subscription(uuid(), uuid(), i % 2 == 0 ? 100 : Long.MAX_VALUE);
+            index.putIfAbsent(subscription);
+            if (i % 2 == 0) {
+                expected.add(subscription.id());
+            }
+        }
+        final Subscription other = subscription("other", "p123", 100);
+        index.putIfAbsent(other);
+        expected.add(other.id());
+
+        assertThat(index.expired(99, Integer.MAX_VALUE).isEmpty(), is(true));
+        final Set<String> expired = new HashSet<>();
+        for (int calls = 0; expired.size() < expected.size() && calls < 1000; calls++) {
+            final List<String> batch = index.expired(100, 50);
+            assertThat(batch.size() <= 50, is(true));
+            expired.addAll(batch);
+        }
+        assertThat(expired, equalTo(expected));
+        // nothing was removed, so the next round finds them again.
+        assertThat(index.size(), is(1001));
+    }
+
+    private static void assertSameSubscription(final Subscription actual, final Subscription expected) {
+        assertThat(actual.id(), equalTo(expected.id()));
+        assertThat(actual.pushResourceId(), equalTo(expected.pushResourceId()));
+        assertThat(actual.pushToken(), equalTo(expected.pushToken()));
+        assertThat(actual.receiptsToken(), equalTo(expected.receiptsToken()));
+        assertThat(actual.expires(), equalTo(expected.expires()));
+    }
+
+    private static String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static Subscription subscription(final String id, final String pushResourceId) {
+        return subscription(id, pushResourceId, Long.MAX_VALUE);
+    }
+
+    private static Subscription subscription(final String id, final String pushResourceId, final long expires) {
+        return new Subscription() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public String pushResourceId() {
+                return pushResourceId;
+            }
+
+            @Override
+            public String pushToken() {
+                return "push-" + pushResourceId + "-" + id;
+            }
+
+            @Override
+            public String receiptsToken() {
+                return "receipts-" + id;
+            }
+
+            @Override
+            public long expires() {
+                return expires;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,506 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link DataStore} that records every change in an append-only log of memory-mapped segment files.
+ *
+ * All state is also held in memory, the log is only read when the store is opened, to rebuild that state.
+ * Writes are appended to the active segment in the order they are applied, once it is full it is forced to
+ * disk and a new segment is started. When the log is opened again, appending continues in the last segment.
+ * Segments are written through the page cache, so a crash of the process loses nothing, while surviving a crash
+ * of the machine requires {@link #sync()}.
+ *
+ * Once {@code compactionThreshold} segments have been filled, a background thread rewrites all full segments,
+ * keeping only the records of subscriptions and messages that are still present, and deletes the originals.
+ */
+public class MappedLogDataStore implements DataStore, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 8;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedLogDataStore.class);
+    private static final byte[] EMPTY_BYTES = {};
+
+    private final File directory;
+    private final int segmentSize;
+    private final int compactionThreshold;
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    // guards the log and all state below, so that the log order is the order in which changes were applied.
+    private final Object lock = new Object();
+    private final Records.Writer writer = new Records.Writer();
+    private final List<Segment> sealed = new ArrayList<>();
+    private final Map<String, Map<String, PushMessage>> waitingDelivery = new HashMap<>();
+    private final Map<String, Map<String, PushMessage>> sentMessages = new HashMap<>();
+    private Segment active;
+    private int sealedSinceCompaction;
+    private boolean closed;
+    private volatile byte[] salt = EMPTY_BYTES;
+
+    /**
+     * Opens the log in the passed-in directory with default segment size and compaction threshold.
+     *
+     * @param directory the directory holding the segment files, which is created if it does not exist.
+     * @throws IOException if the log could not be read.
+     */
+    public MappedLogDataStore(final File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the log in the passed-in directory.
+     *
+     * @param directory the directory holding the segment files, which is created if it does not exist.
+     * @param segmentSize the size of a segment file in bytes, which also limits the size of a single message.
+     * @param compactionThreshold the number of full segments after which the log is compacted.
+     * @throws IOException if the log could not be read.
+     */
+    public MappedLogDataStore(final File directory, final int segmentSize, final int compactionThreshold)
+            throws IOException {
+        Objects.requireNonNull(directory, "directory must not be null");
+        if (segmentSize < 4096 || compactionThreshold < 1) {
+            throw new IllegalArgumentException("segmentSize must be at least 4096 and compactionThreshold positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        final long start = System.nanoTime();
+        synchronized (lock) {
+            recover();
+        }
+        LOGGER.info("Recovered {} subscriptions from {} segments in {}ms", subscriptions.size(), sealed.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "webpush-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (lock) {
+            scheduleCompaction();
+        }
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles();
+        final List<Segment> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                final Segment segment = Segment.open(file);
+                if (segment != null) {
+                    segments.add(segment);
+                }
+            }
+        }
+        Collections.sort(segments);
+        for (Segment segment : segments) {
+            final boolean clean = segment.read(this::replay);
+            if (!clean) {
+                LOGGER.warn("Discarded incomplete records at position {} of {}", segment.position(), segment.file());
+            }
+            if (segment.part() == 0 && segment == segments.get(segments.size() - 1)) {
+                // the segment that was being written when the log was closed, appending continues after its records.
+                if (!clean) {
+                    segment.clearTail();
+                }
+                active = segment;
+            } else {
+                sealed.add(segment);
+                if (segment.part() == 0) {
+                    sealedSinceCompaction++;
+                }
+            }
+        }
+        if (active == null) {
+            // the log is empty, or ends with the output of a compaction, which is never appended to.
+            final long sequence = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).sequence() + 1;
+            active = Segment.create(directory, sequence, 0, segmentSize);
+        }
+    }
+
+    private void replay(final byte type, final ByteBuffer body) {
+        switch (type) {
+            case Records.SUBSCRIPTION:
+                subscriptions.putIfAbsent(Records.readSubscription(body));
+                break;
+            case Records.SUBSCRIPTION_REMOVED:
+                applyRemoveSubscription(Records.readString(body));
+                break;
+            case Records.MESSAGE:
+                applySaveMessage(waitingDelivery, Records.readMessage(body));
+                break;
+            case Records.MESSAGES_DELIVERED:
+                waitingDelivery.remove(Records.readString(body));
+                break;
+            case Records.SENT_MESSAGE:
+                applySaveMessage(sentMessages, Records.readMessage(body));
+                break;
+            case Records.SENT_MESSAGE_ACKED:
+                applySentMessageAcked(Records.readString(body), Records.readString(body));
+                break;
+            case Records.PRIVATE_KEY_SALT:
+                salt = Records.readBytes(body);
+                break;
+            default:
+                LOGGER.warn("Skipping record of unknown type {}", type);
+        }
+    }
+
+    @Override
+    public void saveSubscription(final Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription must not be null");
+        synchronized (lock) {
+            if (subscriptions.get(subscription.id()) != null) {
+                return;
+            }
+            Records.writeSubscription(writer.reset(), subscription);
+            append(Records.SUBSCRIPTION);
+            subscriptions.putIfAbsent(subscription);
+        }
+    }
+
+    @Override
+    public Optional<Subscription> subscription(final String id) {
+        return Optional.ofNullable(subscriptions.get(id));
+    }
+
+    @Override
+    public List<String> expiredSubscriptions(final long now, final int batchSize) {
+        return subscriptions.expired(now, batchSize);
+    }
+
+    @Override
+    public List<PushMessage> removeSubscription(final String id) {
+        synchronized (lock) {
+            if (subscriptions.get(id) == null && !waitingDelivery.containsKey(id) && !sentMessages.containsKey(id)) {
+                return Collections.emptyList();
+            }
+            writer.reset().writeString(id);
+            append(Records.SUBSCRIPTION_REMOVED);
+            return applyRemoveSubscription(id);
+        }
+    }
+
+    private List<PushMessage> applyRemoveSubscription(final String id) {
+        subscriptions.remove(id);
+        waitingDelivery.remove(id);
+        final Map<String, PushMessage> sent = sentMessages.remove(id);
+        return sent != null ? new ArrayList<>(sent.values()) : Collections.emptyList();
+    }
+
+    @Override
+    public void saveMessage(final PushMessage msg) {
+        Objects.requireNonNull(msg, "push message can not be null");
+        synchronized (lock) {
+            Records.writeMessage(writer.reset(), msg);
+            append(Records.MESSAGE);
+            applySaveMessage(waitingDelivery, StoredPushMessage.copyOf(msg));
+        }
+    }
+
+    @Override
+    public List<PushMessage> waitingDeliveryMessages(final String subId) {
+        synchronized (lock) {
+            if (!waitingDelivery.containsKey(subId)) {
+                return Collections.emptyList();
+            }
+            writer.reset().writeString(subId);
+            append(Records.MESSAGES_DELIVERED);
+            return Collections.unmodifiableList(new ArrayList<>(waitingDelivery.remove(subId).values()));
+        }
+    }
+
+    @Override
+    public void saveSentMessage(final PushMessage msg) {
+        Objects.requireNonNull(msg, "push message can not be null");
+        if (!msg.receiptSubscription().isPresent()) {
+            throw new IllegalArgumentException("push message must have receipt subscription URI");
+        }
+        synchronized (lock) {
+            Records.writeMessage(writer.reset(), msg);
+            append(Records.SENT_MESSAGE);
+            applySaveMessage(sentMessages, StoredPushMessage.copyOf(msg));
+        }
+    }
+
+    private static void applySaveMessage(final Map<String, Map<String, PushMessage>> messages, final PushMessage msg) {
+        messages.computeIfAbsent(msg.subscription(), k -> new LinkedHashMap<>()).put(msg.id(), msg);
+    }
+
+    @Override
+    public Optional<PushMessage> sentMessage(final String subId, final String msgId) {
+        synchronized (lock) {
+            final Map<String, PushMessage> sent = sentMessages.get(subId);
+            if (sent == null || !sent.containsKey(msgId)) {
+                return Optional.empty();
+            }
+            writer.reset().writeString(subId);
+            writer.writeString(msgId);
+            append(Records.SENT_MESSAGE_ACKED);
+            return Optional.of(applySentMessageAcked(subId, msgId));
+        }
+    }
+
+    private PushMessage applySentMessageAcked(final String subId, final String msgId) {
+        final Map<String, PushMessage> sent = sentMessages.get(subId);
+        if (sent == null) {
+            return null;
+        }
+        final PushMessage msg = sent.remove(msgId);
+        if (sent.isEmpty()) {
+            sentMessages.remove(subId);
+        }
+        return msg;
+    }
+
+    @Override
+    public void savePrivateKeySalt(final byte[] salt) {
+        Objects.requireNonNull(salt, "salt must not be null");
+        synchronized (lock) {
+            writer.reset().writeBytes(salt);
+            append(Records.PRIVATE_KEY_SALT);
+            this.salt = salt;
+        }
+    }
+
+    @Override
+    public byte[] getPrivateKeySalt() {
+        return salt;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public void sync() {
+        final Segment segment;
+        synchronized (lock) {
+            segment = active;
+        }
+        // full segments are forced when they are sealed.
+        segment.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.force();
+            active.close();
+            for (Segment segment : sealed) {
+                segment.close();
+            }
+        }
+    }
+
+    private void append(final byte type) {
+        if (closed) {
+            throw new IllegalStateException(this + " is closed");
+        }
+        try {
+            if (!active.append(type, writer.bytes(), writer.length())) {
+                roll();
+                if (!active.append(type, writer.bytes(), writer.length())) {
+                    throw new IllegalArgumentException("A record of " + writer.length()
+                            + " bytes does not fit into a segment of " + segmentSize + " bytes");
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        sealed.add(active);
+        sealedSinceCompaction++;
+        active = Segment.create(directory, active.sequence() + 1, 0, segmentSize);
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        if (sealedSinceCompaction >= compactionThreshold && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (final IOException | RuntimeException e) {
+                    LOGGER.error("Compaction of " + directory + " failed", e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrites all full segments, keeping only the records that are still live.
+     *
+     * The rewritten records are written to segments that sort after the last full segment and before the active
+     * one. A crash before the originals have been deleted leaves both, and replaying both yields the same state.
+     * The next compaction then reads such a record twice, only its first copy is kept.
+     */
+    void compact() throws IOException {
+        final List<Segment> inputs;
+        final byte[] currentSalt;
+        synchronized (lock) {
+            if (sealed.isEmpty() || closed) {
+                return;
+            }
+            inputs = new ArrayList<>(sealed);
+            sealedSinceCompaction = 0;
+            currentSalt = salt;
+        }
+        final long start = System.nanoTime();
+        final Segment last = inputs.get(inputs.size() - 1);
+        final Compaction compaction = new Compaction(last.sequence(), last.part() + 1);
+        if (currentSalt.length > 0) {
+            compaction.writer.reset().writeBytes(currentSalt);
+            compaction.append(Records.PRIVATE_KEY_SALT);
+        }
+        final Set<String> copied = new HashSet<>();
+        for (Segment input : inputs) {
+            input.read((type, body) -> {
+                if (isLive(type, body) && copied.add(key(type, body))) {
+                    compaction.writer.reset().write(body);
+                    compaction.append(type);
+                }
+            });
+        }
+        for (Segment output : compaction.outputs) {
+            output.force();
+        }
+        synchronized (lock) {
+            sealed.removeAll(inputs);
+            sealed.addAll(0, compaction.outputs);
+        }
+        for (Segment input : inputs) {
+            input.delete();
+        }
+        LOGGER.info("Compacted {} segments into {} in {}ms", inputs.size(), compaction.outputs.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // a record that is no longer live can never become live again, as ids are never reused.
+    private boolean isLive(final byte type, final ByteBuffer body) {
+        final ByteBuffer in = body.duplicate();
+        switch (type) {
+            case Records.SUBSCRIPTION:
+                return subscriptions.get(Records.readString(in)) != null;
+            case Records.MESSAGE:
+                return contains(waitingDelivery, Records.readString(in), Records.readString(in));
+            case Records.SENT_MESSAGE:
+                return contains(sentMessages, Records.readString(in), Records.readString(in));
+            default:
+                // removals only cancel earlier records, which are compacted together with them.
+                return false;
+        }
+    }
+
+    private static String key(final byte type, final ByteBuffer body) {
+        final ByteBuffer in = body.duplicate();
+        // a subscription record starts with its id, a message record with its subscription and message ids.
+        final String id = Records.readString(in);
+        return type == Records.SUBSCRIPTION ? type + ":" + id : type + ":" + id + '/' + Records.readString(in);
+    }
+
+    private boolean contains(final Map<String, Map<String, PushMessage>> messages, final String subId,
+                             final String msgId) {
+        synchronized (lock) {
+            final Map<String, PushMessage> forSubscription = messages.get(subId);
+            return forSubscription != null && forSubscription.containsKey(msgId);
+        }
+    }
+
+    List<Segment> segments() {
+        synchronized (lock) {
+            final List<Segment> segments = new ArrayList<>(sealed);
+            segments.add(active);
+            return segments;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedLogDataStore[directory=" + directory + ", subscriptions=" + subscriptions.size() + "]";
+    }
+
+    /**
+     * The segments written by a single compaction.
+     */
+    private final class Compaction {
+
+        private final Records.Writer writer = new Records.Writer();
+        private final List<Segment> outputs = new ArrayList<>();
+        private final long sequence;
+        private int part;
+
+        Compaction(final long sequence, final int firstPart) {
+            this.sequence = sequence;
+            this.part = firstPart;
+        }
+
+        void append(final byte type) throws IOException {
+            final Segment current = outputs.isEmpty() ? null : outputs.get(outputs.size() - 1);
+            if (current == null || !current.append(type, writer.bytes(), writer.length())) {
+                final Segment next = Segment.create(directory, sequence, part++, segmentSize);
+                outputs.add(next);
+                next.append(type, writer.bytes(), writer.length());
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The record types of the log and the encoding of their bodies.
+ *
+ * Strings are stored as a length prefixed UTF-8 sequence, where a length of {@code -1} stands for an absent
+ * value. Message bodies start with the subscription id and the message id so that both can be read without
+ * decoding the rest of the message.
+ */
+final class Records {
+
+    static final byte SUBSCRIPTION = 1;
+    static final byte SUBSCRIPTION_REMOVED = 2;
+    static final byte MESSAGE = 3;
+    static final byte MESSAGES_DELIVERED = 4;
+    static final byte SENT_MESSAGE = 5;
+    static final byte SENT_MESSAGE_ACKED = 6;
+    static final byte PRIVATE_KEY_SALT = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int ABSENT = -1;
+
+    private Records() {
+    }
+
+    static void writeSubscription(final Writer out, final Subscription subscription) {
+        out.writeString(subscription.id());
+        out.writeString(subscription.pushResourceId());
+        out.writeString(subscription.pushToken());
+        out.writeString(subscription.receiptsToken());
+        out.writeLong(subscription.expires());
+    }
+
+    static Subscription readSubscription(final ByteBuffer in) {
+        final String id = readString(in);
+        final String pushResourceId = readString(in);
+        final String pushToken = readString(in);
+        final String receiptsToken = readString(in);
+        // records written before subscriptions expired end after the tokens.
+        final long expires = in.remaining() >= Long.BYTES ? in.getLong() : Long.MAX_VALUE;
+        return new StoredSubscription(id, pushResourceId, pushToken, receiptsToken, expires);
+    }
+
+    static void writeMessage(final Writer out, final PushMessage msg) {
+        out.writeString(msg.subscription());
+        out.writeString(msg.id());
+        out.writeString(msg.token());
+        out.writeString(msg.receiptSubscription().orElse(null));
+        out.writeBuffer(msg.content());
+        out.writeInt(msg.ttl().orElse(ABSENT));
+        final LocalDateTime created = msg.createdDateTime();
+        out.writeLong(created.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(created.getNano());
+    }
+
+    static PushMessage readMessage(final ByteBuffer in) {
+        final String subscription = readString(in);
+        final String id = readString(in);
+        final String token = readString(in);
+        final Optional<String> receiptSubscription = Optional.ofNullable(readString(in));
+        final byte[] payload = readBytes(in);
+        final int ttl = in.getInt();
+        final LocalDateTime created = LocalDateTime.ofEpochSecond(in.getLong(), in.getInt(), ZoneOffset.UTC);
+        return new StoredPushMessage(id, token, subscription, receiptSubscription, payload,
+                ttl == ABSENT ? Optional.empty() : Optional.of(ttl), created);
+    }
+
+    static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length == ABSENT) {
+            return null;
+        }
+        final String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        } else {
+            final byte[] bytes = new byte[length];
+            in.duplicate().get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        // through Buffer, which also links against a Java 8 runtime.
+        ((Buffer) in).position(in.position() + length);
+        return value;
+    }
+
+    static byte[] readBytes(final ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A growable buffer that record bodies are written to before they are appended to a segment.
+     */
+    static final class Writer {
+
+        private byte[] bytes = new byte[512];
+        private int length;
+
+        Writer reset() {
+            length = 0;
+            return this;
+        }
+
+        void writeString(final String value) {
+            if (value == null) {
+                writeInt(ABSENT);
+                return;
+            }
+            writeBytes(value.getBytes(UTF_8));
+        }
+
+        void writeBytes(final byte[] value) {
+            writeInt(value.length);
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, length, value.length);
+            length += value.length;
+        }
+
+        void writeInt(final int value) {
+            ensureCapacity(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeLong(final long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeBuffer(final ByteBuf value) {
+            final int readable = value.readableBytes();
+            writeInt(readable);
+            ensureCapacity(readable);
+            value.getBytes(value.readerIndex(), bytes, length, readable);
+            length += readable;
+        }
+
+        void write(final ByteBuffer body) {
+            ensureCapacity(body.remaining());
+            body.duplicate().get(bytes, length, body.remaining());
+            length += body.remaining();
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+    }
+
+    /**
+     * A {@link Subscription} read back from the log.
+     */
+    private static final class StoredSubscription implements Subscription {
+
+        private final String id;
+        private final String pushResourceId;
+        private final String pushToken;
+        private final String receiptsToken;
+        private final long expires;
+
+        StoredSubscription(final String id, final String pushResourceId, final String pushToken,
+                           final String receiptsToken, final long expires) {
+            this.id = id;
+            this.pushResourceId = pushResourceId;
+            this.pushToken = pushToken;
+            this.receiptsToken = receiptsToken;
+            this.expires = expires;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public String pushResourceId() {
+            return pushResourceId;
+        }
+
+        @Override
+        public String pushToken() {
+            return pushToken;
+        }
+
+        @Override
+        public String receiptsToken() {
+            return receiptsToken;
+        }
+
+        @Override
+        public long expires() {
+            return expires;
+        }
+    }
+}
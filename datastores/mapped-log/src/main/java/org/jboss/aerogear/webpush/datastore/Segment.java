@@ -0,0 +1,320 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A single memory-mapped log file.
+ *
+ * Each record is stored as {@code length(4) | crc32(4) | type(1) | body}, where the length covers the type
+ * and the body. The file is created at its full size and zero-filled, so a length of {@code 0} marks the end
+ * of the written records. Reading stops at the first record that is incomplete or fails its checksum, which
+ * is how a record that was being written during a crash is discarded.
+ *
+ * A segment is identified by a sequence number and a part. Segments written by the log have part
+ * {@code 0}, the output of a compaction of all segments up to sequence {@code n} is written to segments with
+ * sequence {@code n} and parts starting at {@code 1}, so that replaying segments ordered by sequence and part
+ * always sees the compacted records after the segments they replace and before any newer segment.
+ *
+ * The mapping is released by {@link #close()}, rather than whenever the buffer happens to be garbage collected,
+ * so that deleted segments do not keep holding address space and disk blocks.
+ */
+final class Segment implements Comparable<Segment> {
+
+    static final int HEADER_SIZE = 9;
+    private static final String SUFFIX = ".log";
+    private static final Logger LOGGER = LoggerFactory.getLogger(Segment.class);
+    private static final Unmapper UNMAPPER = Unmapper.create();
+
+    private final File file;
+    private final long sequence;
+    private final int part;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private boolean closed;
+
+    private Segment(final File file, final long sequence, final int part, final MappedByteBuffer buffer) {
+        this.file = file;
+        this.sequence = sequence;
+        this.part = part;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     *
+     * @param directory the directory of the log.
+     * @param sequence the sequence number of the segment.
+     * @param part the part of the segment.
+     * @param size the size of the segment file in bytes.
+     * @return {@link Segment} the new segment.
+     * @throws IOException if the file could not be created.
+     */
+    static Segment create(final File directory, final long sequence, final int part, final int size)
+            throws IOException {
+        final File file = new File(directory, fileName(sequence, part));
+        if (file.exists()) {
+            throw new IOException("Segment " + file + " already exists");
+        }
+        return map(file, sequence, part, size);
+    }
+
+    /**
+     * Opens an existing segment.
+     *
+     * @param file the segment file.
+     * @return {@link Segment} the segment, or {@code null} if the file name is not that of a segment.
+     * @throws IOException if the file could not be mapped.
+     */
+    static Segment open(final File file) throws IOException {
+        final String name = file.getName();
+        if (!name.endsWith(SUFFIX) || name.length() != 16 + 1 + 4 + SUFFIX.length() || name.charAt(16) != '-') {
+            return null;
+        }
+        final long sequence = Long.parseUnsignedLong(name.substring(0, 16), 16);
+        final int part = Integer.parseInt(name.substring(17, 21));
+        return map(file, sequence, part, (int) file.length());
+    }
+
+    private static Segment map(final File file, final long sequence, final int part, final int size)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            // the mapping stays valid after the file has been closed.
+            return new Segment(file, sequence, part, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private static String fileName(final long sequence, final int part) {
+        return String.format("%016x-%04d%s", sequence, part, SUFFIX);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param type the type of the record.
+     * @param body the array holding the body of the record.
+     * @param length the length of the body.
+     * @return {@code true} if the record was appended, {@code false} if there is not enough room left.
+     */
+    boolean append(final byte type, final byte[] body, final int length) {
+        if (buffer.remaining() < HEADER_SIZE + length) {
+            return false;
+        }
+        final int start = buffer.position();
+        crc.reset();
+        crc.update(type);
+        crc.update(body, 0, length);
+        // called through Buffer, as the ByteBuffer overrides that JDK 9 added are missing on Java 8.
+        ((Buffer) buffer).position(start + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.put(body, 0, length);
+        // the length is written last, so that a partially written record is never read as complete.
+        buffer.putInt(start, length + 1);
+        return true;
+    }
+
+    /**
+     * Reads all complete records of this segment and positions it after the last one.
+     *
+     * @param reader the reader that is passed each record.
+     * @return {@code boolean} {@code true} if the segment ended cleanly, {@code false} if reading stopped at an
+     * incomplete or corrupt record.
+     */
+    synchronized boolean read(final RecordReader reader) throws IOException {
+        if (closed) {
+            throw new IOException("Segment " + file + " is closed");
+        }
+        final ByteBuffer in = buffer.duplicate();
+        ((Buffer) in).position(0);
+        final CRC32 checksum = new CRC32();
+        while (in.remaining() >= HEADER_SIZE) {
+            final int start = in.position();
+            final int length = in.getInt();
+            if (length == 0) {
+                ((Buffer) in).position(start);
+                break;
+            }
+            if (length < 1 || length > in.remaining() - 4) {
+                ((Buffer) buffer).position(start);
+                return false;
+            }
+            final int expectedCrc = in.getInt();
+            final ByteBuffer record = in.slice();
+            ((Buffer) record).limit(length);
+            checksum.reset();
+            checksum.update(record.duplicate());
+            if ((int) checksum.getValue() != expectedCrc) {
+                ((Buffer) buffer).position(start);
+                return false;
+            }
+            final byte type = record.get();
+            reader.read(type, record);
+            ((Buffer) in).position(start + 4 + 4 + length);
+        }
+        ((Buffer) buffer).position(in.position());
+        return true;
+    }
+
+    /**
+     * Zero-fills the segment after its current position, so that the remains of a discarded record can not be
+     * mistaken for records appended later.
+     */
+    void clearTail() {
+        final ByteBuffer out = buffer.duplicate();
+        final byte[] zeros = new byte[4096];
+        while (out.hasRemaining()) {
+            out.put(zeros, 0, Math.min(zeros.length, out.remaining()));
+        }
+    }
+
+    /**
+     * Writes all changes of this segment to the storage device, unless it has been closed.
+     */
+    synchronized void force() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Releases the mapping of this segment. No records may be appended once it has been closed.
+     */
+    synchronized void close() {
+        if (!closed) {
+            closed = true;
+            UNMAPPER.unmap(buffer);
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Could not delete segment " + file);
+        }
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    int part() {
+        return part;
+    }
+
+    int size() {
+        return buffer.capacity();
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    File file() {
+        return file;
+    }
+
+    @Override
+    public int compareTo(final Segment other) {
+        final int bySequence = Long.compareUnsigned(sequence, other.sequence);
+        return bySequence != 0 ? bySequence : Integer.compare(part, other.part);
+    }
+
+    @Override
+    public String toString() {
+        return "Segment[file=" + file + ", position=" + buffer.position() + "]";
+    }
+
+    /**
+     * Releases the mapping of a buffer, which the JDK only does once the buffer has been garbage collected.
+     */
+    private static final class Unmapper {
+
+        private final Object target;
+        private final Method method;
+
+        private Unmapper(final Object target, final Method method) {
+            this.target = target;
+            this.method = method;
+        }
+
+        static Unmapper create() {
+            try {
+                // Java 9 and later.
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                return new Unmapper(theUnsafe.get(null), invokeCleaner);
+            } catch (final ReflectiveOperationException | RuntimeException ignored) {
+                // Java 8, where the cleaner is reached through the buffer itself.
+                try {
+                    final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                    return new Unmapper(null, clean);
+                } catch (final ReflectiveOperationException | RuntimeException e) {
+                    LOGGER.warn("Segments can not be unmapped explicitly and are released on garbage collection", e);
+                    return new Unmapper(null, null);
+                }
+            }
+        }
+
+        void unmap(final MappedByteBuffer buffer) {
+            if (method == null) {
+                return;
+            }
+            try {
+                if (target != null) {
+                    method.invoke(target, buffer);
+                } else {
+                    final Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    method.invoke(cleaner.invoke(buffer));
+                }
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Could not unmap segment buffer", e);
+            }
+        }
+    }
+
+    /**
+     * Receives the records of a segment.
+     */
+    interface RecordReader {
+
+        /**
+         * Reads a single record.
+         *
+         * @param type the type of the record.
+         * @param body the body of the record, positioned at its start.
+         */
+        void read(byte type, ByteBuffer body) throws IOException;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.Subscription;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures write throughput and recovery time of {@link MappedLogDataStore}.
+ *
+ * Run with {@code java -Xmx4g -cp ... MappedLogDataStoreBenchmark [subscriptions] [directory]}, the defaults are
+ * 10,000,000 subscriptions in a temporary directory that is deleted afterwards.
+ */
+public final class MappedLogDataStoreBenchmark {
+
+    private MappedLogDataStoreBenchmark() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final boolean temporary = args.length < 2;
+        final File dir = temporary ? Files.createTempDirectory("mapped-log").toFile() : new File(args[1]);
+        final String resourceId = UUID.randomUUID().toString();
+        try {
+            long start = System.nanoTime();
+            try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+                for (int i = 0; i < count; i++) {
+                    store.saveSubscription(new BenchmarkSubscription(UUID.randomUUID().toString(), resourceId));
+                }
+                store.sync();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("wrote %,d subscriptions in %,dms (%,d/s), log size %,d bytes%n", count,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), count * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                    logSize(dir));
+
+            start = System.nanoTime();
+            try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+                elapsed = System.nanoTime() - start;
+                System.out.printf("recovered %s in %,dms%n", store, TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+        } finally {
+            if (temporary) {
+                for (File file : dir.listFiles()) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static long logSize(final File dir) {
+        long size = 0;
+        for (File file : dir.listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static final class BenchmarkSubscription implements Subscription {
+
+        private final String id;
+        private final String pushResourceId;
+
+        BenchmarkSubscription(final String id, final String pushResourceId) {
+            this.id = id;
+            this.pushResourceId = pushResourceId;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public String pushResourceId() {
+            return pushResourceId;
+        }
+
+        @Override
+        public String pushToken() {
+            return "EGeEnBiXvLXBTsqBJDm_4Dfb8g3m1YJvGWMp7BvVHlyZbJR0kdKxSr-Zxr7_X_9vhFVPeDSFvg4w";
+        }
+
+        @Override
+        public String receiptsToken() {
+            return "EEp6vJzGhKfz9kS0fWvMA0Yhk5uG8z4VfGr3V3gYoUkUFW9p9mNR8c0Zc1Q";
+        }
+    }
+}
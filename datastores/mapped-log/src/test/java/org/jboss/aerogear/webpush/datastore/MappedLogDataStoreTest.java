@@ -0,0 +1,214 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import org.jboss.aerogear.webpush.PushMessage;
+import org.jboss.aerogear.webpush.Subscription;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.assertSameMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockSubscription;
+import static org.mockito.Mockito.when;
+
+public class MappedLogDataStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoversStateAfterReopen() throws Exception {
+        final File dir = folder.getRoot();
+        final Subscription kept = mockSubscription("sub1");
+        final PushMessage waiting = mockMessage("sub1", "waiting", Optional.of(60), Optional.empty());
+        final PushMessage sent = mockMessage("sub1", "sent", Optional.empty(), Optional.of("receiptSubId"));
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            store.savePrivateKeySalt("salt".getBytes());
+            store.saveSubscription(kept);
+            store.saveSubscription(mockSubscription("sub2"));
+            store.removeSubscription("sub2");
+            store.saveMessage(mockMessage("sub1", "delivered", Optional.empty(), Optional.empty()));
+            store.waitingDeliveryMessages("sub1");
+            store.saveMessage(waiting);
+            store.saveSentMessage(sent);
+            store.saveSentMessage(mockMessage("sub1", "acked", Optional.empty(), Optional.of("receiptSubId")));
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.getPrivateKeySalt(), equalTo("salt".getBytes()));
+            assertThat(store.subscription("sub1").get().pushToken(), equalTo(kept.pushToken()));
+            assertThat(store.subscription("sub2").isPresent(), is(false));
+            assertSameMessage(store.sentMessage("sub1", sent.id()).get(), sent);
+            final List<PushMessage> messages = store.waitingDeliveryMessages("sub1");
+            assertThat(messages.size(), is(1));
+            assertSameMessage(messages.get(0), waiting);
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+            assertThat(store.sentMessage("sub1", sent.id()).isPresent(), is(false));
+        }
+    }
+
+    @Test
+    public void subscriptionExpiryIsKeptAcrossReopen() throws Exception {
+        final File dir = folder.getRoot();
+        final Subscription expiring = mockSubscription("sub1");
+        when(expiring.expires()).thenReturn(1000L);
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            store.saveSubscription(expiring);
+            store.saveSubscription(mockSubscription("sub2"));
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.subscription("sub1").get().expires(), is(1000L));
+            assertThat(store.subscription("sub2").get().expires(), is(Long.MAX_VALUE));
+            assertThat(store.expiredSubscriptions(999, Integer.MAX_VALUE).isEmpty(), is(true));
+            assertThat(store.expiredSubscriptions(1000, Integer.MAX_VALUE), equalTo(Collections.singletonList("sub1")));
+        }
+    }
+
+    @Test
+    public void compactionKeepsOnlyLiveRecords() throws Exception {
+        final File dir = folder.getRoot();
+        final PushMessage live = mockMessage("sub0", "live", Optional.empty(), Optional.empty());
+        try (MappedLogDataStore store = new MappedLogDataStore(dir, SEGMENT_SIZE, Integer.MAX_VALUE)) {
+            store.savePrivateKeySalt("salt".getBytes());
+            for (int i = 0; i < 200; i++) {
+                store.saveSubscription(mockSubscription("sub" + i));
+                if (i > 0) {
+                    store.removeSubscription("sub" + i);
+                }
+            }
+            store.saveMessage(live);
+            final int before = store.segments().size();
+            store.compact();
+            assertThat(store.segments().size() < before, is(true));
+            assertThat(store.segments().size(), is(directorySize(dir)));
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.getPrivateKeySalt(), equalTo("salt".getBytes()));
+            assertThat(store.subscription("sub0").isPresent(), is(true));
+            assertThat(store.subscription("sub1").isPresent(), is(false));
+            final List<PushMessage> messages = store.waitingDeliveryMessages("sub0");
+            assertThat(messages.size(), is(1));
+            assertSameMessage(messages.get(0), live);
+        }
+    }
+
+    @Test
+    public void ignoresCorruptTail() throws Exception {
+        final File dir = folder.getRoot();
+        try (MappedLogDataStore store = new MappedLogDataStore(dir, SEGMENT_SIZE, Integer.MAX_VALUE)) {
+            store.saveSubscription(mockSubscription("sub1"));
+            store.saveSubscription(mockSubscription("sub2"));
+        }
+        final File[] segments = dir.listFiles();
+        assertThat(segments.length, is(1));
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            // flip a byte in the body of the last record.
+            long end = 0;
+            for (long pos = 0; pos < file.length(); ) {
+                file.seek(pos);
+                final int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                end = pos;
+                pos += 8 + length;
+            }
+            file.seek(end + Segment.HEADER_SIZE);
+            final int b = file.read();
+            file.seek(end + Segment.HEADER_SIZE);
+            file.write(b ^ 0xff);
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.subscription("sub1").isPresent(), is(true));
+            assertThat(store.subscription("sub2").isPresent(), is(false));
+            store.saveSubscription(mockSubscription("sub3"));
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            assertThat(store.subscription("sub3").isPresent(), is(true));
+        }
+    }
+
+    @Test
+    public void reopenContinuesInLastSegment() throws Exception {
+        final File dir = folder.getRoot();
+        for (int i = 0; i < 3; i++) {
+            try (MappedLogDataStore store = new MappedLogDataStore(dir, SEGMENT_SIZE, Integer.MAX_VALUE)) {
+                store.saveSubscription(mockSubscription("sub" + i));
+            }
+        }
+        assertThat(directorySize(dir), is(1));
+        try (MappedLogDataStore store = new MappedLogDataStore(dir)) {
+            for (int i = 0; i < 3; i++) {
+                assertThat(store.subscription("sub" + i).isPresent(), is(true));
+            }
+        }
+    }
+
+    @Test
+    public void compactionKeepsOneCopyOfDuplicatedRecords() throws Exception {
+        final File dir = folder.getRoot();
+        final PushMessage live = mockMessage("sub1", "live", Optional.empty(), Optional.empty());
+        try (MappedLogDataStore store = new MappedLogDataStore(dir, SEGMENT_SIZE, Integer.MAX_VALUE)) {
+            store.saveSubscription(mockSubscription("sub1"));
+            store.saveMessage(live);
+            store.saveMessage(live);
+            // fill the active segment, so that the records above are in a full segment.
+            while (store.segments().size() == 1) {
+                store.saveMessage(mockMessage("sub2", "filler", Optional.empty(), Optional.empty()));
+            }
+            store.waitingDeliveryMessages("sub2");
+            store.compact();
+        }
+        try (MappedLogDataStore store = new MappedLogDataStore(dir, SEGMENT_SIZE, Integer.MAX_VALUE)) {
+            final List<Segment> segments = store.segments();
+            assertThat(segments.size(), is(2));
+            final int[] records = new int[1];
+            segments.get(0).read((type, body) -> records[0]++);
+            assertThat(records[0], is(2));
+            final List<PushMessage> messages = store.waitingDeliveryMessages("sub1");
+            assertThat(messages.size(), is(1));
+            assertSameMessage(messages.get(0), live);
+        }
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void rejectsRecordsLargerThanSegment() throws Exception {
+        try (MappedLogDataStore store = new MappedLogDataStore(folder.getRoot(), SEGMENT_SIZE, 1)) {
+            store.saveMessage(mockMessage("sub1", new String(new char[SEGMENT_SIZE]), Optional.empty(),
+                    Optional.empty()));
+        }
+    }
+
+    private static int directorySize(final File dir) {
+        return dir.listFiles().length;
+    }
+
+}
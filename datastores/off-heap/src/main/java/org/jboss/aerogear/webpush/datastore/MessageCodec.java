@@ -0,0 +1,155 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+/**
+ * Serializes {@link PushMessage}s to and from buffers.
+ *
+ * The layout is {@code ttl(4) | createdSeconds(8) | createdNanos(4)} followed by the id, token, subscription
+ * and receipt subscription, each as a length prefixed UTF-8 string where a length of {@code -1} stands for an
+ * absent value, and the length prefixed payload bytes.
+ */
+final class MessageCodec {
+
+    private static final int ABSENT = -1;
+    private static final int HEADER_SIZE = 16;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Serializes the passed-in message into a direct buffer of exactly the required size.
+     *
+     * @param msg the message to serialize.
+     * @param allocator the allocator to take the buffer from.
+     * @return {@link ByteBuf} the buffer holding the message, which the caller has to release.
+     */
+    static ByteBuf encode(final PushMessage msg, final ByteBufAllocator allocator) {
+        final String receiptSubscription = msg.receiptSubscription().orElse(null);
+        final ByteBuf payload = msg.content();
+        final int size = HEADER_SIZE + encodedLength(msg.id()) + encodedLength(msg.token())
+                + encodedLength(msg.subscription()) + encodedLength(receiptSubscription) + 4 + payload.readableBytes();
+        final ByteBuf buffer = allocator.directBuffer(size, size);
+        try {
+            buffer.writeInt(msg.ttl().orElse(ABSENT));
+            final LocalDateTime created = msg.createdDateTime();
+            buffer.writeLong(created.toEpochSecond(ZoneOffset.UTC));
+            buffer.writeInt(created.getNano());
+            writeString(buffer, msg.id());
+            writeString(buffer, msg.token());
+            writeString(buffer, msg.subscription());
+            writeString(buffer, receiptSubscription);
+            buffer.writeInt(payload.readableBytes());
+            buffer.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+            return buffer;
+        } catch (final RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    static PushMessage decode(final ByteBuf buffer) {
+        int index = buffer.readerIndex();
+        final int ttl = buffer.getInt(index);
+        final LocalDateTime created = LocalDateTime.ofEpochSecond(buffer.getLong(index + 4),
+                buffer.getInt(index + 12), ZoneOffset.UTC);
+        index += HEADER_SIZE;
+        final String[] values = new String[4];
+        for (int i = 0; i < values.length; i++) {
+            final int length = buffer.getInt(index);
+            index += 4;
+            if (length != ABSENT) {
+                values[i] = buffer.toString(index, length, CharsetUtil.UTF_8);
+                index += length;
+            }
+        }
+        // copied to the heap, as the buffer is released once the message has been read.
+        final byte[] payload = new byte[buffer.getInt(index)];
+        buffer.getBytes(index + 4, payload);
+        return new StoredPushMessage(values[0], values[1], values[2], Optional.ofNullable(values[3]), payload,
+                ttl == ABSENT ? Optional.empty() : Optional.of(ttl), created);
+    }
+
+    private static int encodedLength(final String value) {
+        if (value == null) {
+            return 4;
+        }
+        int length = 4;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // unlike ByteBufUtil.writeUtf8 this does not require room for the worst case of 3 bytes per char.
+    private static void writeString(final ByteBuf buffer, final String value) {
+        if (value == null) {
+            buffer.writeInt(ABSENT);
+            return;
+        }
+        final int lengthIndex = buffer.writerIndex();
+        buffer.writeInt(0);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.writeByte(c);
+            } else if (c < 0x800) {
+                buffer.writeByte(0xC0 | c >> 6);
+                buffer.writeByte(0x80 | c & 0x3F);
+            } else if (isSurrogatePair(value, i)) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.writeByte(0xF0 | codePoint >> 18);
+                buffer.writeByte(0x80 | codePoint >> 12 & 0x3F);
+                buffer.writeByte(0x80 | codePoint >> 6 & 0x3F);
+                buffer.writeByte(0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buffer.writeByte('?');
+            } else {
+                buffer.writeByte(0xE0 | c >> 12);
+                buffer.writeByte(0x80 | c >> 6 & 0x3F);
+                buffer.writeByte(0x80 | c & 0x3F);
+            }
+        }
+        buffer.setInt(lengthIndex, buffer.writerIndex() - lengthIndex - 4);
+    }
+
+    private static boolean isSurrogatePair(final String value, final int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+}
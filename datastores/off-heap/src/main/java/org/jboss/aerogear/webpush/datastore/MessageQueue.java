@@ -0,0 +1,151 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * The linked queue of messages waiting for delivery to a single subscription.
+ *
+ * A queue is closed when it is drained, after which no more messages can be added to it. Nodes can be
+ * claimed by eviction while they are still linked, claimed nodes at the head are unlinked on the next add, or
+ * by {@link #closeIfEvicted()}.
+ */
+final class MessageQueue {
+
+    private final String subscription;
+    private Node head;
+    private Node tail;
+    private boolean closed;
+
+    MessageQueue(final String subscription) {
+        this.subscription = subscription;
+    }
+
+    String subscription() {
+        return subscription;
+    }
+
+    /**
+     * Appends the passed-in node.
+     *
+     * @param node the node to append.
+     * @return {@code true} if the node was added, {@code false} if this queue has been closed.
+     */
+    synchronized boolean add(final Node node) {
+        if (closed) {
+            return false;
+        }
+        unlinkClaimed();
+        node.queue = this;
+        if (head == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        return true;
+    }
+
+    /**
+     * Closes this queue if all of its nodes have been claimed by eviction.
+     *
+     * @return {@code true} if this queue is closed and can be discarded.
+     */
+    synchronized boolean closeIfEvicted() {
+        unlinkClaimed();
+        if (head == null) {
+            closed = true;
+        }
+        return closed;
+    }
+
+    private void unlinkClaimed() {
+        while (head != null && head.isClaimed()) {
+            head = head.next;
+        }
+        if (head == null) {
+            tail = null;
+        }
+    }
+
+    /**
+     * Closes this queue and returns all nodes in the order they were added, including claimed nodes.
+     *
+     * @return {@code List<Node>} the nodes of this queue.
+     */
+    synchronized List<Node> close() {
+        closed = true;
+        if (head == null) {
+            return Collections.emptyList();
+        }
+        final List<Node> nodes = new ArrayList<>();
+        for (Node node = head; node != null; node = node.next) {
+            nodes.add(node);
+        }
+        head = tail = null;
+        return nodes;
+    }
+
+    /**
+     * A queued message, serialized into a direct buffer.
+     *
+     * The node is claimed exactly once, either by the drain that delivers it or by the eviction that drops it,
+     * and whoever claims it releases the buffer.
+     */
+    static final class Node {
+
+        private static final AtomicIntegerFieldUpdater<Node> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "claimed");
+
+        private final ByteBuf buffer;
+        private final int size;
+        private volatile int claimed;
+        private Node next;
+        private MessageQueue queue;
+
+        Node(final ByteBuf buffer) {
+            this.buffer = buffer;
+            this.size = buffer.capacity();
+        }
+
+        boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+
+        boolean isClaimed() {
+            return claimed != 0;
+        }
+
+        MessageQueue queue() {
+            return queue;
+        }
+
+        ByteBuf buffer() {
+            return buffer;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link DataStore} that keeps messages waiting for delivery in direct memory.
+ *
+ * Every waiting message is serialized into a single direct buffer taken from a pooled allocator and is
+ * linked into the queue of its subscription, so offline backlogs are neither scanned nor copied by the
+ * garbage collector. The total size of all queued messages is bounded by {@code maxBytes}, once it is
+ * exceeded the oldest queued messages of any subscription are evicted.
+ *
+ * Subscriptions and sent messages awaiting acknowledgement are stored on the heap as in
+ * {@link InMemoryDataStore}.
+ */
+public class OffHeapDataStore extends InMemoryDataStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapDataStore.class);
+    private static final int CLEANUP_THRESHOLD = 1024;
+
+    private final ConcurrentMap<String, MessageQueue> queues = new ConcurrentHashMap<>();
+    // all queued messages in insertion order, also holds messages that have since been drained.
+    private final Queue<MessageQueue.Node> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong drainedNodes = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final LongAdder queuedMessages = new LongAdder();
+    private final LongAdder evictedMessages = new LongAdder();
+    private final ByteBufAllocator allocator;
+    private final long maxBytes;
+
+    /**
+     * Creates a store that uses the default pooled allocator.
+     *
+     * @param maxBytes the maximum number of bytes that queued messages may occupy.
+     */
+    public OffHeapDataStore(final long maxBytes) {
+        this(maxBytes, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * Creates a store that takes the buffers for queued messages from the passed-in allocator.
+     *
+     * @param maxBytes the maximum number of bytes that queued messages may occupy.
+     * @param allocator the allocator for the direct buffers holding queued messages.
+     */
+    public OffHeapDataStore(final long maxBytes, final ByteBufAllocator allocator) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.allocator = Objects.requireNonNull(allocator, "allocator must not be null");
+    }
+
+    @Override
+    public List<PushMessage> removeSubscription(final String id) {
+        final MessageQueue queue = queues.remove(id);
+        if (queue != null) {
+            drain(queue, null);
+        }
+        return super.removeSubscription(id);
+    }
+
+    @Override
+    public void saveMessage(final PushMessage msg) {
+        Objects.requireNonNull(msg, "push message can not be null");
+        final ByteBuf buffer = MessageCodec.encode(msg, allocator);
+        final MessageQueue.Node node = new MessageQueue.Node(buffer);
+        if (node.size() > maxBytes) {
+            LOGGER.warn("Dropping message {} of {} bytes, which exceeds the queue quota", msg.id(), node.size());
+            evictedMessages.increment();
+            buffer.release();
+            return;
+        }
+        queuedMessages.increment();
+        queuedBytes.addAndGet(node.size());
+        final String subId = msg.subscription();
+        MessageQueue queue = queues.get(subId);
+        // queues are removed from the map before they are closed, so a closed queue is never found twice.
+        while (queue == null || !queue.add(node)) {
+            final MessageQueue newQueue = new MessageQueue(subId);
+            final MessageQueue previous = queues.putIfAbsent(subId, newQueue);
+            queue = previous != null ? previous : newQueue;
+        }
+        insertionOrder.offer(node);
+        if (queuedBytes.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    @Override
+    public List<PushMessage> waitingDeliveryMessages(final String subId) {
+        final MessageQueue queue = queues.remove(subId);
+        if (queue == null) {
+            return Collections.emptyList();
+        }
+        final List<PushMessage> messages = new ArrayList<>();
+        drain(queue, messages);
+        return Collections.unmodifiableList(messages);
+    }
+
+    private void drain(final MessageQueue queue, final List<PushMessage> messages) {
+        long drained = 0;
+        for (MessageQueue.Node node : queue.close()) {
+            // nodes that were evicted in the meantime have already been released.
+            if (node.claim()) {
+                if (messages != null) {
+                    messages.add(MessageCodec.decode(node.buffer()));
+                }
+                release(node);
+                drained++;
+            }
+        }
+        if (drainedNodes.addAndGet(drained) > CLEANUP_THRESHOLD && drainedNodes.get() > queuedMessages.sum()) {
+            pruneInsertionOrder();
+        }
+    }
+
+    /**
+     * Returns the number of bytes currently occupied by queued messages.
+     *
+     * @return {@code long} the number of queued bytes.
+     */
+    public long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Returns the number of messages currently waiting for delivery.
+     *
+     * @return {@code long} the number of queued messages.
+     */
+    public long queuedMessages() {
+        return queuedMessages.sum();
+    }
+
+    /**
+     * Returns the number of messages that were dropped to stay within the quota.
+     *
+     * @return {@code long} the number of evicted messages.
+     */
+    public long evictedMessages() {
+        return evictedMessages.sum();
+    }
+
+    private void evict() {
+        while (queuedBytes.get() > maxBytes) {
+            final MessageQueue.Node eldest = insertionOrder.poll();
+            if (eldest == null) {
+                return;
+            }
+            if (eldest.claim()) {
+                release(eldest);
+                evictedMessages.increment();
+                // eviction is oldest first, so the queue of an abandoned subscription empties from its head.
+                final MessageQueue queue = eldest.queue();
+                if (queue.closeIfEvicted()) {
+                    queues.remove(queue.subscription(), queue);
+                }
+            } else {
+                drainedNodes.decrementAndGet();
+            }
+        }
+    }
+
+    private void pruneInsertionOrder() {
+        insertionOrder.removeIf(node -> {
+            if (node.isClaimed()) {
+                drainedNodes.decrementAndGet();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void release(final MessageQueue.Node node) {
+        queuedBytes.addAndGet(-node.size());
+        queuedMessages.decrement();
+        node.buffer().release();
+    }
+
+    int subscriptionQueues() {
+        return queues.size();
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapDataStore[queuedMessages=" + queuedMessages() + ", queuedBytes=" + queuedBytes()
+                + ", maxBytes=" + maxBytes + ", evictedMessages=" + evictedMessages() + "]";
+    }
+}
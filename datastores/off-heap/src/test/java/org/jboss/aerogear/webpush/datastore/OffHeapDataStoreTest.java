@@ -0,0 +1,118 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.datastore;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.assertSameMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockMessage;
+import static org.jboss.aerogear.webpush.datastore.Fixtures.mockSubscription;
+
+public class OffHeapDataStoreTest {
+
+    @Test
+    public void saveAndDrainMessages() {
+        final OffHeapDataStore store = new OffHeapDataStore(1024 * 1024);
+        final String subId = UUID.randomUUID().toString();
+        store.saveSubscription(mockSubscription(subId));
+        final PushMessage first = mockMessage(subId, "first", Optional.of(60), Optional.of("receiptSubId"));
+        final PushMessage second = mockMessage(subId, "héllo 😀", Optional.empty(), Optional.empty());
+        store.saveMessage(first);
+        store.saveMessage(second);
+        assertThat(store.queuedMessages(), is(2L));
+
+        final List<PushMessage> messages = store.waitingDeliveryMessages(subId);
+        assertThat(messages.size(), is(2));
+        assertSameMessage(messages.get(0), first);
+        assertSameMessage(messages.get(1), second);
+        assertThat(store.queuedBytes(), is(0L));
+        assertThat(store.waitingDeliveryMessages(subId).isEmpty(), is(true));
+    }
+
+    @Test
+    public void evictsOldestMessagesWhenQuotaIsExceeded() {
+        final PushMessage oldest = mockMessage("sub1", "payload1", Optional.empty(), Optional.empty());
+        final ByteBuf encoded = MessageCodec.encode(oldest, UnpooledByteBufAllocator.DEFAULT);
+        final long messageSize = encoded.capacity();
+        encoded.release();
+        final OffHeapDataStore store = new OffHeapDataStore(2 * messageSize);
+        store.saveSubscription(mockSubscription("sub1"));
+        store.saveSubscription(mockSubscription("sub2"));
+        store.saveMessage(oldest);
+        store.saveMessage(mockMessage("sub2", "payload2", Optional.empty(), Optional.empty()));
+        store.saveMessage(mockMessage("sub1", "payload3", Optional.empty(), Optional.empty()));
+        assertThat(store.evictedMessages(), is(1L));
+        assertThat(store.queuedBytes(), is(2 * messageSize));
+
+        final List<PushMessage> messages = store.waitingDeliveryMessages("sub1");
+        assertThat(messages.size(), is(1));
+        assertThat(messages.get(0).payload(), equalTo("payload3"));
+        assertThat(store.waitingDeliveryMessages("sub2").size(), is(1));
+    }
+
+    @Test
+    public void discardsQueuesWhoseMessagesWereAllEvicted() {
+        final PushMessage abandoned = mockMessage("sub1", "payload1", Optional.empty(), Optional.empty());
+        final ByteBuf encoded = MessageCodec.encode(abandoned, UnpooledByteBufAllocator.DEFAULT);
+        final long messageSize = encoded.capacity();
+        encoded.release();
+        final OffHeapDataStore store = new OffHeapDataStore(2 * messageSize);
+        store.saveSubscription(mockSubscription("sub1"));
+        store.saveSubscription(mockSubscription("sub2"));
+        store.saveMessage(abandoned);
+        store.saveMessage(mockMessage("sub1", "payload2", Optional.empty(), Optional.empty()));
+        for (int i = 0; i < 4; i++) {
+            store.saveMessage(mockMessage("sub2", "payload" + i, Optional.empty(), Optional.empty()));
+        }
+        assertThat(store.subscriptionQueues(), is(1));
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+        store.saveMessage(mockMessage("sub1", "payload3", Optional.empty(), Optional.empty()));
+        assertThat(store.waitingDeliveryMessages("sub1").size(), is(1));
+    }
+
+    @Test
+    public void dropsMessagesLargerThanQuota() {
+        final OffHeapDataStore store = new OffHeapDataStore(64);
+        store.saveSubscription(mockSubscription("sub1"));
+        store.saveSubscription(mockSubscription("sub2"));
+        store.saveMessage(mockMessage("sub1", new String(new char[128]), Optional.empty(), Optional.empty()));
+        assertThat(store.evictedMessages(), is(1L));
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+    }
+
+    @Test
+    public void removeSubscriptionReleasesQueuedMessages() {
+        final OffHeapDataStore store = new OffHeapDataStore(1024 * 1024);
+        store.saveSubscription(mockSubscription("sub1"));
+        store.saveMessage(mockMessage("sub1", "payload", Optional.empty(), Optional.empty()));
+        store.removeSubscription("sub1");
+        assertThat(store.queuedBytes(), is(0L));
+        assertThat(store.queuedMessages(), is(0L));
+        assertThat(store.waitingDeliveryMessages("sub1").isEmpty(), is(true));
+    }
+
+}
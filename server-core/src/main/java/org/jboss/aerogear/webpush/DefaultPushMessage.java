@@ -16,28 +16,58 @@
  */
 package org.jboss.aerogear.webpush;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
 import java.time.LocalDateTime;
 import java.util.Objects;
 import java.util.Optional;
 
-public class DefaultPushMessage implements PushMessage {
+/**
+ * A {@link PushMessage} that holds a reference to its payload buffer until it is released.
+ */
+public class DefaultPushMessage extends DefaultByteBufHolder implements PushMessage {
 
     private final String id;
+    private final String token;
     private final String subscription;
     private final Optional<String> receiptSubscription;
-    private final String payload;
     private final Optional<Integer> ttl;
     private final LocalDateTime createdDateTime;
 
     public DefaultPushMessage(final String id,
+                              final String token,
                               final String subscription,
                               final Optional<String> receiptSubscription,
                               final String payload,
                               final Optional<Integer> ttl) {
+        this(id, token, subscription, receiptSubscription,
+                Unpooled.copiedBuffer(Objects.requireNonNull(payload, "payload"), CharsetUtil.UTF_8), ttl);
+    }
+
+    /**
+     * Creates a message that takes over the passed-in reference to its payload.
+     *
+     * @param id the id of the message.
+     * @param token the endpoint token of the push message resource.
+     * @param subscription the id of the subscription the message is sent to.
+     * @param receiptSubscription the receipt subscription, if the application server asked for a receipt.
+     * @param content the payload, which is released with the message.
+     * @param ttl the number of seconds the message may be stored for.
+     */
+    public DefaultPushMessage(final String id,
+                              final String token,
+                              final String subscription,
+                              final Optional<String> receiptSubscription,
+                              final ByteBuf content,
+                              final Optional<Integer> ttl) {
+        super(Objects.requireNonNull(content, "content"));
         this.id = Objects.requireNonNull(id, "id");
+        this.token = Objects.requireNonNull(token, "token");
         this.subscription = Objects.requireNonNull(subscription, "subscription");
         this.receiptSubscription = Objects.requireNonNull(receiptSubscription, "receiptSubscription");
-        this.payload = Objects.requireNonNull(payload, "payload");
         this.ttl = Objects.requireNonNull(ttl, "ttl");
         ttl.ifPresent(v -> {
             if (v < 0) {
@@ -52,6 +82,11 @@ public class DefaultPushMessage implements PushMessage {
         return id;
     }
 
+    @Override
+    public String token() {
+        return token;
+    }
+
     @Override
     public String subscription() {
         return subscription;
@@ -62,11 +97,6 @@ public class DefaultPushMessage implements PushMessage {
         return receiptSubscription;
     }
 
-    @Override
-    public String payload() {
-        return payload;
-    }
-
     @Override
     public Optional<Integer> ttl() {
         return ttl;
@@ -83,7 +113,7 @@ public class DefaultPushMessage implements PushMessage {
                 "id='" + id + '\'' +
                 ", subscription='" + subscription + '\'' +
                 ", receiptSubscription='" + receiptSubscription + '\'' +
-                ", payload='" + payload + '\'' +
+                ", contentLength=" + content().readableBytes() +
                 ", ttl=" + ttl +
                 ", createdDateTime=" + createdDateTime +
                 '}';
@@ -22,10 +22,27 @@ public class DefaultSubscription implements Subscription {
 
     private final String id;
     private final String pushResourceId;
+    private final String pushToken;
+    private final String receiptsToken;
+    private final long expires;
 
-    public DefaultSubscription(final String id, final String pushResourceId) {
+    public DefaultSubscription(final String id,
+                               final String pushResourceId,
+                               final String pushToken,
+                               final String receiptsToken) {
+        this(id, pushResourceId, pushToken, receiptsToken, Long.MAX_VALUE);
+    }
+
+    public DefaultSubscription(final String id,
+                               final String pushResourceId,
+                               final String pushToken,
+                               final String receiptsToken,
+                               final long expires) {
         this.id = Objects.requireNonNull(id, "id");
         this.pushResourceId = Objects.requireNonNull(pushResourceId, "pushResourceId");
+        this.pushToken = Objects.requireNonNull(pushToken, "pushToken");
+        this.receiptsToken = Objects.requireNonNull(receiptsToken, "receiptsToken");
+        this.expires = expires;
     }
 
     @Override
@@ -38,6 +55,21 @@ public class DefaultSubscription implements Subscription {
         return pushResourceId;
     }
 
+    @Override
+    public String pushToken() {
+        return pushToken;
+    }
+
+    @Override
+    public String receiptsToken() {
+        return receiptsToken;
+    }
+
+    @Override
+    public long expires() {
+        return expires;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -61,6 +93,7 @@ public class DefaultSubscription implements Subscription {
         return "DefaultSubscription{" +
                 "id='" + id + '\'' +
                 ", pushResourceId='" + pushResourceId + '\'' +
+                ", expires=" + expires +
                 '}';
     }
 }
@@ -29,12 +29,28 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
     private final boolean endpointTls;
     private final File cert;
     private final File privateKey;
+    private final File keyStore;
     private final String password;
     private final String endpointHost;
     private final int endpointPort;
     private final long subscriptionMaxAge;
     private final long messageMaxAge;
     private final long messageMaxSize;
+    private final long tokenCacheMaxSize;
+    private final long tokenCacheMaxAge;
+    private final int groupCommitMaxBatch;
+    private final long groupCommitMaxLatency;
+    private final int flushMaxPendingMessages;
+    private final long flushMaxPendingBytes;
+    private final long outboundQueueMaxBytes;
+    private final int accessLogSampling;
+    private final String transport;
+    private final int transportAcceptors;
+    private final int socketBacklog;
+    private final boolean tcpNoDelay;
+    private final int socketSendBufferSize;
+    private final int socketReceiveBufferSize;
+    private final boolean epollEdgeTriggered;
 
     private DefaultWebPushConfig(final Builder builder) {
         host = builder.host;
@@ -43,14 +59,55 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
         endpointPort = builder.endpointPort <= 0 ? port : builder.endpointPort;
         cert = fileSystemOrClasspath(Objects.requireNonNull(builder.cert, "cert must not be null"));
         privateKey = fileSystemOrClasspath(Objects.requireNonNull(builder.privateKey, "privateKey must not be null"));
+        keyStore = builder.keyStore;
         endpointTls = builder.endpointTls;
         password = builder.password;
         subscriptionMaxAge = builder.subscriptionMaxAge;
+        if (builder.messageMaxAge < 0) {
+            throw new IllegalStateException("messageMaxAge cannot be negative");
+        }
         messageMaxAge = builder.messageMaxAge;
         if (builder.messageMaxSize < MESSAGE_MAX_SIZE_LOWER_BOUND) {
             throw new IllegalStateException("messageMaxSize cannot be set lower than " + MESSAGE_MAX_SIZE_LOWER_BOUND);
         }
         messageMaxSize = builder.messageMaxSize;
+        if (builder.tokenCacheMaxSize < 0 || builder.tokenCacheMaxAge < 0) {
+            throw new IllegalStateException("tokenCacheMaxSize and tokenCacheMaxAge cannot be negative");
+        }
+        tokenCacheMaxSize = builder.tokenCacheMaxSize;
+        tokenCacheMaxAge = builder.tokenCacheMaxAge;
+        if (builder.groupCommitMaxBatch < 0 || builder.groupCommitMaxLatency < 0) {
+            throw new IllegalStateException("groupCommitMaxBatch and groupCommitMaxLatency cannot be negative");
+        }
+        groupCommitMaxBatch = builder.groupCommitMaxBatch;
+        groupCommitMaxLatency = builder.groupCommitMaxLatency;
+        if (builder.flushMaxPendingMessages < 0 || builder.flushMaxPendingBytes < 0) {
+            throw new IllegalStateException("flushMaxPendingMessages and flushMaxPendingBytes cannot be negative");
+        }
+        flushMaxPendingMessages = builder.flushMaxPendingMessages;
+        flushMaxPendingBytes = builder.flushMaxPendingBytes;
+        if (builder.outboundQueueMaxBytes < 0) {
+            throw new IllegalStateException("outboundQueueMaxBytes cannot be negative");
+        }
+        outboundQueueMaxBytes = builder.outboundQueueMaxBytes;
+        if (builder.accessLogSampling < 0) {
+            throw new IllegalStateException("accessLogSampling cannot be negative");
+        }
+        accessLogSampling = builder.accessLogSampling;
+        transport = Objects.requireNonNull(builder.transport, "transport must not be null");
+        if (builder.transportAcceptors < 1) {
+            throw new IllegalStateException("transportAcceptors must be at least 1");
+        }
+        transportAcceptors = builder.transportAcceptors;
+        if (builder.socketBacklog < 0 || builder.socketSendBufferSize < 0 || builder.socketReceiveBufferSize < 0) {
+            throw new IllegalStateException(
+                    "socketBacklog, socketSendBufferSize and socketReceiveBufferSize cannot be negative");
+        }
+        socketBacklog = builder.socketBacklog;
+        tcpNoDelay = builder.tcpNoDelay;
+        socketSendBufferSize = builder.socketSendBufferSize;
+        socketReceiveBufferSize = builder.socketReceiveBufferSize;
+        epollEdgeTriggered = builder.epollEdgeTriggered;
     }
 
     private static File fileSystemOrClasspath(final File file) {
@@ -86,6 +143,11 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
         return privateKey;
     }
 
+    @Override
+    public File keyStore() {
+        return keyStore;
+    }
+
     @Override
     public boolean useEndpointTls() {
         return endpointTls;
@@ -116,18 +178,109 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
         return messageMaxSize;
     }
 
+    @Override
+    public long tokenCacheMaxSize() {
+        return tokenCacheMaxSize;
+    }
+
+    @Override
+    public long tokenCacheMaxAge() {
+        return tokenCacheMaxAge;
+    }
+
+    @Override
+    public int groupCommitMaxBatch() {
+        return groupCommitMaxBatch;
+    }
+
+    @Override
+    public long groupCommitMaxLatency() {
+        return groupCommitMaxLatency;
+    }
+
+    @Override
+    public int flushMaxPendingMessages() {
+        return flushMaxPendingMessages;
+    }
+
+    @Override
+    public long flushMaxPendingBytes() {
+        return flushMaxPendingBytes;
+    }
+
+    @Override
+    public long outboundQueueMaxBytes() {
+        return outboundQueueMaxBytes;
+    }
+
+    @Override
+    public int accessLogSampling() {
+        return accessLogSampling;
+    }
+
+    @Override
+    public String transport() {
+        return transport;
+    }
+
+    @Override
+    public int transportAcceptors() {
+        return transportAcceptors;
+    }
+
+    @Override
+    public int socketBacklog() {
+        return socketBacklog;
+    }
+
+    @Override
+    public boolean tcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    @Override
+    public int socketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    @Override
+    public int socketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    @Override
+    public boolean epollEdgeTriggered() {
+        return epollEdgeTriggered;
+    }
+
     @Override
     public String toString() {
         return new StringBuilder("WebPushConfig[host=").append(host)
                 .append(", port=").append(port)
                 .append(", cert=").append(cert)
                 .append(", privateKey=").append(privateKey)
+                .append(", keyStore=").append(keyStore)
                 .append(", endpointHost=").append(endpointHost)
                 .append(", endpointPort=").append(endpointPort)
                 .append(", endpointTls=").append(endpointTls)
                 .append(", subscriptionMaxAge=").append(subscriptionMaxAge)
                 .append(", messageMaxAge=").append(messageMaxAge)
                 .append(", messageMaxSize=").append(messageMaxSize)
+                .append(", tokenCacheMaxSize=").append(tokenCacheMaxSize)
+                .append(", tokenCacheMaxAge=").append(tokenCacheMaxAge)
+                .append(", groupCommitMaxBatch=").append(groupCommitMaxBatch)
+                .append(", groupCommitMaxLatency=").append(groupCommitMaxLatency)
+                .append(", flushMaxPendingMessages=").append(flushMaxPendingMessages)
+                .append(", flushMaxPendingBytes=").append(flushMaxPendingBytes)
+                .append(", outboundQueueMaxBytes=").append(outboundQueueMaxBytes)
+                .append(", accessLogSampling=").append(accessLogSampling)
+                .append(", transport=").append(transport)
+                .append(", transportAcceptors=").append(transportAcceptors)
+                .append(", socketBacklog=").append(socketBacklog)
+                .append(", tcpNoDelay=").append(tcpNoDelay)
+                .append(", socketSendBufferSize=").append(socketSendBufferSize)
+                .append(", socketReceiveBufferSize=").append(socketReceiveBufferSize)
+                .append(", epollEdgeTriggered=").append(epollEdgeTriggered)
                 .append("]").toString();
     }
 
@@ -145,12 +298,28 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
         private String password;
         private File cert;
         private File privateKey;
+        private File keyStore;
         private boolean endpointTls;
         private String endpointHost;
         private int endpointPort;
         private long subscriptionMaxAge = 604800000L;
         private long messageMaxAge = 0L;
         private long messageMaxSize = MESSAGE_MAX_SIZE_LOWER_BOUND;
+        private long tokenCacheMaxSize = 10000L;
+        private long tokenCacheMaxAge = 3600000L;
+        private int groupCommitMaxBatch = 256;
+        private long groupCommitMaxLatency = 0L;
+        private int flushMaxPendingMessages = 128;
+        private long flushMaxPendingBytes = 65536L;
+        private long outboundQueueMaxBytes = 262144L;
+        private int accessLogSampling = 100;
+        private String transport = "auto";
+        private int transportAcceptors = 1;
+        private int socketBacklog = 1024;
+        private boolean tcpNoDelay = true;
+        private int socketSendBufferSize;
+        private int socketReceiveBufferSize;
+        private boolean epollEdgeTriggered = true;
 
         public Builder host(final String host) {
             if (host != null) {
@@ -179,6 +348,11 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
             return this;
         }
 
+        public Builder keyStore(final String keyStore) {
+            this.keyStore = keyStore == null ? null : new File(keyStore);
+            return this;
+        }
+
         public Builder endpointTls(final boolean tls) {
             endpointTls = tls;
             return this;
@@ -209,6 +383,81 @@ public final class DefaultWebPushConfig implements WebPushServerConfig {
             return this;
         }
 
+        public Builder tokenCacheMaxSize(final long maxSize) {
+            this.tokenCacheMaxSize = maxSize;
+            return this;
+        }
+
+        public Builder tokenCacheMaxAge(final long maxAge) {
+            this.tokenCacheMaxAge = maxAge;
+            return this;
+        }
+
+        public Builder groupCommitMaxBatch(final int maxBatch) {
+            this.groupCommitMaxBatch = maxBatch;
+            return this;
+        }
+
+        public Builder groupCommitMaxLatency(final long maxLatency) {
+            this.groupCommitMaxLatency = maxLatency;
+            return this;
+        }
+
+        public Builder flushMaxPendingMessages(final int maxMessages) {
+            this.flushMaxPendingMessages = maxMessages;
+            return this;
+        }
+
+        public Builder flushMaxPendingBytes(final long maxBytes) {
+            this.flushMaxPendingBytes = maxBytes;
+            return this;
+        }
+
+        public Builder outboundQueueMaxBytes(final long maxBytes) {
+            this.outboundQueueMaxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder accessLogSampling(final int sampling) {
+            this.accessLogSampling = sampling;
+            return this;
+        }
+
+        public Builder transport(final String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder transportAcceptors(final int acceptors) {
+            this.transportAcceptors = acceptors;
+            return this;
+        }
+
+        public Builder socketBacklog(final int backlog) {
+            this.socketBacklog = backlog;
+            return this;
+        }
+
+        public Builder tcpNoDelay(final boolean noDelay) {
+            this.tcpNoDelay = noDelay;
+            return this;
+        }
+
+        public Builder socketSendBufferSize(final int size) {
+            this.socketSendBufferSize = size;
+            return this;
+        }
+
+        public Builder socketReceiveBufferSize(final int size) {
+            this.socketReceiveBufferSize = size;
+            return this;
+        }
+
+        public Builder epollEdgeTriggered(final boolean edgeTriggered) {
+            this.epollEdgeTriggered = edgeTriggered;
+            return this;
+        }
+
         public WebPushServerConfig build() {
             if (password == null) {
                 throw new IllegalStateException("No 'password' was configured!");
@@ -16,117 +16,172 @@
  */
 package org.jboss.aerogear.webpush;
 
+import io.netty.util.ReferenceCountUtil;
 import org.jboss.aerogear.crypto.Random;
+import org.jboss.aerogear.webpush.datastore.AsyncDataStore;
+import org.jboss.aerogear.webpush.datastore.AsyncDataStoreAdapter;
 import org.jboss.aerogear.webpush.datastore.DataStore;
 import org.jboss.aerogear.webpush.util.CryptoUtil;
+import org.jboss.aerogear.webpush.util.TokenCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-public class DefaultWebPushServer implements WebPushServer {
+public class DefaultWebPushServer implements WebPushServer, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultWebPushServer.class);
-    private final DataStore store;
+    private static final CompletionStage<Optional<Subscription>> NO_SUBSCRIPTION =
+            CompletableFuture.completedFuture(Optional.empty());
+    private static final CompletionStage<Optional<PushMessage>> NO_MESSAGE =
+            CompletableFuture.completedFuture(Optional.empty());
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    private static final int SWEEP_BATCH_SIZE = 1024;
+
+    private final AsyncDataStore store;
     private final WebPushServerConfig config;
-    private final byte[] privateKey;
+    private final TokenCodec tokenCodec;
+    private final TokenCache tokenCache;
+    private final GroupCommitter committer;
+    private final SubscriptionSweeper sweeper;
 
     /**
-     * Sole constructor.
+     * Creates a server whose store operations run on the calling thread, for stores that never block.
      *
      * @param store the {@link DataStore} that this server should use.
      * @param config the {@link WebPushServerConfig} for this server.
+     * @param privateKey the key used to encrypt and decrypt endpoint tokens.
      */
     public DefaultWebPushServer(final DataStore store, final WebPushServerConfig config, final byte[] privateKey) {
-        this.store = store;
+        this(store, null, config, privateKey);
+    }
+
+    /**
+     * Creates a server whose store operations run on the passed-in executor, for stores that may block.
+     *
+     * @param store the {@link DataStore} that this server should use.
+     * @param storeExecutor the {@link Executor} that runs the operations of the store, or {@code null} to run them
+     * on the calling thread.
+     * @param config the {@link WebPushServerConfig} for this server.
+     * @param privateKey the key used to encrypt and decrypt endpoint tokens.
+     */
+    public DefaultWebPushServer(final DataStore store,
+                                final Executor storeExecutor,
+                                final WebPushServerConfig config,
+                                final byte[] privateKey) {
+        this.store = new AsyncDataStoreAdapter(store, storeExecutor);
         this.config = config;
-        this.privateKey = privateKey;
+        this.tokenCodec = new TokenCodec(privateKey);
+        this.tokenCache = new TokenCache(config.tokenCacheMaxSize(), config.tokenCacheMaxAge());
+        this.committer = new GroupCommitter(store, config.groupCommitMaxBatch(), config.groupCommitMaxLatency());
+        // nobody will acknowledge the sent messages of a swept subscription, so the sweeper releases them.
+        this.sweeper = new SubscriptionSweeper(this.store,
+                id -> removeSubscription(id).thenAccept(sent -> sent.forEach(ReferenceCountUtil::release)),
+                SWEEP_BATCH_SIZE,
+                System::currentTimeMillis);
+        if (config.subscriptionMaxAge() > 0) {
+            sweeper.start(SWEEP_INTERVAL_MILLIS);
+        }
     }
 
     @Override
-    public Subscription subscribe() {
+    public CompletionStage<Subscription> subscribe() {
         final String id = UUID.randomUUID().toString();
         final String pushResourceId = UUID.randomUUID().toString();
-        final Subscription subscription = new DefaultSubscription(id, pushResourceId);
-        store.saveSubscription(subscription);
-        return subscription;
+        final long maxAge = config.subscriptionMaxAge();
+        final Subscription subscription = new DefaultSubscription(id,
+                pushResourceId,
+                generateEndpointToken(pushResourceId, id),
+                generateEndpointToken(id),
+                maxAge > 0 ? System.currentTimeMillis() + maxAge : Long.MAX_VALUE);
+        return store.saveSubscription(subscription).thenApply(v -> subscription);
     }
 
     @Override
-    public Optional<Subscription> subscriptionById(final String id) {
-        return store.subscription(id);
+    public CompletionStage<Optional<Subscription>> subscriptionById(final String id) {
+        return store.subscription(id).thenApply(DefaultWebPushServer::unlessExpired);
     }
 
     @Override
-    public Optional<Subscription> subscriptionByToken(final String subscriptionToken) {
+    public CompletionStage<Optional<Subscription>> subscriptionByToken(final String subscriptionToken) {
         try {
-            final String subId = CryptoUtil.decrypt(privateKey, subscriptionToken);
-            return subscriptionById(subId);
+            final String[] tokens = decryptToken(subscriptionToken);
+            return subscriptionById(tokens[0]);
         } catch (Exception e) {
             LOGGER.debug(e.getMessage(), e);
         }
-        return Optional.empty();
+        return NO_SUBSCRIPTION;
     }
 
     @Override
-    public Optional<Subscription> subscriptionByPushToken(final String pushToken) {
+    public CompletionStage<Optional<Subscription>> subscriptionByPushToken(final String pushToken) {
         try {
             final String[] tokens = decryptToken(pushToken);
-            final Optional<Subscription> subscription = store.subscription(tokens[1]);
-            if (subscription.isPresent()) {
-                final Subscription sub = subscription.get();
-                if (sub.pushResourceId().equals(tokens[0])) {
-                    return subscription;
-                }
-            }
+            return store.subscription(tokens[1]).thenApply(subscription ->
+                    unlessExpired(subscription).filter(s -> s.hasPushResourceId(tokens[0])));
         } catch (final Exception e) {
             LOGGER.debug(e.getMessage(), e);
         }
-        return Optional.empty();
+        return NO_SUBSCRIPTION;
     }
 
     @Override
-    public Optional<Subscription> subscriptionByReceiptToken(final String receiptToken) {
+    public CompletionStage<Optional<Subscription>> subscriptionByReceiptToken(final String receiptToken) {
         try {
             final String[] tokens = decryptToken(receiptToken);
-            return store.subscription(tokens[1]);
+            return store.subscription(tokens[1]).thenApply(DefaultWebPushServer::unlessExpired);
         } catch (final Exception e) {
             LOGGER.debug(e.getMessage(), e);
         }
-        return Optional.empty();
+        return NO_SUBSCRIPTION;
+    }
+
+    // an expired subscription stays in the store until the sweeper gets to it.
+    private static Optional<Subscription> unlessExpired(final Optional<Subscription> subscription) {
+        return subscription.filter(s -> s.expires() > System.currentTimeMillis());
     }
 
     @Override
-    public List<PushMessage> removeSubscription(final String id) {
-        return store.removeSubscription(id);
+    public CompletionStage<List<PushMessage>> removeSubscription(final String id) {
+        return store.removeSubscription(id).thenApply(sentMessages -> {
+            tokenCache.invalidate(id);
+            return sentMessages;
+        });
     }
 
     @Override
-    public void saveMessage(final PushMessage msg) {
-        store.saveMessage(msg);
+    public CompletionStage<Void> saveMessage(final PushMessage msg) {
+        return store.saveMessage(msg).thenCompose(v -> committer.commit());
     }
 
     @Override
-    public List<PushMessage> waitingDeliveryMessages(final String subId) {
+    public CompletionStage<List<PushMessage>> waitingDeliveryMessages(final String subId) {
         return store.waitingDeliveryMessages(subId);
     }
 
     @Override
-    public void saveSentMessage(final PushMessage msg) {
-        store.saveSentMessage(msg);
+    public CompletionStage<Void> saveSentMessage(final PushMessage msg) {
+        return store.saveSentMessage(msg).thenCompose(v -> committer.commit());
     }
 
     @Override
-    public Optional<PushMessage> sentMessage(final String pushMsgResource) {
+    public CompletionStage<Optional<PushMessage>> sentMessage(final String pushMsgResource) {
         try {
-            final String[] tokens = decryptToken(pushMsgResource);
+            // push message tokens are acknowledged only once, so caching them would only evict hot entries.
+            final String[] tokens = decryptUncachedToken(pushMsgResource);
             return store.sentMessage(tokens[1], tokens[0]);
         } catch (final Exception e) {
             LOGGER.debug(e.getMessage(), e);
         }
-        return Optional.empty();
+        return NO_MESSAGE;
     }
 
     @Override
@@ -134,28 +189,106 @@ public class DefaultWebPushServer implements WebPushServer {
         return config;
     }
 
+    /**
+     * Returns the cache of decrypted endpoint tokens used by this server.
+     *
+     * @return {@link TokenCache} the token cache, which exposes hit and miss counters.
+     */
+    public TokenCache tokenCache() {
+        return tokenCache;
+    }
+
+    /**
+     * Returns the sweeper that removes expired subscriptions.
+     *
+     * @return {@link SubscriptionSweeper} the sweeper, which counts the removed subscriptions.
+     */
+    public SubscriptionSweeper subscriptionSweeper() {
+        return sweeper;
+    }
+
+    /**
+     * Stops the background threads of this server, after making all pending writes durable.
+     */
+    @Override
+    public void close() {
+        sweeper.close();
+        committer.close();
+    }
+
+    /**
+     * Returns the group committer that makes message writes durable.
+     *
+     * @return {@link GroupCommitter} the group committer, which exposes commit and sync counters.
+     */
+    public GroupCommitter groupCommitter() {
+        return committer;
+    }
+
+    /**
+     * Returns the server's private key, deriving it from the password and the stored salt if needed.
+     *
+     * When a {@link WebPushServerConfig#keyStore() keystore} is configured and holds a key for the salt in use,
+     * that key is returned without running the key derivation. Otherwise the key is derived and written to the
+     * keystore for the next start.
+     *
+     * @param store the {@link DataStore} holding the private key salt.
+     * @param config the {@link WebPushServerConfig} for this server.
+     * @return {@code byte[]} the server's private key.
+     */
     public static byte[] generateAndStorePrivateKey(final DataStore store, final WebPushServerConfig config) {
+        final ServerKeyStore keyStore = config.keyStore() != null
+                ? new ServerKeyStore(config.keyStore(), config.password())
+                : null;
         byte[] keySalt = store.getPrivateKeySalt();
+        if (keyStore != null) {
+            final Optional<ServerKeyStore.Entry> entry = keyStore.load();
+            if (entry.isPresent() && (keySalt.length == 0 || Arrays.equals(keySalt, entry.get().salt()))) {
+                if (keySalt.length == 0) {
+                    store.savePrivateKeySalt(entry.get().salt());
+                }
+                LOGGER.info("Loaded server key from {}", keyStore.file());
+                return entry.get().key();
+            }
+        }
         if (keySalt.length == 0) {
             keySalt = new Random().randomBytes();
             store.savePrivateKeySalt(keySalt);
         }
-        return CryptoUtil.secretKey(config.password(), keySalt);
+        final long start = System.nanoTime();
+        final byte[] privateKey = CryptoUtil.secretKey(config.password(), keySalt);
+        LOGGER.info("Derived server key in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (keyStore != null) {
+            try {
+                keyStore.save(keySalt, privateKey);
+            } catch (final IOException e) {
+                LOGGER.warn("Could not save server key to " + keyStore.file(), e);
+            }
+        }
+        return privateKey;
     }
 
     private String[] decryptToken(final String token) throws Exception {
-        final String decrypt = CryptoUtil.decrypt(privateKey, token);
-        return decrypt.split(CryptoUtil.DELIMITER);
+        final String[] cached = tokenCache.get(token);
+        if (cached != null) {
+            return cached;
+        }
+        final String[] tokens = decryptUncachedToken(token);
+        tokenCache.put(token, tokens);
+        return tokens;
+    }
+
+    private String[] decryptUncachedToken(final String token) throws Exception {
+        return tokenCodec.decode(token);
     }
 
     @Override
     public String generateEndpointToken(final String value) {
-        return CryptoUtil.endpointToken(privateKey, value);
+        return tokenCodec.encode(value);
     }
 
     @Override
     public String generateEndpointToken(final String firstId, final String secondId) {
-        final String value = firstId + CryptoUtil.DELIMITER + secondId;
-        return CryptoUtil.endpointToken(privateKey, value);
+        return tokenCodec.encode(firstId, secondId);
     }
 }
@@ -0,0 +1,209 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.jboss.aerogear.webpush.datastore.DataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes the writes to a {@link DataStore} durable in groups.
+ *
+ * Writers apply their change to the store and then call {@link #commit()}, which returns a future that
+ * completes after the next {@link DataStore#sync()}. A single committer thread syncs on behalf of all writers
+ * that committed while the previous sync was running, so the cost of a sync is shared by the whole group.
+ * The committer can also wait up to {@code maxLatency} for a group to reach {@code maxBatch} writes, trading
+ * latency for fewer syncs when writes are sparse.
+ *
+ * With a {@code maxBatch} of {@code 0}, every commit syncs on the calling thread. Stores that are not
+ * {@link DataStore#isDurable() durable} are never synced, their commits complete immediately.
+ */
+public final class GroupCommitter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitter.class);
+    private static final CompletableFuture<Void> COMMITTED = CompletableFuture.completedFuture(null);
+
+    private final DataStore store;
+    private final int maxBatch;
+    private final long maxLatencyNanos;
+    private final BlockingQueue<CompletableFuture<Void>> pending = new LinkedBlockingQueue<>();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private Thread committer;
+    private volatile boolean closed;
+
+    /**
+     * Sole constructor.
+     *
+     * @param store the {@link DataStore} to sync.
+     * @param maxBatch the maximum number of commits covered by a single sync, {@code 0} disables grouping.
+     * @param maxLatency the maximum time in milliseconds to wait for more commits before syncing.
+     */
+    public GroupCommitter(final DataStore store, final int maxBatch, final long maxLatency) {
+        if (maxBatch < 0 || maxLatency < 0) {
+            throw new IllegalArgumentException("maxBatch and maxLatency must not be negative");
+        }
+        this.store = Objects.requireNonNull(store, "store must not be null");
+        this.maxBatch = maxBatch;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+    }
+
+    /**
+     * Requests that all changes made so far by the calling thread are made durable.
+     *
+     * @return {@link CompletableFuture} that completes once the changes are durable, or exceptionally if the
+     * store could not be synced.
+     */
+    public CompletableFuture<Void> commit() {
+        commits.increment();
+        if (!store.isDurable()) {
+            return COMMITTED;
+        }
+        if (maxBatch == 0 || closed) {
+            try {
+                sync();
+                return COMMITTED;
+            } catch (final RuntimeException e) {
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        startCommitter();
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        pending.add(committed);
+        if (closed) {
+            // the committer may have stopped before this commit was queued.
+            commit(drainPending());
+        }
+        return committed;
+    }
+
+    private synchronized void startCommitter() {
+        if (committer == null && !closed) {
+            committer = new Thread(this::run, "webpush-group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        }
+    }
+
+    /**
+     * Stops the committer thread after syncing all pending commits.
+     */
+    @Override
+    public void close() {
+        final Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = committer;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        commit(drainPending());
+    }
+
+    private void run() {
+        final List<CompletableFuture<Void>> batch = new ArrayList<>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(pending.take());
+                awaitBatch(batch);
+            } catch (final InterruptedException e) {
+                break;
+            }
+            commit(batch);
+            batch.clear();
+        }
+        pending.drainTo(batch);
+        commit(batch);
+    }
+
+    private List<CompletableFuture<Void>> drainPending() {
+        final List<CompletableFuture<Void>> batch = new ArrayList<>();
+        pending.drainTo(batch);
+        return batch;
+    }
+
+    private void commit(final List<CompletableFuture<Void>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sync();
+            batch.forEach(committed -> committed.complete(null));
+        } catch (final RuntimeException e) {
+            LOGGER.error("Could not sync " + store, e);
+            batch.forEach(committed -> committed.completeExceptionally(e));
+        }
+    }
+
+    private void awaitBatch(final List<CompletableFuture<Void>> batch) throws InterruptedException {
+        final long deadline = System.nanoTime() + maxLatencyNanos;
+        pending.drainTo(batch, maxBatch - batch.size());
+        while (batch.size() < maxBatch) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            final CompletableFuture<Void> next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            pending.drainTo(batch, maxBatch - batch.size());
+        }
+    }
+
+    private void sync() {
+        store.sync();
+        syncs.increment();
+    }
+
+    /**
+     * Returns the number of commits requested so far.
+     */
+    public long commits() {
+        return commits.sum();
+    }
+
+    /**
+     * Returns the number of times the store has been synced.
+     */
+    public long syncs() {
+        return syncs.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitter[maxBatch=" + maxBatch + ", commits=" + commits() + ", syncs=" + syncs() + "]";
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A PKCS12 keystore file that holds the server's private key salt and the key that was derived from it.
+ *
+ * Deriving the server key is deliberately slow, persisting the result lets a restarted server skip the
+ * derivation and guarantees that it keeps using the same salt, so that endpoint URLs issued before the
+ * restart stay valid. The keystore is protected by the server password, a keystore that can not be opened
+ * with the current password is treated as absent and will be replaced.
+ *
+ * The file holds the key that protects all endpoint tokens and must be guarded like the TLS private key.
+ */
+public final class ServerKeyStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerKeyStore.class);
+    private static final String TYPE = "PKCS12";
+    private static final String KEY_ALIAS = "webpush-server-key";
+    private static final String SALT_ALIAS = "webpush-server-key-salt";
+    // PKCS12 can only hold secret keys of a known algorithm, HMAC keys may be of any length.
+    private static final String SALT_ALGORITHM = "HmacSHA256";
+
+    private final File file;
+    private final char[] password;
+
+    /**
+     * Sole constructor.
+     *
+     * @param file the keystore file, which does not have to exist yet.
+     * @param password the password protecting the keystore.
+     */
+    public ServerKeyStore(final File file, final String password) {
+        this.file = Objects.requireNonNull(file, "file must not be null");
+        this.password = Objects.requireNonNull(password, "password must not be null").toCharArray();
+    }
+
+    /**
+     * Loads the salt and the server key from the keystore file.
+     *
+     * @return {@code Optional<Entry>} the stored salt and key, or an empty {@code Optional} if the file does not
+     * exist or can not be opened with the password.
+     */
+    public Optional<Entry> load() {
+        if (!file.exists()) {
+            return Optional.empty();
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            final KeyStore keyStore = KeyStore.getInstance(TYPE);
+            keyStore.load(in, password);
+            final Key salt = keyStore.getKey(SALT_ALIAS, password);
+            final Key key = keyStore.getKey(KEY_ALIAS, password);
+            if (salt == null || key == null) {
+                LOGGER.warn("Keystore {} does not contain a server key", file);
+                return Optional.empty();
+            }
+            return Optional.of(new Entry(salt.getEncoded(), key.getEncoded()));
+        } catch (final IOException | GeneralSecurityException e) {
+            LOGGER.warn("Could not load keystore {}: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the salt and the server key, replacing the keystore file atomically.
+     *
+     * @param salt the salt the key was derived with.
+     * @param key the derived server key.
+     * @throws IOException if the keystore file could not be written.
+     */
+    public void save(final byte[] salt, final byte[] key) throws IOException {
+        final Path target = file.toPath().toAbsolutePath();
+        final Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            }
+            final KeyStore keyStore = KeyStore.getInstance(TYPE);
+            keyStore.load(null, null);
+            final KeyStore.PasswordProtection protection = new KeyStore.PasswordProtection(password);
+            keyStore.setEntry(SALT_ALIAS, new KeyStore.SecretKeyEntry(new SecretKeySpec(salt, SALT_ALGORITHM)),
+                    protection);
+            keyStore.setEntry(KEY_ALIAS, new KeyStore.SecretKeyEntry(new SecretKeySpec(key, "AES")), protection);
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                keyStore.store(out, password);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException("Could not create keystore " + file, e);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * A salt together with the key that was derived from it.
+     */
+    public static final class Entry {
+
+        private final byte[] salt;
+        private final byte[] key;
+
+        Entry(final byte[] salt, final byte[] key) {
+            this.salt = salt;
+            this.key = key;
+        }
+
+        public byte[] salt() {
+            return salt;
+        }
+
+        public byte[] key() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.jboss.aerogear.webpush.datastore.AsyncDataStore;
+import org.jboss.aerogear.webpush.datastore.DataStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Removes expired subscriptions in the background.
+ *
+ * Lookups already treat an expired subscription as gone, the sweeper reclaims what the store holds for it. Each
+ * run asks the store for the expired subscriptions among the next {@code batchSize} it holds and removes them, so
+ * that a run takes a bounded amount of time however many subscriptions there are. Runs happen every
+ * {@code intervalMillis} on a thread of the sweeper, never on an event loop.
+ *
+ * See {@link DataStore#expiredSubscriptions(long, int)}.
+ */
+public final class SubscriptionSweeper implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionSweeper.class);
+
+    private final AsyncDataStore store;
+    private final Function<String, CompletionStage<?>> remover;
+    private final int batchSize;
+    private final LongSupplier clock;
+    private final LongAdder swept = new LongAdder();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Sole constructor.
+     *
+     * @param store the store holding the subscriptions.
+     * @param remover removes the subscription with the passed-in id.
+     * @param batchSize the maximum number of subscriptions examined by a single run.
+     * @param clock returns the current time in milliseconds since the epoch.
+     */
+    public SubscriptionSweeper(final AsyncDataStore store,
+                               final Function<String, CompletionStage<?>> remover,
+                               final int batchSize,
+                               final LongSupplier clock) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.store = Objects.requireNonNull(store, "store must not be null");
+        this.remover = Objects.requireNonNull(remover, "remover must not be null");
+        this.batchSize = batchSize;
+        this.clock = Objects.requireNonNull(clock, "clock must not be null");
+    }
+
+    /**
+     * Starts running the sweeper periodically.
+     *
+     * @param intervalMillis the delay between two runs in milliseconds.
+     */
+    public synchronized void start(final long intervalMillis) {
+        if (executor != null) {
+            throw new IllegalStateException("Sweeper has already been started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "webpush-subscription-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::runSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Examines the next batch of subscriptions and removes those that have expired.
+     *
+     * @return {@code int} the number of subscriptions that were removed.
+     */
+    public int run() {
+        final List<String> expired = store.expiredSubscriptions(clock.getAsLong(), batchSize)
+                .toCompletableFuture()
+                .join();
+        for (String id : expired) {
+            remover.apply(id).toCompletableFuture().join();
+        }
+        swept.add(expired.size());
+        return expired.size();
+    }
+
+    /**
+     * Returns the number of expired subscriptions that have been removed.
+     *
+     * @return {@code long} the number of removed subscriptions.
+     */
+    public long swept() {
+        return swept.sum();
+    }
+
+    /**
+     * Stops running the sweeper.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runSafely() {
+        try {
+            final int removed = run();
+            if (removed > 0) {
+                LOGGER.debug("Removed {} expired subscriptions", removed);
+            }
+        } catch (final RuntimeException e) {
+            // a failed run must not cancel the ones that follow.
+            LOGGER.warn("Could not remove expired subscriptions", e);
+        }
+    }
+}
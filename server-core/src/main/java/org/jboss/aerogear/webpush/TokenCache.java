@@ -0,0 +1,198 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, concurrent cache of decrypted endpoint tokens.
+ *
+ * Maps an endpoint token to the identifiers that were encrypted into it, so that repeated requests for the
+ * same endpoint do not have to decode and decrypt the token again. Entries are evicted in insertion order
+ * once {@code maxSize} is reached, and are treated as absent once they are older than {@code maxAge}.
+ *
+ * Lookups only read a concurrent map. Changes also link the entries into a list in insertion order, and into a
+ * list per subscription, under a lock that is held for a constant number of steps, or for as many as the
+ * subscription has tokens when it is invalidated.
+ */
+public final class TokenCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final long maxSize;
+    private final long maxAgeNanos;
+
+    // guarded by this: the list in insertion order, from the eldest entry, and the entries of each subscription.
+    private final Entry insertionOrder = new Entry(null, null);
+    private final Map<String, Entry> bySubscription = new HashMap<>();
+    private long live;
+
+    /**
+     * Sole constructor.
+     *
+     * @param maxSize the maximum number of tokens to hold, {@code 0} disables the cache.
+     * @param maxAge the maximum age of an entry in milliseconds, {@code 0} means entries never expire.
+     */
+    public TokenCache(final long maxSize, final long maxAge) {
+        if (maxSize < 0 || maxAge < 0) {
+            throw new IllegalArgumentException("maxSize and maxAge must not be negative");
+        }
+        this.maxSize = maxSize;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        insertionOrder.previous = insertionOrder;
+        insertionOrder.next = insertionOrder;
+    }
+
+    /**
+     * Returns the identifiers cached for the passed-in token.
+     *
+     * @param token the endpoint token.
+     * @return {@code String[]} the identifiers, or {@code null} if the token is not cached or has expired.
+     */
+    public String[] get(final String token) {
+        final Entry entry = entries.get(token);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (maxAgeNanos > 0 && System.nanoTime() - entry.created > maxAgeNanos) {
+            synchronized (this) {
+                remove(entry);
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.ids;
+    }
+
+    /**
+     * Caches the identifiers that were decrypted from the passed-in token.
+     *
+     * @param token the endpoint token.
+     * @param ids the identifiers, where the last identifier is always the subscription id.
+     */
+    public void put(final String token, final String[] ids) {
+        if (maxSize == 0) {
+            return;
+        }
+        final Entry entry = new Entry(token, ids);
+        synchronized (this) {
+            final Entry replaced = entries.put(token, entry);
+            if (replaced != null) {
+                unlink(replaced);
+            }
+            link(entry);
+            if (live > maxSize) {
+                remove(insertionOrder.next);
+            }
+        }
+    }
+
+    /**
+     * Removes all tokens that refer to the passed-in subscription.
+     *
+     * @param subscriptionId the id of the subscription that was removed.
+     */
+    public synchronized void invalidate(final String subscriptionId) {
+        Entry entry = bySubscription.get(subscriptionId);
+        while (entry != null) {
+            final Entry next = entry.nextOfSubscription;
+            remove(entry);
+            entry = next;
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCache[size=" + size() + ", hits=" + hits() + ", misses=" + misses() + "]";
+    }
+
+    // an entry is linked exactly while it is in the map, so removing it twice does nothing.
+    private void remove(final Entry entry) {
+        if (entries.remove(entry.token, entry)) {
+            unlink(entry);
+        }
+    }
+
+    private void link(final Entry entry) {
+        entry.previous = insertionOrder.previous;
+        entry.next = insertionOrder;
+        insertionOrder.previous.next = entry;
+        insertionOrder.previous = entry;
+        entry.nextOfSubscription = bySubscription.put(entry.subscription(), entry);
+        if (entry.nextOfSubscription != null) {
+            entry.nextOfSubscription.previousOfSubscription = entry;
+        }
+        live++;
+    }
+
+    private void unlink(final Entry entry) {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+        if (entry.previousOfSubscription != null) {
+            entry.previousOfSubscription.nextOfSubscription = entry.nextOfSubscription;
+        } else if (entry.nextOfSubscription != null) {
+            bySubscription.put(entry.subscription(), entry.nextOfSubscription);
+        } else {
+            bySubscription.remove(entry.subscription());
+        }
+        if (entry.nextOfSubscription != null) {
+            entry.nextOfSubscription.previousOfSubscription = entry.previousOfSubscription;
+        }
+        live--;
+    }
+
+    private static final class Entry {
+
+        private final String token;
+        private final String[] ids;
+        private final long created;
+        private Entry previous;
+        private Entry next;
+        private Entry previousOfSubscription;
+        private Entry nextOfSubscription;
+
+        Entry(final String token, final String[] ids) {
+            this.token = token;
+            this.ids = ids;
+            this.created = System.nanoTime();
+        }
+
+        String subscription() {
+            return ids[ids.length - 1];
+        }
+    }
+}
@@ -85,6 +85,10 @@ public class ConfigReader {
         if (privateKey != null) {
             builder.privateKey(privateKey.asText());
         }
+        final JsonNode keyStore = json.get("keystore");
+        if (keyStore != null) {
+            builder.keyStore(keyStore.asText());
+        }
         final JsonNode endpointHost = json.get("endpoint-host");
         if (endpointHost != null) {
             builder.endpointHost(endpointHost.asText());
@@ -101,6 +105,70 @@ public class ConfigReader {
         if (subscriptionMaxAge != null) {
             builder.subscriptionMaxAge(subscriptionMaxAge.asLong());
         }
+        final JsonNode messageMaxAge = json.get("message-max-age");
+        if (messageMaxAge != null) {
+            builder.messageMaxAge(messageMaxAge.asLong());
+        }
+        final JsonNode tokenCacheMaxSize = json.get("token-cache-max-size");
+        if (tokenCacheMaxSize != null) {
+            builder.tokenCacheMaxSize(tokenCacheMaxSize.asLong());
+        }
+        final JsonNode tokenCacheMaxAge = json.get("token-cache-max-age");
+        if (tokenCacheMaxAge != null) {
+            builder.tokenCacheMaxAge(tokenCacheMaxAge.asLong());
+        }
+        final JsonNode groupCommitMaxBatch = json.get("group-commit-max-batch");
+        if (groupCommitMaxBatch != null) {
+            builder.groupCommitMaxBatch(groupCommitMaxBatch.asInt());
+        }
+        final JsonNode groupCommitMaxLatency = json.get("group-commit-max-latency");
+        if (groupCommitMaxLatency != null) {
+            builder.groupCommitMaxLatency(groupCommitMaxLatency.asLong());
+        }
+        final JsonNode flushMaxPendingMessages = json.get("flush-max-pending-messages");
+        if (flushMaxPendingMessages != null) {
+            builder.flushMaxPendingMessages(flushMaxPendingMessages.asInt());
+        }
+        final JsonNode flushMaxPendingBytes = json.get("flush-max-pending-bytes");
+        if (flushMaxPendingBytes != null) {
+            builder.flushMaxPendingBytes(flushMaxPendingBytes.asLong());
+        }
+        final JsonNode outboundQueueMaxBytes = json.get("outbound-queue-max-bytes");
+        if (outboundQueueMaxBytes != null) {
+            builder.outboundQueueMaxBytes(outboundQueueMaxBytes.asLong());
+        }
+        final JsonNode accessLogSampling = json.get("access-log-sampling");
+        if (accessLogSampling != null) {
+            builder.accessLogSampling(accessLogSampling.asInt());
+        }
+        final JsonNode transport = json.get("transport");
+        if (transport != null) {
+            builder.transport(transport.asText());
+        }
+        final JsonNode transportAcceptors = json.get("transport-acceptors");
+        if (transportAcceptors != null) {
+            builder.transportAcceptors(transportAcceptors.asInt());
+        }
+        final JsonNode socketBacklog = json.get("socket-backlog");
+        if (socketBacklog != null) {
+            builder.socketBacklog(socketBacklog.asInt());
+        }
+        final JsonNode tcpNoDelay = json.get("tcp-no-delay");
+        if (tcpNoDelay != null) {
+            builder.tcpNoDelay(tcpNoDelay.asBoolean());
+        }
+        final JsonNode socketSendBufferSize = json.get("socket-send-buffer-size");
+        if (socketSendBufferSize != null) {
+            builder.socketSendBufferSize(socketSendBufferSize.asInt());
+        }
+        final JsonNode socketReceiveBufferSize = json.get("socket-receive-buffer-size");
+        if (socketReceiveBufferSize != null) {
+            builder.socketReceiveBufferSize(socketReceiveBufferSize.asInt());
+        }
+        final JsonNode epollEdgeTriggered = json.get("epoll-edge-triggered");
+        if (epollEdgeTriggered != null) {
+            builder.epollEdgeTriggered(epollEdgeTriggered.asBoolean());
+        }
         return builder.build();
     }
 
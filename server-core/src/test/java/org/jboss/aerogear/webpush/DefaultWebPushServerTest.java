@@ -18,18 +18,27 @@ package org.jboss.aerogear.webpush;
 
 import org.jboss.aerogear.webpush.datastore.DataStore;
 import org.jboss.aerogear.webpush.datastore.InMemoryDataStore;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
 public class DefaultWebPushServerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private DefaultWebPushServer server;
 
     @Before
@@ -43,34 +52,140 @@ public class DefaultWebPushServerTest {
         server = new DefaultWebPushServer(dataStore, config, privateKey);
     }
 
+    @After
+    public void close() {
+        server.close();
+    }
+
+    @Test
+    public void privateKeyIsReusedFromKeyStore() {
+        final WebPushServerConfig config = DefaultWebPushConfig.create().password("test")
+                .cert("/selfsigned.crt")
+                .privateKey("/demo.key")
+                .keyStore(new File(folder.getRoot(), "webpush.p12").getPath())
+                .build();
+        final DataStore firstStore = new InMemoryDataStore();
+        final byte[] privateKey = DefaultWebPushServer.generateAndStorePrivateKey(firstStore, config);
+        final DataStore secondStore = new InMemoryDataStore();
+        assertThat(DefaultWebPushServer.generateAndStorePrivateKey(secondStore, config), equalTo(privateKey));
+        assertThat(secondStore.getPrivateKeySalt(), equalTo(firstStore.getPrivateKeySalt()));
+    }
+
     @Test
     public void subscribe() {
-        final Subscription reg = server.subscribe();
+        final Subscription reg = join(server.subscribe());
         assertThat(reg.id(), is(notNullValue()));
     }
 
     @Test
     public void removeSubscription() throws Exception {
-        final Subscription newSubscription = server.subscribe();
-        final Optional<Subscription> subscription = server.subscriptionById(newSubscription.id());
+        final Subscription newSubscription = join(server.subscribe());
+        final Optional<Subscription> subscription = join(server.subscriptionById(newSubscription.id()));
         assertThat(subscription.isPresent(), equalTo(true));
         assertThat(subscription.get().id(), equalTo(newSubscription.id()));
-        server.removeSubscription(subscription.get().id());
-        assertThat(server.subscriptionById(newSubscription.id()).isPresent(), is(false));
+        join(server.removeSubscription(subscription.get().id()));
+        assertThat(join(server.subscriptionById(newSubscription.id())).isPresent(), is(false));
+    }
+
+    @Test
+    public void subscriptionByPushTokenIsCached() {
+        final Subscription subscription = join(server.subscribe());
+        final String pushToken = subscription.pushToken();
+        assertThat(join(server.subscriptionByPushToken(pushToken)).get().id(), equalTo(subscription.id()));
+        assertThat(join(server.subscriptionByPushToken(pushToken)).get().id(), equalTo(subscription.id()));
+        assertThat(server.tokenCache().hits(), is(1L));
+        assertThat(server.tokenCache().misses(), is(1L));
+        join(server.removeSubscription(subscription.id()));
+        assertThat(server.tokenCache().size(), is(0));
+        assertThat(join(server.subscriptionByPushToken(pushToken)).isPresent(), is(false));
     }
 
     @Test
     public void waitingDeliveryMessages() throws Exception {
-        final Subscription subscription = server.subscribe();
+        final Subscription subscription = join(server.subscribe());
         final String messageId = UUID.randomUUID().toString();
-        server.saveMessage(new DefaultPushMessage(messageId,
+        join(server.saveMessage(new DefaultPushMessage(messageId,
+                server.generateEndpointToken(messageId, subscription.id()),
                 subscription.id(),
                 Optional.empty(),
                 "testing",
-                Optional.of(0)));
-        final List<PushMessage> message = server.waitingDeliveryMessages(subscription.id());
+                Optional.of(60))));
+        final List<PushMessage> message = join(server.waitingDeliveryMessages(subscription.id()));
         assertThat(message.get(0).payload(), equalTo("testing"));
-        assertThat(message.get(0).ttl().get(), equalTo(0));
+        assertThat(message.get(0).ttl().get(), equalTo(60));
+    }
+
+    @Test
+    public void storeOperationsRunOnStoreExecutor() {
+        final DataStore dataStore = new InMemoryDataStore();
+        final AtomicInteger executed = new AtomicInteger();
+        final WebPushServerConfig config = DefaultWebPushConfig.create().password("test")
+                .cert("/selfsigned.crt")
+                .privateKey("/demo.key")
+                .build();
+        try (DefaultWebPushServer asyncServer = new DefaultWebPushServer(dataStore, command -> {
+            executed.incrementAndGet();
+            command.run();
+        }, config, DefaultWebPushServer.generateAndStorePrivateKey(dataStore, config))) {
+            final Subscription subscription = join(asyncServer.subscribe());
+            assertThat(join(asyncServer.subscriptionByPushToken(subscription.pushToken())).isPresent(), is(true));
+            assertThat(executed.get(), is(2));
+        }
+    }
+
+    @Test
+    public void expiredSubscriptionsAreGoneAndSwept() throws Exception {
+        final DataStore dataStore = new InMemoryDataStore();
+        final WebPushServerConfig config = DefaultWebPushConfig.create().password("test")
+                .cert("/selfsigned.crt")
+                .privateKey("/demo.key")
+                .subscriptionMaxAge(50)
+                .build();
+        try (DefaultWebPushServer expiringServer = new DefaultWebPushServer(dataStore, config,
+                DefaultWebPushServer.generateAndStorePrivateKey(dataStore, config))) {
+            final Subscription subscription = join(expiringServer.subscribe());
+            assertThat(join(expiringServer.subscriptionById(subscription.id())).isPresent(), is(true));
+            Thread.sleep(100);
+            assertThat(join(expiringServer.subscriptionById(subscription.id())).isPresent(), is(false));
+            assertThat(join(expiringServer.subscriptionByPushToken(subscription.pushToken())).isPresent(), is(false));
+            assertThat(dataStore.subscription(subscription.id()).isPresent(), is(true));
+
+            expiringServer.subscriptionSweeper().run();
+            assertThat(expiringServer.subscriptionSweeper().swept(), is(1L));
+            assertThat(dataStore.subscription(subscription.id()).isPresent(), is(false));
+        }
+    }
+
+    @Test
+    public void sweptSubscriptionsReleaseTheirSentMessages() throws Exception {
+        final DataStore dataStore = new InMemoryDataStore();
+        final WebPushServerConfig config = DefaultWebPushConfig.create().password("test")
+                .cert("/selfsigned.crt")
+                .privateKey("/demo.key")
+                .subscriptionMaxAge(50)
+                .build();
+        try (DefaultWebPushServer expiringServer = new DefaultWebPushServer(dataStore, config,
+                DefaultWebPushServer.generateAndStorePrivateKey(dataStore, config))) {
+            final Subscription subscription = join(expiringServer.subscribe());
+            final String messageId = UUID.randomUUID().toString();
+            final DefaultPushMessage message = new DefaultPushMessage(messageId,
+                    expiringServer.generateEndpointToken(messageId, subscription.id()),
+                    subscription.id(),
+                    Optional.of(subscription.receiptsToken()),
+                    "testing",
+                    Optional.of(60));
+            join(expiringServer.saveSentMessage(message));
+            message.release();
+            assertThat(message.refCnt(), is(1));
+            Thread.sleep(100);
+
+            expiringServer.subscriptionSweeper().run();
+            assertThat(message.refCnt(), is(0));
+        }
+    }
+
+    private static <T> T join(final CompletionStage<T> stage) {
+        return stage.toCompletableFuture().join();
     }
 
 }
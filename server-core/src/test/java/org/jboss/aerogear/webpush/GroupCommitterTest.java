@@ -0,0 +1,143 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.jboss.aerogear.webpush.datastore.InMemoryDataStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GroupCommitterTest {
+
+    @Test
+    public void syncsOnCallingThreadWhenGroupingIsDisabled() {
+        final CountingDataStore store = new CountingDataStore();
+        store.release.countDown();
+        final GroupCommitter committer = new GroupCommitter(store, 0, 0);
+        assertThat(committer.commit().isDone(), is(true));
+        assertThat(committer.commit().isDone(), is(true));
+        assertThat(committer.syncs(), is(2L));
+        assertThat(store.syncs, is(2));
+    }
+
+    @Test
+    public void groupsCommitsMadeDuringSync() throws Exception {
+        final CountingDataStore store = new CountingDataStore();
+        final GroupCommitter committer = new GroupCommitter(store, 256, 0);
+        final CompletableFuture<Void> first = committer.commit();
+        assertThat(store.syncing.await(10, TimeUnit.SECONDS), is(true));
+        final List<CompletableFuture<Void>> group = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            group.add(committer.commit());
+        }
+        assertThat(group.get(0).isDone(), is(false));
+        store.release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> committed : group) {
+            committed.get(10, TimeUnit.SECONDS);
+        }
+        assertThat(committer.commits(), is(11L));
+        assertThat(committer.syncs(), is(2L));
+        committer.close();
+    }
+
+    @Test
+    public void waitsForBatchUntilMaxLatency() throws Exception {
+        final CountingDataStore store = new CountingDataStore();
+        store.release.countDown();
+        final GroupCommitter committer = new GroupCommitter(store, 3, 10000);
+        final CompletableFuture<Void> first = committer.commit();
+        final CompletableFuture<Void> second = committer.commit();
+        assertThat(first.isDone(), is(false));
+        final CompletableFuture<Void> third = committer.commit();
+        CompletableFuture.allOf(first, second, third).get(10, TimeUnit.SECONDS);
+        assertThat(committer.syncs(), is(1L));
+        committer.close();
+    }
+
+    @Test
+    public void closeSyncsPendingCommits() throws Exception {
+        final CountingDataStore store = new CountingDataStore();
+        store.release.countDown();
+        final GroupCommitter committer = new GroupCommitter(store, 3, 10000);
+        final CompletableFuture<Void> pending = committer.commit();
+        committer.close();
+        assertThat(pending.isDone(), is(true));
+        assertThat(pending.isCompletedExceptionally(), is(false));
+        assertThat(committer.commit().isDone(), is(true));
+    }
+
+    @Test
+    public void doesNotSyncStoresThatAreNotDurable() {
+        final GroupCommitter committer = new GroupCommitter(new InMemoryDataStore(), 256, 0);
+        assertThat(committer.commit().isDone(), is(true));
+        assertThat(committer.commits(), is(1L));
+        assertThat(committer.syncs(), is(0L));
+    }
+
+    @Test (expected = ExecutionException.class)
+    public void failedSyncFailsCommit() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(new InMemoryDataStore() {
+            @Override
+            public void sync() {
+                throw new IllegalStateException("disk full");
+            }
+
+            @Override
+            public boolean isDurable() {
+                return true;
+            }
+        }, 256, 0);
+        try {
+            committer.commit().get(10, TimeUnit.SECONDS);
+        } finally {
+            committer.close();
+        }
+    }
+
+    private static class CountingDataStore extends InMemoryDataStore {
+
+        private final CountDownLatch syncing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile int syncs;
+
+        @Override
+        public void sync() {
+            syncing.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            syncs++;
+        }
+
+        @Override
+        public boolean isDurable() {
+            return true;
+        }
+    }
+
+}
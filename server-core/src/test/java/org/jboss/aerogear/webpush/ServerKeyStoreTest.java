@@ -0,0 +1,61 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ServerKeyStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        final File file = new File(folder.getRoot(), "webpush.p12");
+        final byte[] salt = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        final byte[] key = new byte[32];
+        key[0] = 42;
+        new ServerKeyStore(file, "password").save(salt, key);
+        final Optional<ServerKeyStore.Entry> entry = new ServerKeyStore(file, "password").load();
+        assertThat(entry.isPresent(), is(true));
+        assertThat(entry.get().salt(), equalTo(salt));
+        assertThat(entry.get().key(), equalTo(key));
+    }
+
+    @Test
+    public void loadMissingFile() {
+        assertThat(new ServerKeyStore(new File(folder.getRoot(), "missing.p12"), "password").load().isPresent(),
+                is(false));
+    }
+
+    @Test
+    public void loadWithOtherPassword() throws Exception {
+        final File file = new File(folder.getRoot(), "webpush.p12");
+        new ServerKeyStore(file, "password").save(new byte[16], new byte[32]);
+        assertThat(new ServerKeyStore(file, "changed").load().isPresent(), is(false));
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TokenCacheTest {
+
+    @Test
+    public void hitAndMiss() {
+        final TokenCache cache = new TokenCache(10, 0);
+        assertThat(cache.get("token"), is(nullValue()));
+        cache.put("token", new String[]{"resourceId", "subId"});
+        assertThat(cache.get("token"), equalTo(new String[]{"resourceId", "subId"}));
+        assertThat(cache.hits(), is(1L));
+        assertThat(cache.misses(), is(1L));
+    }
+
+    @Test
+    public void evictsEldestWhenFull() {
+        final TokenCache cache = new TokenCache(2, 0);
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId2"});
+        cache.put("token3", new String[]{"subId3"});
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("token1"), is(nullValue()));
+        assertThat(cache.get("token3"), equalTo(new String[]{"subId3"}));
+    }
+
+    @Test
+    public void expiresOldEntries() throws Exception {
+        final TokenCache cache = new TokenCache(10, 1);
+        cache.put("token", new String[]{"subId"});
+        Thread.sleep(5);
+        assertThat(cache.get("token"), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void invalidate() {
+        final TokenCache cache = new TokenCache(10, 0);
+        cache.put("pushToken", new String[]{"pushResourceId", "subId"});
+        cache.put("receiptsToken", new String[]{"subId"});
+        cache.put("otherToken", new String[]{"pushResourceId", "otherSubId"});
+        cache.invalidate("subId");
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get("otherToken"), equalTo(new String[]{"pushResourceId", "otherSubId"}));
+    }
+
+    @Test
+    public void reputAfterExpiryIsNotEvictedByStaleSlot() throws Exception {
+        final TokenCache cache = new TokenCache(2, 1);
+        cache.put("token1", new String[]{"subId1"});
+        Thread.sleep(5);
+        assertThat(cache.get("token1"), is(nullValue()));
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId2"});
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void invalidatedEntriesDoNotCountTowardsMaxSize() {
+        final TokenCache cache = new TokenCache(2, 0);
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId2"});
+        cache.invalidate("subId1");
+        cache.invalidate("subId2");
+        cache.put("token3", new String[]{"subId3"});
+        cache.put("token4", new String[]{"subId4"});
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("token3"), equalTo(new String[]{"subId3"}));
+        assertThat(cache.get("token4"), equalTo(new String[]{"subId4"}));
+    }
+
+    @Test
+    public void replacedTokensMoveToTheirNewSubscription() {
+        final TokenCache cache = new TokenCache(10, 0);
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId1"});
+        cache.put("token3", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId2"});
+        cache.invalidate("subId1");
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get("token2"), equalTo(new String[]{"subId2"}));
+        cache.invalidate("subId2");
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void evictionKeepsInsertionOrderAfterReplace() {
+        final TokenCache cache = new TokenCache(2, 0);
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token2", new String[]{"subId2"});
+        cache.put("token1", new String[]{"subId1"});
+        cache.put("token3", new String[]{"subId3"});
+        assertThat(cache.get("token2"), is(nullValue()));
+        assertThat(cache.get("token1"), equalTo(new String[]{"subId1"}));
+        cache.invalidate("subId2");
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void disabled() {
+        final TokenCache cache = new TokenCache(0, 0);
+        cache.put("token", new String[]{"subId"});
+        assertThat(cache.get("token"), is(nullValue()));
+    }
+
+}
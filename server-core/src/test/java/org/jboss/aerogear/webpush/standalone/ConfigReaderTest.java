@@ -72,7 +72,55 @@ public class ConfigReaderTest {
 
     @Test
     public void messageMaxAge() {
-        assertThat(webPushServerConfig.messageMaxAge(), is(0L));
+        assertThat(webPushServerConfig.messageMaxAge(), is(86400000L));
+    }
+
+    @Test
+    public void tokenCache() {
+        assertThat(webPushServerConfig.tokenCacheMaxSize(), is(500L));
+        assertThat(webPushServerConfig.tokenCacheMaxAge(), is(60000L));
+    }
+
+    @Test
+    public void groupCommit() {
+        assertThat(webPushServerConfig.groupCommitMaxBatch(), is(64));
+        assertThat(webPushServerConfig.groupCommitMaxLatency(), is(5L));
+    }
+
+    @Test
+    public void flushMaxPending() {
+        assertThat(webPushServerConfig.flushMaxPendingMessages(), is(32));
+        assertThat(webPushServerConfig.flushMaxPendingBytes(), is(16384L));
+    }
+
+    @Test
+    public void outboundQueueMaxBytes() {
+        assertThat(webPushServerConfig.outboundQueueMaxBytes(), is(131072L));
+    }
+
+    @Test
+    public void accessLogSampling() {
+        assertThat(webPushServerConfig.accessLogSampling(), is(10));
+    }
+
+    @Test
+    public void transport() {
+        assertThat(webPushServerConfig.transport(), equalTo("nio"));
+        assertThat(webPushServerConfig.transportAcceptors(), is(2));
+        assertThat(webPushServerConfig.epollEdgeTriggered(), is(false));
+    }
+
+    @Test
+    public void socketOptions() {
+        assertThat(webPushServerConfig.socketBacklog(), is(512));
+        assertThat(webPushServerConfig.tcpNoDelay(), is(false));
+        assertThat(webPushServerConfig.socketSendBufferSize(), is(32768));
+        assertThat(webPushServerConfig.socketReceiveBufferSize(), is(16384));
+    }
+
+    @Test
+    public void keyStore() {
+        assertThat(webPushServerConfig.keyStore().getName(), equalTo("webpush-keystore.p12"));
     }
 
     @Test
@@ -0,0 +1,351 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http2.DecoratingHttp2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2FrameListenerDecorator;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Stream;
+import org.jboss.aerogear.webpush.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A sampled access log with one record per stream, holding its method, resource, status, bytes and latency.
+ *
+ * The event loops never format or write a record themselves. A finished record is put in a bounded ring buffer
+ * and written by a background thread to the {@code org.jboss.aerogear.webpush.access} logger. When the buffer is
+ * full the record is dropped and counted instead of holding up the event loop. Payloads are never logged.
+ */
+final class AccessLog implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("org.jboss.aerogear.webpush.access");
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int sampling;
+    private final AtomicReferenceArray<Record> records;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Consumer<Record> writer;
+    private volatile Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * @param sampling the number of streams per record, {@code 0} disables the access log.
+     */
+    AccessLog(final int sampling) {
+        this(sampling, DEFAULT_CAPACITY, AccessLog::write);
+    }
+
+    /**
+     * @param sampling the number of streams per record, {@code 0} disables the access log.
+     * @param capacity the number of records that may wait to be written, rounded up to the next power of two.
+     * @param writer writes a record, called by a single thread at a time.
+     */
+    AccessLog(final int sampling, final int capacity, final Consumer<Record> writer) {
+        final int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.sampling = sampling;
+        this.records = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.writer = writer;
+    }
+
+    boolean enabled() {
+        return sampling > 0;
+    }
+
+    /**
+     * Starts the thread that writes the records, unless the access log is disabled.
+     */
+    void start() {
+        if (enabled()) {
+            final Thread writerThread = new Thread(this::run, "webpush-access-log");
+            writerThread.setDaemon(true);
+            thread = writerThread;
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread once it has written the records that are waiting.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Thread writerThread = thread;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because the buffer was full.
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns a recorder for the streams of a connection.
+     */
+    Recorder recorder(final Http2Connection connection) {
+        return new Recorder(connection);
+    }
+
+    boolean sample() {
+        return sampling == 1 || sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) == 0;
+    }
+
+    /**
+     * Adds a finished record to the buffer, or drops it if the buffer is full.
+     *
+     * @return {@code true} if the record will be written.
+     */
+    boolean offer(final Record record) {
+        for (;;) {
+            final long index = head.get();
+            if (index - tail.get() > mask) {
+                dropped.increment();
+                return false;
+            }
+            if (head.compareAndSet(index, index + 1)) {
+                records.lazySet((int) index & mask, record);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Writes the records that are waiting, from the single writer thread.
+     *
+     * @return the number of records written.
+     */
+    int drain() {
+        int written = 0;
+        for (;;) {
+            final long index = tail.get();
+            final int slot = (int) index & mask;
+            final Record record = records.get(slot);
+            if (record == null) {
+                return written;
+            }
+            records.lazySet(slot, null);
+            tail.lazySet(index + 1);
+            try {
+                writer.accept(record);
+            } catch (final RuntimeException e) {
+                LOGGER.warn("Could not write access log record", e);
+            }
+            written++;
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        drain();
+    }
+
+    private static void write(final Record record) {
+        LOGGER.info("method={} resource={} status={} bytesIn={} bytesOut={} latencyMicros={}",
+                record.method, record.resource, record.status, record.bytesIn, record.bytesOut,
+                record.latencyMicros());
+    }
+
+    /**
+     * The access log record of a stream. It is only modified by the event loop of its connection, until it is
+     * handed over to the writer thread when the stream closes.
+     */
+    static final class Record {
+        final CharSequence method;
+        final Resource resource;
+        final long start;
+        CharSequence status;
+        long bytesIn;
+        long bytesOut;
+        long end;
+
+        Record(final CharSequence method, final Resource resource, final long start) {
+            this.method = method;
+            this.resource = resource;
+            this.start = start;
+        }
+
+        long latencyMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(end - start);
+        }
+    }
+
+    /**
+     * Keeps the records of the sampled streams of one connection. The requests are seen by the frame listener
+     * returned from {@link #listener(Http2FrameListener)} and the responses by the encoder returned from
+     * {@link #encoder(Http2ConnectionEncoder)}. A record is finished when its stream closes.
+     */
+    final class Recorder {
+        private final Http2Connection connection;
+        private final Http2Connection.PropertyKey recordKey;
+
+        private Recorder(final Http2Connection connection) {
+            this.connection = connection;
+            this.recordKey = connection.newKey();
+            connection.addListener(new Http2ConnectionAdapter() {
+                @Override
+                public void onStreamClosed(final Http2Stream stream) {
+                    final Record record = stream.removeProperty(recordKey);
+                    if (record != null) {
+                        record.end = System.nanoTime();
+                        offer(record);
+                    }
+                }
+            });
+        }
+
+        Http2FrameListener listener(final Http2FrameListener listener) {
+            return new Http2FrameListenerDecorator(listener) {
+                @Override
+                public void onHeadersRead(final ChannelHandlerContext ctx,
+                                          final int streamId,
+                                          final Http2Headers headers,
+                                          final int padding,
+                                          final boolean endStream) throws Http2Exception {
+                    start(streamId, headers);
+                    super.onHeadersRead(ctx, streamId, headers, padding, endStream);
+                }
+
+                @Override
+                public void onHeadersRead(final ChannelHandlerContext ctx,
+                                          final int streamId,
+                                          final Http2Headers headers,
+                                          final int streamDependency,
+                                          final short weight,
+                                          final boolean exclusive,
+                                          final int padding,
+                                          final boolean endStream) throws Http2Exception {
+                    start(streamId, headers);
+                    super.onHeadersRead(ctx, streamId, headers, streamDependency, weight, exclusive, padding,
+                            endStream);
+                }
+
+                @Override
+                public int onDataRead(final ChannelHandlerContext ctx,
+                                      final int streamId,
+                                      final ByteBuf data,
+                                      final int padding,
+                                      final boolean endOfStream) throws Http2Exception {
+                    final Record record = record(streamId);
+                    if (record != null) {
+                        record.bytesIn += data.readableBytes();
+                    }
+                    return super.onDataRead(ctx, streamId, data, padding, endOfStream);
+                }
+            };
+        }
+
+        Http2ConnectionEncoder encoder(final Http2ConnectionEncoder encoder) {
+            return new DecoratingHttp2ConnectionEncoder(encoder) {
+                @Override
+                public ChannelFuture writeHeaders(final ChannelHandlerContext ctx,
+                                                  final int streamId,
+                                                  final Http2Headers headers,
+                                                  final int padding,
+                                                  final boolean endStream,
+                                                  final ChannelPromise promise) {
+                    status(streamId, headers);
+                    return super.writeHeaders(ctx, streamId, headers, padding, endStream, promise);
+                }
+
+                @Override
+                public ChannelFuture writeHeaders(final ChannelHandlerContext ctx,
+                                                  final int streamId,
+                                                  final Http2Headers headers,
+                                                  final int streamDependency,
+                                                  final short weight,
+                                                  final boolean exclusive,
+                                                  final int padding,
+                                                  final boolean endStream,
+                                                  final ChannelPromise promise) {
+                    status(streamId, headers);
+                    return super.writeHeaders(ctx, streamId, headers, streamDependency, weight, exclusive, padding,
+                            endStream, promise);
+                }
+
+                @Override
+                public ChannelFuture writeData(final ChannelHandlerContext ctx,
+                                               final int streamId,
+                                               final ByteBuf data,
+                                               final int padding,
+                                               final boolean endStream,
+                                               final ChannelPromise promise) {
+                    final Record record = record(streamId);
+                    if (record != null) {
+                        record.bytesOut += data.readableBytes();
+                    }
+                    return super.writeData(ctx, streamId, data, padding, endStream, promise);
+                }
+            };
+        }
+
+        private void start(final int streamId, final Http2Headers headers) {
+            final Http2Stream stream = connection.stream(streamId);
+            if (stream != null && sample()) {
+                final CharSequence path = headers.path();
+                final Resource resource = path == null ? null : WebPushRouter.resource(path);
+                stream.setProperty(recordKey, new Record(headers.method(), resource, System.nanoTime()));
+            }
+        }
+
+        private void status(final int streamId, final Http2Headers headers) {
+            final Record record = record(streamId);
+            if (record != null && headers.status() != null) {
+                record.status = headers.status();
+            }
+        }
+
+        private Record record(final int streamId) {
+            final Http2Stream stream = connection.stream(streamId);
+            return stream == null ? null : stream.getProperty(recordKey);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the flushes of the messages that are written to a single connected user agent.
+ *
+ * Rather than flushing after every push promise, writes are counted and flushed together: at the end of a
+ * drained batch, as soon as the pending messages or bytes reach their limit, or at the latest by a task that runs
+ * once the event loop has finished its current tick.
+ *
+ * An instance is confined to the event loop of the channel it writes to.
+ */
+final class CoalescingFlusher implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingFlusher.class);
+
+    private final ChannelHandlerContext ctx;
+    private final Http2ConnectionEncoder encoder;
+    private final int maxPendingMessages;
+    private final long maxPendingBytes;
+
+    private int pendingMessages;
+    private long pendingBytes;
+    private boolean scheduled;
+    private long flushes;
+
+    CoalescingFlusher(final ChannelHandlerContext ctx,
+                      final Http2ConnectionEncoder encoder,
+                      final int maxPendingMessages,
+                      final long maxPendingBytes) {
+        this.ctx = ctx;
+        this.encoder = encoder;
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Records a message that has been written but not flushed, flushing right away if a limit has been reached.
+     *
+     * @param bytes the number of payload bytes that were written.
+     */
+    void written(final int bytes) {
+        pendingMessages++;
+        pendingBytes += bytes;
+        if (pendingMessages >= maxPendingMessages || pendingBytes >= maxPendingBytes) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            ctx.executor().execute(this);
+        }
+    }
+
+    /**
+     * Flushes whatever has been written so far, including frames held back by the flow controller.
+     */
+    void flush() {
+        try {
+            encoder.flowController().writePendingBytes();
+        } catch (final Http2Exception e) {
+            LOGGER.error("Could not write pending bytes", e);
+        }
+        ctx.flush();
+        pendingMessages = 0;
+        pendingBytes = 0;
+        flushes++;
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        if (pendingMessages > 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns the number of flushes that have been issued.
+     */
+    long flushes() {
+        return flushes;
+    }
+
+}
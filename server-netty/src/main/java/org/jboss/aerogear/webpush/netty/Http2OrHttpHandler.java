@@ -29,10 +29,14 @@ import org.jboss.aerogear.webpush.WebPushServer;
 class Http2OrHttpHandler extends ApplicationProtocolNegotiationHandler {
 
     private final WebPushServer webPushServer;
+    private final Subscribers subscribers;
+    private final AccessLog accessLog;
 
-    Http2OrHttpHandler(final WebPushServer webPushServer) {
+    Http2OrHttpHandler(final WebPushServer webPushServer, final Subscribers subscribers, final AccessLog accessLog) {
         super(ApplicationProtocolNames.HTTP_1_1);
         this.webPushServer = webPushServer;
+        this.subscribers = subscribers;
+        this.accessLog = accessLog;
     }
 
     @Override
@@ -40,6 +44,8 @@ class Http2OrHttpHandler extends ApplicationProtocolNegotiationHandler {
         if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
             ctx.pipeline().addLast(new WebPushHttp2HandlerBuilder()
                     .webPushServer(webPushServer)
+                    .subscribers(subscribers)
+                    .accessLog(accessLog)
                     .build());
             return;
         }
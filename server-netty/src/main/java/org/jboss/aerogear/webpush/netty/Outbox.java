@@ -0,0 +1,332 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Hands push messages over to the event loop of the user agent's channel that they are delivered to.
+ *
+ * Messages may be offered from any thread. They are queued and written in batches by a single task on the
+ * channel's own event loop, followed by one flush, so that the channel and its encoder are only ever touched by
+ * the thread that owns them. Writing pauses while the channel is not writable and resumes once it is.
+ *
+ * The outbox is bounded by the payload bytes it has accepted but that have not been written to the channel yet,
+ * which includes the bytes held back by the HTTP/2 flow controller. Messages beyond the bound, and those still
+ * queued when the outbox is closed, are passed on to a fallback that stores them. Once everything accepted has
+ * been written, the outbox takes the stored messages back. Until then the messages offered are stored behind
+ * them, so that the user agent receives messages in the order they were offered. Messages with a TTL of zero
+ * may not be stored and are dropped instead.
+ */
+final class Outbox implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Outbox.class);
+    private static final CompletionStage<Void> DROPPED = CompletableFuture.completedFuture(null);
+    // set in the spill state once the store may hold messages of this outbox.
+    private static final int STORED = 1 << 30;
+    // set in the spill state while the stored messages are being taken back.
+    private static final int REFILLING = 1 << 29;
+
+    private final ChannelHandlerContext ctx;
+    private final CoalescingFlusher flusher;
+    private final BiFunction<PushMessage, ChannelPromise, CompletionStage<Void>> writer;
+    private final Function<PushMessage, CompletionStage<Void>> fallback;
+    private final Supplier<CompletionStage<List<PushMessage>>> refill;
+    private final long maxQueuedBytes;
+    private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    // the number of messages being handed to the fallback, with the STORED and REFILLING flags.
+    private final AtomicInteger spill = new AtomicInteger();
+    private final LongAdder spilledMessages = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param ctx the context of the user agent's channel.
+     * @param flusher the flusher of the user agent's stream.
+     * @param writer writes a message to the user agent and completes the promise once its payload has been
+     * written to the channel. Called on the channel's event loop only.
+     * @param fallback takes over the messages that are not written.
+     * @param refill takes the messages taken over by the fallback back from it, handing over their references.
+     * Called on the channel's event loop.
+     * @param maxQueuedBytes the maximum number of payload bytes accepted but not yet written.
+     */
+    Outbox(final ChannelHandlerContext ctx,
+           final CoalescingFlusher flusher,
+           final BiFunction<PushMessage, ChannelPromise, CompletionStage<Void>> writer,
+           final Function<PushMessage, CompletionStage<Void>> fallback,
+           final Supplier<CompletionStage<List<PushMessage>>> refill,
+           final long maxQueuedBytes) {
+        this.ctx = ctx;
+        this.flusher = flusher;
+        this.writer = writer;
+        this.fallback = fallback;
+        this.refill = refill;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Delivers a message to the user agent.
+     *
+     * @param message the message, which stays owned by the caller.
+     * @return {@code CompletionStage} which completes once the message has been handed to the user agent's
+     * encoder, taken over by the fallback, or dropped.
+     */
+    CompletionStage<Void> offer(final PushMessage message) {
+        if (closed) {
+            return store(message);
+        }
+        if (spill.get() != 0 && !expiresAtOnce(message)) {
+            // messages that were stored before this one are delivered first.
+            return spill(message);
+        }
+        final int bytes = message.content().readableBytes();
+        final long queued = queuedBytes.addAndGet(bytes);
+        if (queued > maxQueuedBytes && queued != bytes) {
+            queuedBytes.addAndGet(-bytes);
+            return spill(message);
+        }
+        if (ctx.executor().inEventLoop() && deliveries.isEmpty() && ctx.channel().isWritable()) {
+            return write(message, bytes);
+        }
+        ReferenceCountUtil.retain(message);
+        final Delivery delivery = new Delivery(message, bytes);
+        deliveries.add(delivery);
+        if (closed) {
+            // lost the race with close(), which may have drained the queue already.
+            drainToFallback();
+        } else if (scheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this);
+        }
+        return delivery.delivered;
+    }
+
+    /**
+     * Queues messages that were taken back from the store behind those already queued, regardless of the bound,
+     * as they are held in memory already. Must be called on the channel's event loop.
+     *
+     * @param messages the messages, whose references are handed over to the outbox.
+     */
+    void requeue(final List<PushMessage> messages) {
+        for (PushMessage message : messages) {
+            final int bytes = message.content().readableBytes();
+            queuedBytes.addAndGet(bytes);
+            deliveries.add(new Delivery(message, bytes));
+        }
+        if (closed) {
+            drainToFallback();
+        } else {
+            run();
+        }
+    }
+
+    /**
+     * Writes the queued messages, until the queue is empty or the channel is no longer writable.
+     */
+    @Override
+    public void run() {
+        scheduled.set(false);
+        if (closed) {
+            drainToFallback();
+            return;
+        }
+        int written = 0;
+        while (ctx.channel().isWritable()) {
+            final Delivery delivery = deliveries.poll();
+            if (delivery == null) {
+                break;
+            }
+            delivery.handOver(m -> write(m, delivery.bytes));
+            written++;
+        }
+        if (written > 0) {
+            flusher.flush();
+        }
+    }
+
+    /**
+     * Resumes writing after the channel has become writable again. Must be called on the channel's event loop.
+     */
+    void writabilityChanged() {
+        if (ctx.channel().isWritable() && !deliveries.isEmpty()) {
+            run();
+        }
+    }
+
+    /**
+     * Stops writing to the user agent, and hands the queued messages over to the fallback.
+     */
+    void close() {
+        closed = true;
+        drainToFallback();
+    }
+
+    /**
+     * Returns the number of payload bytes that have been accepted but not written to the channel yet.
+     */
+    long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Returns the number of messages that were passed on to the fallback because the outbox was full.
+     */
+    long spilledMessages() {
+        return spilledMessages.sum();
+    }
+
+    /**
+     * Returns {@code true} if messages were passed on to the fallback and have not been taken back yet.
+     */
+    boolean spilled() {
+        return spill.get() != 0;
+    }
+
+    private CompletionStage<Void> write(final PushMessage message, final int bytes) {
+        final ChannelPromise written = ctx.newPromise();
+        written.addListener(f -> {
+            if (queuedBytes.addAndGet(-bytes) == 0) {
+                refillIfStored();
+            }
+        });
+        return writer.apply(message, written);
+    }
+
+    private CompletionStage<Void> store(final PushMessage message) {
+        return expiresAtOnce(message) ? DROPPED : fallback.apply(message);
+    }
+
+    private CompletionStage<Void> spill(final PushMessage message) {
+        if (expiresAtOnce(message)) {
+            return DROPPED;
+        }
+        spilledMessages.increment();
+        spill.incrementAndGet();
+        final CompletionStage<Void> stored = fallback.apply(message);
+        // only once the message can be found in the store may it be asked for again.
+        stored.whenComplete((v, e) -> {
+            spill.updateAndGet(state -> (state - 1) | STORED);
+            if (queuedBytes.get() == 0) {
+                refillIfStored();
+            }
+        });
+        return stored;
+    }
+
+    private void refillIfStored() {
+        if (!closed && spill.compareAndSet(STORED, STORED | REFILLING)) {
+            if (ctx.executor().inEventLoop()) {
+                refill();
+            } else {
+                ctx.executor().execute(this::refill);
+            }
+        }
+    }
+
+    private void refill() {
+        refill.get().whenComplete((messages, e) -> {
+            if (ctx.executor().inEventLoop()) {
+                refilled(messages, e);
+            } else {
+                ctx.executor().execute(() -> refilled(messages, e));
+            }
+        });
+    }
+
+    private void refilled(final List<PushMessage> messages, final Throwable e) {
+        if (e != null) {
+            // the messages stay stored, and are asked for again once the next one is written or stored.
+            LOGGER.error("Could not take stored messages back", e);
+            spill.updateAndGet(state -> state & ~REFILLING);
+        } else if (messages.isEmpty()) {
+            if (!spill.compareAndSet(STORED | REFILLING, 0)) {
+                // messages are being stored meanwhile, and may have asked for a refill that was not started.
+                spill.updateAndGet(state -> state & ~REFILLING);
+                if (queuedBytes.get() == 0) {
+                    refillIfStored();
+                }
+            }
+        } else {
+            // cleared first, as writing the messages may ask for the next refill already.
+            spill.updateAndGet(state -> state & ~REFILLING);
+            requeue(messages);
+        }
+    }
+
+    private void drainToFallback() {
+        Delivery delivery;
+        while ((delivery = deliveries.poll()) != null) {
+            queuedBytes.addAndGet(-delivery.bytes);
+            delivery.handOver(this::store);
+        }
+    }
+
+    // a message that may not be kept is only delivered to a UA that can take it right now.
+    private static boolean expiresAtOnce(final PushMessage message) {
+        return message.ttl().isPresent() && message.ttl().get() == 0;
+    }
+
+    private static final class Delivery {
+
+        private final PushMessage message;
+        private final int bytes;
+        private final CompletableFuture<Void> delivered = new CompletableFuture<>();
+
+        Delivery(final PushMessage message, final int bytes) {
+            this.message = message;
+            this.bytes = bytes;
+        }
+
+        void handOver(final Function<PushMessage, CompletionStage<Void>> target) {
+            final CompletionStage<Void> stage;
+            try {
+                stage = target.apply(message);
+            } catch (final RuntimeException e) {
+                ReferenceCountUtil.release(message);
+                delivered.completeExceptionally(e);
+                return;
+            }
+            stage.whenComplete((v, e) -> {
+                ReferenceCountUtil.release(message);
+                if (e != null) {
+                    delivered.completeExceptionally(e);
+                } else {
+                    delivered.complete(v);
+                }
+            });
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersEncoder.SensitivityDetector;
+import io.netty.util.AsciiString;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_EXPOSE_HEADERS;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
+import static io.netty.handler.codec.http.HttpResponseStatus.GONE;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.NO_CONTENT;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.ALLOW_ORIGIN_ANY;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.CACHE_CONTROL_PRIVATE;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.CONTENT_TYPE_VALUE;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_CACHE_CONTROL_CONTENT_TYPE_CONTENT_LENGTH;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_LINK_CACHE_CONTROL_LOCATION;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_LOCATION;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.LINK_HEADER;
+
+/**
+ * The headers of the responses and push promises that the server sends.
+ *
+ * The headers that never change, such as the status and the CORS headers of an error, are built once and shared
+ * by every response. They are only ever read by the HTTP/2 encoder and must not be modified. Responses that carry
+ * a location or a content length start from a copy of such a template, which saves converting and validating the
+ * shared values again.
+ *
+ * {@link #SENSITIVITY_DETECTOR} keeps the values that differ from response to response out of the HPACK dynamic
+ * table, so that the shared values stay in it and are sent as a single index.
+ */
+final class ResponseHeaders {
+
+    /**
+     * Marks the headers whose values are unique to a response, which are then never added to the HPACK dynamic
+     * table where they would evict the values that repeat.
+     */
+    static final SensitivityDetector SENSITIVITY_DETECTOR = (name, value) ->
+            AsciiString.contentEqualsIgnoreCase(LOCATION, name)
+                    || AsciiString.contentEqualsIgnoreCase(LINK_HEADER, name)
+                    || AsciiString.contentEqualsIgnoreCase(CONTENT_LENGTH, name)
+                    || AsciiString.contentEquals(Http2Headers.PseudoHeaderName.PATH.value(), name);
+
+    private static final AsciiString GET = new AsciiString("GET");
+
+    private static final Http2Headers NO_CONTENT_HEADERS = status(NO_CONTENT);
+    private static final Http2Headers NOT_FOUND_HEADERS = status(NOT_FOUND);
+    private static final Http2Headers GONE_HEADERS = status(GONE);  //FIXME add date
+    private static final Http2Headers BAD_REQUEST_HEADERS = status(BAD_REQUEST);
+    private static final Http2Headers INTERNAL_SERVER_ERROR_HEADERS = status(INTERNAL_SERVER_ERROR);
+    private static final Http2Headers REQUEST_ENTITY_TOO_LARGE_HEADERS = status(REQUEST_ENTITY_TOO_LARGE);
+    private static final Http2Headers CREATED_HEADERS = status(CREATED)
+            .set(ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSE_HEADERS_LOCATION);
+    private static final Http2Headers SUBSCRIPTION_HEADERS = status(CREATED)
+            .set(ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSE_HEADERS_LINK_CACHE_CONTROL_LOCATION);
+    //TODO add "last-modified" headers
+    private static final Http2Headers MONITOR_HEADERS = status(OK)
+            .set(ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSE_HEADERS_CACHE_CONTROL_CONTENT_TYPE_CONTENT_LENGTH)
+            .set(CACHE_CONTROL, CACHE_CONTROL_PRIVATE)
+            .set(CONTENT_TYPE, CONTENT_TYPE_VALUE);
+
+    private ResponseHeaders() {
+    }
+
+    static Http2Headers noContent() {
+        return NO_CONTENT_HEADERS;
+    }
+
+    static Http2Headers notFound() {
+        return NOT_FOUND_HEADERS;
+    }
+
+    static Http2Headers gone() {
+        return GONE_HEADERS;
+    }
+
+    static Http2Headers badRequest() {
+        return BAD_REQUEST_HEADERS;
+    }
+
+    static Http2Headers internalServerError() {
+        return INTERNAL_SERVER_ERROR_HEADERS;
+    }
+
+    static Http2Headers requestEntityTooLarge() {
+        return REQUEST_ENTITY_TOO_LARGE_HEADERS;
+    }
+
+    /**
+     * Returns the headers of a newly created resource, which may be modified.
+     */
+    static Http2Headers created(final AsciiString location) {
+        return copy(CREATED_HEADERS, 1).set(LOCATION, location);
+    }
+
+    /**
+     * Returns the headers of a newly created subscription, which may be modified.
+     */
+    static Http2Headers subscriptionCreated(final AsciiString location) {
+        return copy(SUBSCRIPTION_HEADERS, 3).set(LOCATION, location);
+    }
+
+    /**
+     * Returns the headers of a push message sent to a user agent.
+     */
+    static Http2Headers monitor(final int contentLength) {
+        return copy(MONITOR_HEADERS, 1).setInt(CONTENT_LENGTH, contentLength);
+    }
+
+    /**
+     * Returns the headers of the request promised to a user agent for a push message.
+     */
+    static Http2Headers pushPromise(final AsciiString authority, final AsciiString path) {
+        return new DefaultHttp2Headers(false, 3)
+                .method(GET)
+                .path(path)
+                .authority(authority);
+    }
+
+    private static Http2Headers status(final HttpResponseStatus status) {
+        return new DefaultHttp2Headers()
+                .status(status.codeAsText())
+                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);
+    }
+
+    private static Http2Headers copy(final Http2Headers template, final int extra) {
+        // the names of a template have been validated when it was built.
+        final Http2Headers headers = new DefaultHttp2Headers(false, template.size() + extra);
+        headers.add(template);
+        return headers;
+    }
+}
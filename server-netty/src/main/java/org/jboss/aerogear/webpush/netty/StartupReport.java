@@ -0,0 +1,58 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the phases of the server startup took.
+ *
+ * Phases may be recorded from different threads, as some of them run in parallel.
+ */
+final class StartupReport {
+
+    private final long start = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    /**
+     * Records a phase that started at the passed-in time and ended now.
+     *
+     * @param phase the name of the phase.
+     * @param phaseStart the value of {@link System#nanoTime()} when the phase started.
+     */
+    synchronized void record(final String phase, final long phaseStart) {
+        phases.put(phase, System.nanoTime() - phaseStart);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder("Startup took ").append(millis(System.nanoTime() - start))
+                .append("ms [");
+        String separator = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            sb.append(separator).append(phase.getKey()).append('=').append(millis(phase.getValue())).append("ms");
+            separator = ", ";
+        }
+        return sb.append(']').toString();
+    }
+
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the clients that are waiting for the messages of a subscription, or for the receipts of a
+ * receipt subscription. A subscription may have any number of clients.
+ *
+ * The ids are spread over a number of independent shards, so that registrations from different connections
+ * rarely touch the same map. The clients of an id are kept in an array that is copied on every change and
+ * never modified once published, which makes a lookup a single lock-free read.
+ *
+ * @param <C> the type of the clients.
+ */
+final class SubscriberRegistry<C> {
+
+    private final ConcurrentHashMap<String, Object[]>[] shards;
+    private final int mask;
+
+    /**
+     * @param shards the number of shards, which is rounded up to the next power of two.
+     */
+    @SuppressWarnings("unchecked")
+    SubscriberRegistry(final int shards) {
+        final int size = shards <= 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+        this.shards = new ConcurrentHashMap[size];
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new ConcurrentHashMap<>();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a client of an id.
+     */
+    void register(final String id, final C client) {
+        shard(id).merge(id, new Object[] {client}, (current, added) -> {
+            final Object[] clients = Arrays.copyOf(current, current.length + 1);
+            clients[current.length] = client;
+            return clients;
+        });
+    }
+
+    /**
+     * Removes a single client of an id.
+     *
+     * @return {@code true} if the client had been registered.
+     */
+    boolean unregister(final String id, final C client) {
+        final boolean[] removed = new boolean[1];
+        shard(id).computeIfPresent(id, (key, current) -> {
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == client) {
+                    removed[0] = true;
+                    if (current.length == 1) {
+                        return null;
+                    }
+                    final Object[] clients = new Object[current.length - 1];
+                    System.arraycopy(current, 0, clients, 0, i);
+                    System.arraycopy(current, i + 1, clients, i, clients.length - i);
+                    return clients;
+                }
+            }
+            return current;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Removes all the clients of an id.
+     *
+     * @return {@code List} the clients that were removed.
+     */
+    List<C> unregisterAll(final String id) {
+        return asList(shard(id).remove(id));
+    }
+
+    /**
+     * Returns the clients of an id.
+     *
+     * @return {@code List} the clients, which is a snapshot that does not change.
+     */
+    List<C> get(final String id) {
+        return asList(shard(id).get(id));
+    }
+
+    /**
+     * Removes the clients of all ids.
+     *
+     * @return {@code List} the clients that were removed.
+     */
+    List<C> clear() {
+        final List<C> clients = new ArrayList<>();
+        for (ConcurrentHashMap<String, Object[]> shard : shards) {
+            for (String id : shard.keySet()) {
+                clients.addAll(unregisterAll(id));
+            }
+        }
+        return clients;
+    }
+
+    /**
+     * Returns the number of ids that have clients.
+     */
+    int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Object[]> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private ConcurrentHashMap<String, Object[]> shard(final String id) {
+        final int h = id.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<C> asList(final Object[] clients) {
+        if (clients == null) {
+            return Collections.emptyList();
+        }
+        return (List<C>) Collections.unmodifiableList(Arrays.asList(clients));
+    }
+
+}
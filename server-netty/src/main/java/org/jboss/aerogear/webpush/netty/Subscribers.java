@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import org.jboss.aerogear.webpush.netty.WebPushFrameListener.Client;
+
+/**
+ * The clients that are connected to a server and waiting for push messages or receipts, shared by all of its
+ * connections.
+ */
+final class Subscribers {
+
+    private final SubscriberRegistry<Client> monitors;
+    private final SubscriberRegistry<Client> receipts;
+
+    /**
+     * @param shards the number of shards of each registry, usually the number of event loops.
+     */
+    Subscribers(final int shards) {
+        monitors = new SubscriberRegistry<>(shards);
+        receipts = new SubscriberRegistry<>(shards);
+    }
+
+    /**
+     * Returns the user agents waiting for push messages, by subscription id.
+     */
+    SubscriberRegistry<Client> monitors() {
+        return monitors;
+    }
+
+    /**
+     * Returns the application servers waiting for receipts, by receipt subscription token.
+     */
+    SubscriberRegistry<Client> receipts() {
+        return receipts;
+    }
+
+    /**
+     * Closes the connections of all clients.
+     */
+    void shutdown() {
+        monitors.clear().forEach(Client::close);
+        receipts.clear().forEach(Client::close);
+    }
+
+}
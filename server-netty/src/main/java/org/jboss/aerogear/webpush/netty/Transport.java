@@ -0,0 +1,163 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.jboss.aerogear.webpush.WebPushServerConfig;
+
+import java.util.Locale;
+
+/**
+ * The network transports that the server can run on.
+ *
+ * The native transports are looked up by name, so that their jars only have to be on the classpath of the
+ * platforms that they support, and {@link #AUTO} picks the best one that can be loaded there. With a native
+ * transport several server sockets may accept connections on the same port using {@code SO_REUSEPORT}.
+ */
+enum Transport {
+
+    NIO(null, null, null, null),
+    EPOLL("io.netty.channel.epoll.Epoll",
+            "io.netty.channel.epoll.EpollEventLoopGroup",
+            "io.netty.channel.epoll.EpollServerSocketChannel",
+            "io.netty.channel.epoll.EpollChannelOption"),
+    IO_URING("io.netty.incubator.channel.uring.IOUring",
+            "io.netty.incubator.channel.uring.IOUringEventLoopGroup",
+            "io.netty.incubator.channel.uring.IOUringServerSocketChannel",
+            "io.netty.incubator.channel.uring.IOUringChannelOption"),
+    AUTO(null, null, null, null);
+
+    private static final String EPOLL_MODE = "io.netty.channel.epoll.EpollMode";
+
+    private final String availability;
+    private final String eventLoopGroup;
+    private final String serverChannel;
+    private final String channelOption;
+
+    Transport(final String availability,
+              final String eventLoopGroup,
+              final String serverChannel,
+              final String channelOption) {
+        this.availability = availability;
+        this.eventLoopGroup = eventLoopGroup;
+        this.serverChannel = serverChannel;
+        this.channelOption = channelOption;
+    }
+
+    /**
+     * Returns the transport of a configuration, resolving {@code auto} to the best one that is available.
+     *
+     * @throws IllegalArgumentException if the name is not that of a transport.
+     * @throws IllegalStateException if the transport cannot be used on this platform.
+     */
+    static Transport of(final WebPushServerConfig config) {
+        final Transport transport = valueOf(config.transport().toUpperCase(Locale.ROOT));
+        if (transport == AUTO) {
+            return IO_URING.isAvailable() ? IO_URING : EPOLL.isAvailable() ? EPOLL : NIO;
+        }
+        if (!transport.isAvailable()) {
+            throw new IllegalStateException(transport + " transport is not available", transport.unavailabilityCause());
+        }
+        return transport;
+    }
+
+    boolean isAvailable() {
+        return unavailabilityCause() == null;
+    }
+
+    private Throwable unavailabilityCause() {
+        if (availability == null) {
+            return null;
+        }
+        try {
+            final Class<?> type = Class.forName(availability);
+            if ((Boolean) type.getMethod("isAvailable").invoke(null)) {
+                return null;
+            }
+            return (Throwable) type.getMethod("unavailabilityCause").invoke(null);
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            return e;
+        }
+    }
+
+    MultithreadEventLoopGroup newEventLoopGroup(final int threads) {
+        if (this == NIO) {
+            return new NioEventLoopGroup(threads);
+        }
+        try {
+            return (MultithreadEventLoopGroup) Class.forName(eventLoopGroup).getConstructor(int.class)
+                    .newInstance(threads);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create " + this + " event loop group", e);
+        }
+    }
+
+    /**
+     * Sets the server channel and the socket options of a configuration on a bootstrap.
+     *
+     * @throws IllegalStateException if several acceptors are configured for a transport without
+     *         {@code SO_REUSEPORT}.
+     */
+    @SuppressWarnings("unchecked")
+    void configure(final ServerBootstrap bootstrap, final WebPushServerConfig config) {
+        if (this == NIO) {
+            if (config.transportAcceptors() > 1) {
+                throw new IllegalStateException("transportAcceptors requires a native transport");
+            }
+            bootstrap.channel(NioServerSocketChannel.class);
+        } else {
+            try {
+                bootstrap.channel((Class<? extends ServerChannel>) Class.forName(serverChannel));
+                if (config.transportAcceptors() > 1) {
+                    bootstrap.option(option("SO_REUSEPORT"), true);
+                }
+                if (this == EPOLL) {
+                    final Class<? extends Enum> modes = (Class<? extends Enum>) Class.forName(EPOLL_MODE);
+                    final Object mode = Enum.valueOf(modes,
+                            config.epollEdgeTriggered() ? "EDGE_TRIGGERED" : "LEVEL_TRIGGERED");
+                    bootstrap.option(option("EPOLL_MODE"), mode);
+                    bootstrap.childOption(option("EPOLL_MODE"), mode);
+                }
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not configure " + this + " transport", e);
+            }
+        }
+        bootstrap.option(ChannelOption.SO_BACKLOG, config.socketBacklog())
+                .childOption(ChannelOption.TCP_NODELAY, config.tcpNoDelay());
+        if (config.socketSendBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, config.socketSendBufferSize());
+        }
+        if (config.socketReceiveBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, config.socketReceiveBufferSize());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ChannelOption<Object> option(final String name) throws ReflectiveOperationException {
+        return (ChannelOption<Object>) Class.forName(channelOption).getField(name).get(null);
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -24,47 +24,59 @@ import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
 import io.netty.handler.codec.http2.Http2CodecUtil;
 import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
 import io.netty.handler.ssl.SslContext;
-import org.jboss.aerogear.webpush.DefaultWebPushServer;
 import org.jboss.aerogear.webpush.WebPushServer;
-import org.jboss.aerogear.webpush.WebPushServerConfig;
-import org.jboss.aerogear.webpush.datastore.DataStore;
+
+import java.util.concurrent.CompletableFuture;
 
 import static io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
 
 class WebPushChannelInitializer extends ChannelInitializer<SocketChannel> {
 
     private final SslContext sslCtx;
-    private final DataStore dataStore;
-    private final WebPushServerConfig config;
-    private final byte[] privateKey;
+    private final CompletableFuture<? extends WebPushServer> webPushServer;
+    private final Subscribers subscribers;
+    private final AccessLog accessLog;
 
+    /**
+     * Sole constructor.
+     *
+     * @param sslCtx the {@link SslContext} to use, or {@code null} for clear text connections.
+     * @param webPushServer the {@link WebPushServer} shared by all channels, which must have been completed before
+     *                      the server channel accepts connections.
+     * @param subscribers the {@link Subscribers} shared by all channels.
+     * @param accessLog the {@link AccessLog} shared by all channels.
+     */
     WebPushChannelInitializer(final SslContext sslCtx,
-                                     final DataStore dataStore,
-                                     final WebPushServerConfig config) {
+                              final CompletableFuture<? extends WebPushServer> webPushServer,
+                              final Subscribers subscribers,
+                              final AccessLog accessLog) {
         this.sslCtx = sslCtx;
-        this.dataStore = dataStore;
-        this.config = config;
-        privateKey = DefaultWebPushServer.generateAndStorePrivateKey(dataStore, config);
+        this.webPushServer = webPushServer;
+        this.subscribers = subscribers;
+        this.accessLog = accessLog;
     }
 
     @Override
     public void initChannel(final SocketChannel ch) {
-        final WebPushServer webPushServer = new DefaultWebPushServer(dataStore, config, privateKey);
         if (sslCtx != null) {
-            configureSsl(ch, webPushServer);
+            configureSsl(ch, webPushServer.join());
         } else {
-            configureClearText(ch, webPushServer);
+            configureClearText(ch, webPushServer.join(), subscribers, accessLog);
         }
     }
 
     private void configureSsl(final SocketChannel ch, final WebPushServer webPushServer) {
-        ch.pipeline().addLast(sslCtx.newHandler(ch.alloc()), new Http2OrHttpHandler(webPushServer));
+        ch.pipeline().addLast(sslCtx.newHandler(ch.alloc()), new Http2OrHttpHandler(webPushServer, subscribers,
+                accessLog));
     }
 
-    private static void configureClearText(final SocketChannel ch, final WebPushServer webPushServer) {
+    private static void configureClearText(final SocketChannel ch,
+                                           final WebPushServer webPushServer,
+                                           final Subscribers subscribers,
+                                           final AccessLog accessLog) {
         final HttpServerCodec sourceCodec = new HttpServerCodec();
-        final HttpServerUpgradeHandler upgradeHandler =
-                new HttpServerUpgradeHandler(sourceCodec, new WebPushCodecFactory(webPushServer), 65536);
+        final HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec,
+                new WebPushCodecFactory(webPushServer, subscribers, accessLog), 65536);
         ch.pipeline().addLast(sourceCodec);
         ch.pipeline().addLast(upgradeHandler);
     }
@@ -72,9 +84,15 @@ class WebPushChannelInitializer extends ChannelInitializer<SocketChannel> {
     private static class WebPushCodecFactory implements UpgradeCodecFactory {
 
         private final WebPushServer webPushServer;
+        private final Subscribers subscribers;
+        private final AccessLog accessLog;
 
-        WebPushCodecFactory(final WebPushServer webPushServer) {
+        WebPushCodecFactory(final WebPushServer webPushServer,
+                            final Subscribers subscribers,
+                            final AccessLog accessLog) {
             this.webPushServer = webPushServer;
+            this.subscribers = subscribers;
+            this.accessLog = accessLog;
         }
 
         @Override
@@ -82,6 +100,8 @@ class WebPushChannelInitializer extends ChannelInitializer<SocketChannel> {
             if (Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME.equals(protocol)) {
                 return new Http2ServerUpgradeCodec(new WebPushHttp2HandlerBuilder()
                         .webPushServer(webPushServer)
+                        .subscribers(subscribers)
+                        .accessLog(accessLog)
                         .build());
             } else {
                 return null;
@@ -17,16 +17,19 @@
 package org.jboss.aerogear.webpush.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Error;
 import io.netty.handler.codec.http2.Http2Exception;
 import io.netty.handler.codec.http2.Http2FrameAdapter;
 import io.netty.handler.codec.http2.Http2Headers;
 import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.util.AsciiString;
-import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import org.jboss.aerogear.webpush.DefaultPushMessage;
 import org.jboss.aerogear.webpush.PushMessage;
@@ -34,37 +37,26 @@ import org.jboss.aerogear.webpush.Resource;
 import org.jboss.aerogear.webpush.Subscription;
 import org.jboss.aerogear.webpush.WebLink;
 import org.jboss.aerogear.webpush.WebPushServer;
+import org.jboss.aerogear.webpush.WebPushServerConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import static io.netty.buffer.Unpooled.EMPTY_BUFFER;
 import static io.netty.buffer.Unpooled.copiedBuffer;
-import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
-import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_EXPOSE_HEADERS;
 import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
-import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
-import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
-import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
-import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
-import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
-import static io.netty.handler.codec.http.HttpResponseStatus.GONE;
-import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
-import static io.netty.handler.codec.http.HttpResponseStatus.NO_CONTENT;
-import static io.netty.handler.codec.http.HttpResponseStatus.OK;
-import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
 import static io.netty.util.CharsetUtil.UTF_8;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.ALLOW_ORIGIN_ANY;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.CACHE_CONTROL_PRIVATE;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.CONTENT_TYPE_VALUE;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_CACHE_CONTROL_CONTENT_TYPE_CONTENT_LENGTH;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_LINK_CACHE_CONTROL_LOCATION;
-import static org.jboss.aerogear.webpush.util.HttpHeaders.EXPOSE_HEADERS_LOCATION;
 import static org.jboss.aerogear.webpush.util.HttpHeaders.LINK_HEADER;
 import static org.jboss.aerogear.webpush.util.HttpHeaders.PREFER_HEADER;
 import static org.jboss.aerogear.webpush.util.HttpHeaders.PUSH_RECEIPT_HEADER;
@@ -74,20 +66,16 @@ class WebPushFrameListener extends Http2FrameAdapter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WebPushFrameListener.class);
 
-    private static final String WEBPUSH_URI = "/webpush/";
-
-    private static final String GET = "GET";
-    private static final String POST = "POST";
-    private static final String DELETE = "DELETE";
-    private static final AsciiString GET_ASCII = new AsciiString(GET);
-
-    private static final AttributeKey<String> SUBSCRIPTION_ID = AttributeKey.valueOf("SUBSCRIPTION_ID");
-    private static final AttributeKey<String> RECEIPT_SUBSCRIPTION_ID = AttributeKey.valueOf("RECEIPT_SUBSCRIPTION_ID");
-
-    private static final ConcurrentHashMap<String, Client> monitoredStreams = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, Client> acksStreams = new ConcurrentHashMap<>();
+    private static final CompletionStage<Void> STORED = CompletableFuture.completedFuture(null);
+    private static final CompletionStage<List<PushMessage>> NO_MESSAGES =
+            CompletableFuture.completedFuture(Collections.emptyList());
+    private static final CompletionStage<Optional<Subscription>> NO_SUBSCRIPTION =
+            CompletableFuture.completedFuture(Optional.empty());
 
     private final WebPushServer webpushServer;
+    private final Subscribers subscribers;
+    // the clients of this connection, only touched by its event loop.
+    private final List<Registration> registrations = new ArrayList<>();
     private final AsciiString authority;
     private final AsciiString subscriptionMaxAge;
 
@@ -96,17 +84,29 @@ class WebPushFrameListener extends Http2FrameAdapter {
     private Http2Connection.PropertyKey resourcePropertyKey;
     private Http2Connection.PropertyKey pushReceiptPropertyKey;
     private Http2Connection.PropertyKey ttlPropertyKey;
+    private Http2Connection.PropertyKey bodyPropertyKey;
 
-    WebPushFrameListener(final WebPushServer webpushServer, final Http2ConnectionEncoder encoder) {
+    WebPushFrameListener(final WebPushServer webpushServer,
+                         final Subscribers subscribers,
+                         final Http2ConnectionEncoder encoder) {
         this.webpushServer = Objects.requireNonNull(webpushServer, "webpushServer must not be null");
+        this.subscribers = Objects.requireNonNull(subscribers, "subscribers must not be null");
         this.authority = new AsciiString(webpushServer.config().host() + ":" + webpushServer.config().port());
-        this.subscriptionMaxAge = new AsciiString("private, max-age=" + webpushServer.config().subscriptionMaxAge());
+        this.subscriptionMaxAge = cacheControl(webpushServer.config().subscriptionMaxAge());
         this.encoder = encoder;
         final Http2Connection connection = encoder.connection();
         pathPropertyKey = connection.newKey();
         resourcePropertyKey = connection.newKey();
         pushReceiptPropertyKey = connection.newKey();
         ttlPropertyKey = connection.newKey();
+        bodyPropertyKey = connection.newKey();
+        connection.addListener(new Http2ConnectionAdapter() {
+            @Override
+            public void onStreamClosed(final Http2Stream stream) {
+                // a body that never saw the end of its stream is dropped with it.
+                ReferenceCountUtil.release(stream.removeProperty(bodyPropertyKey));
+            }
+        });
     }
 
     @Override
@@ -118,22 +118,24 @@ class WebPushFrameListener extends Http2FrameAdapter {
                               final boolean exclusive,
                               final int padding,
                               final boolean endStream) throws Http2Exception {
-        final String path = headers.path().toString();
-        final String method = headers.method().toString();
-        LOGGER.info("onHeadersRead. streamId={}, method={}, path={}, endstream={}", streamId, method, path, endStream);
-
-        final Resource resource = getResource(path);
+        final CharSequence path = headers.path();
+        final WebPushRouter.Method route = WebPushRouter.method(headers.method());
+        final Resource resource = WebPushRouter.resource(path);
+        if (route == null || resource == null) {
+            encoder.writeHeaders(ctx, streamId, ResponseHeaders.notFound(), 0, true, ctx.newPromise());
+            return;
+        }
         final Http2Stream stream = encoder.connection().stream(streamId);
         stream.setProperty(pathPropertyKey, path);
         stream.setProperty(resourcePropertyKey, resource);
-        switch (method) {
+        switch (route) {
             case GET:
                 switch (resource) {
                     case SUBSCRIPTION:
-                        handleReceivingPushMessages(ctx, streamId, headers, path);
+                        handleReceivingPushMessages(ctx, streamId, headers, WebPushRouter.token(path));
                         return;
                     case RECEIPT:
-                        handleReceivingPushMessageReceipts(ctx, streamId, path);
+                        handleReceivingPushMessageReceipts(ctx, streamId, WebPushRouter.token(path));
                         return;
                 }
                 break;
@@ -143,13 +145,16 @@ class WebPushFrameListener extends Http2FrameAdapter {
                         handleSubscribe(ctx, streamId);
                         return;
                     case RECEIPTS:
-                        handleReceipts(ctx, streamId, path);
+                        handleReceipts(ctx, streamId, WebPushRouter.token(path));
                         return;
                     case PUSH:
                         final Optional<String> pushReceiptToken = getPushReceiptToken(headers);
                         stream.setProperty(pushReceiptPropertyKey, pushReceiptToken);
                         final Optional<Integer> ttl = getTtl(headers);
                         stream.setProperty(ttlPropertyKey, ttl);
+                        if (endStream) {
+                            handlePush(ctx, streamId, path, EMPTY_BUFFER);
+                        }
                         //see onDataRead(...) method
                         return;
                 }
@@ -157,13 +162,13 @@ class WebPushFrameListener extends Http2FrameAdapter {
             case DELETE:
                 switch (resource) {
                     case PUSH_MESSAGE:
-                        handleAcknowledgement(ctx, streamId, path);
+                        handleAcknowledgement(ctx, streamId, WebPushRouter.token(path));
                         return;
                     case SUBSCRIPTION:
-                        handlePushMessageSubscriptionRemoval(ctx, streamId, path);
+                        handlePushMessageSubscriptionRemoval(ctx, streamId, WebPushRouter.token(path));
                         return;
                     case RECEIPT:
-                        handleReceiptSubscriptionRemoval(ctx, streamId, path);
+                        handleReceiptSubscriptionRemoval(ctx, streamId, WebPushRouter.token(path));
                         return;
                 }
                 break;
@@ -177,30 +182,65 @@ class WebPushFrameListener extends Http2FrameAdapter {
                           final int padding,
                           final boolean endOfStream) throws Http2Exception {
         final Http2Stream stream = encoder.connection().stream(streamId);
-        final String path = stream.getProperty(pathPropertyKey);
+        final CharSequence path = stream.getProperty(pathPropertyKey);
         final Resource resource = stream.getProperty(resourcePropertyKey);
-        LOGGER.info("onDataRead. streamId={}, path={}, resource={}, endstream={}", streamId, path, resource,
-                endOfStream);
-        switch (resource) {
-            case PUSH:
-                handlePush(ctx, streamId, path, data);
-                break;
+        if (resource == Resource.PUSH) {
+            aggregatePush(ctx, streamId, stream, path, data, endOfStream);
         }
         return super.onDataRead(ctx, streamId, data, padding, endOfStream);
     }
 
+    /**
+     * Collects the DATA frames of a push request and hands the body over once the stream has ended.
+     *
+     * The frames are retained as components of a composite buffer instead of being copied, and the request is
+     * rejected as soon as the running total exceeds the maximum message size, without waiting for the rest of it.
+     */
+    private void aggregatePush(final ChannelHandlerContext ctx,
+                               final int streamId,
+                               final Http2Stream stream,
+                               final CharSequence path,
+                               final ByteBuf data,
+                               final boolean endOfStream) {
+        final CompositeByteBuf body = stream.getProperty(bodyPropertyKey);
+        final long size = (body == null ? 0 : body.readableBytes()) + data.readableBytes();
+        if (size > webpushServer.config().messageMaxSize()) {
+            ReferenceCountUtil.release(stream.removeProperty(bodyPropertyKey));
+            encoder.writeHeaders(ctx, streamId, ResponseHeaders.requestEntityTooLarge(), 0, true, ctx.newPromise());
+            if (!endOfStream) {
+                encoder.writeRstStream(ctx, streamId, Http2Error.NO_ERROR.code(), ctx.newPromise());
+            }
+        } else if (body == null && endOfStream) {
+            // the common case of a body that fits in a single frame needs no composite.
+            handlePush(ctx, streamId, path, data.slice().retain());
+        } else {
+            final CompositeByteBuf aggregate = body != null ? body : ctx.alloc().compositeBuffer();
+            aggregate.addComponent(data.retain());
+            aggregate.writerIndex(aggregate.writerIndex() + data.readableBytes());
+            if (endOfStream) {
+                stream.removeProperty(bodyPropertyKey);
+                handlePush(ctx, streamId, path, aggregate);
+            } else if (body == null) {
+                stream.setProperty(bodyPropertyKey, aggregate);
+            }
+        }
+    }
+
     private void handleSubscribe(final ChannelHandlerContext ctx, final int streamId) {
-        final Subscription subscription = webpushServer.subscribe();
-        encoder.writeHeaders(ctx, streamId, subscriptionHeaders(subscription), 0, true, ctx.newPromise());
-        LOGGER.info("Subscription for Push Messages: {}", subscription);
+        whenComplete(ctx, webpushServer.subscribe(), (subscription, e) -> {
+            if (e != null) {
+                internalServerError(ctx, streamId, "Could not store subscription", e);
+                return;
+            }
+            encoder.writeHeaders(ctx, streamId, subscriptionHeaders(subscription), 0, true, ctx.newPromise());
+            LOGGER.debug("Subscription for Push Messages: {}", subscription);
+        });
     }
 
     private Http2Headers subscriptionHeaders(final Subscription subscription) {
-        final String pushToken = webpushServer.generateEndpointToken(subscription.pushResourceId(), subscription.id());
-        final String receiptsToken = webpushServer.generateEndpointToken(subscription.id());
-        return resourceHeaders(Resource.SUBSCRIPTION, subscription.id(), EXPOSE_HEADERS_LINK_CACHE_CONTROL_LOCATION)
-                .set(LINK_HEADER, asLink(webpushUri(Resource.PUSH, pushToken), WebLink.PUSH),
-                                  asLink(webpushUri(Resource.RECEIPTS, receiptsToken), WebLink.RECEIPTS))
+        return ResponseHeaders.subscriptionCreated(webpushUri(Resource.SUBSCRIPTION, subscription.id()))
+                .set(LINK_HEADER, asLink(webpushUri(Resource.PUSH, subscription.pushToken()), WebLink.PUSH),
+                                  asLink(webpushUri(Resource.RECEIPTS, subscription.receiptsToken()), WebLink.RECEIPTS))
                 .set(CACHE_CONTROL, subscriptionMaxAge);
     }
 
@@ -208,123 +248,251 @@ class WebPushFrameListener extends Http2FrameAdapter {
         return new AsciiString("<" + uri + ">;rel=\"" + rel + "\"");
     }
 
-    private void handleReceipts(final ChannelHandlerContext ctx, final int streamId, final String path) {
-        extractToken(path).flatMap(webpushServer::subscriptionByToken).ifPresent(sub -> {
-            final String receiptResourceId = UUID.randomUUID().toString();
-            final String receiptResourceToken = webpushServer.generateEndpointToken(receiptResourceId, sub.id());
-            encoder.writeHeaders(ctx, streamId, receiptsHeaders(receiptResourceToken), 0, true, ctx.newPromise());
-            LOGGER.info("Receipt Subscription Resource: {}", receiptResourceToken);
+    private void handleReceipts(final ChannelHandlerContext ctx, final int streamId, final String token) {
+        final CompletionStage<Optional<Subscription>> subscription = token == null
+                ? NO_SUBSCRIPTION
+                : webpushServer.subscriptionByToken(token);
+        whenComplete(ctx, subscription, (sub, e) -> {
+            if (e != null) {
+                internalServerError(ctx, streamId, "Could not look up subscription", e);
+                return;
+            }
+            sub.ifPresent(s -> {
+                final String receiptResourceId = UUID.randomUUID().toString();
+                final String receiptResourceToken = webpushServer.generateEndpointToken(receiptResourceId, s.id());
+                encoder.writeHeaders(ctx, streamId, receiptsHeaders(receiptResourceToken), 0, true,
+                        ctx.newPromise());
+                LOGGER.debug("Receipt Subscription Resource: {}", receiptResourceToken);
+            });
         });
     }
 
     private static Http2Headers receiptsHeaders(final String receiptResourceToken) {
-        return resourceHeaders(Resource.RECEIPT, receiptResourceToken, EXPOSE_HEADERS_LOCATION);
+        return ResponseHeaders.created(webpushUri(Resource.RECEIPT, receiptResourceToken));
     }
 
+    /**
+     * Looks up the subscription of a complete push request, taking over the reference to its payload.
+     */
     private void handlePush(final ChannelHandlerContext ctx,
                             final int streamId,
-                            final String path,
-                            final ByteBuf data) {
-        final Optional<Subscription> subscription = extractToken(path).flatMap(webpushServer::subscriptionByPushToken);
-        subscription.ifPresent(sub -> {
-            final Http2Stream stream = encoder.connection().stream(streamId);
-            final Optional<String> receiptToken = stream.getProperty(pushReceiptPropertyKey);
-            if (receiptToken.isPresent()) {
-                final Optional<Subscription> receiptSub = webpushServer.subscriptionByReceiptToken(receiptToken.get());
-                if (!receiptSub.isPresent() || !subscription.equals(receiptSub)) {
-                    badRequest(ctx, streamId, "Subscriptions don't match");
-                    return;
-                }
-            }
-            final int readableBytes = data.readableBytes();
-            if (readableBytes > webpushServer.config().messageMaxSize()) {
-                encoder.writeHeaders(ctx, streamId, messageToLarge(), 0, true, ctx.newPromise());
+                            final CharSequence path,
+                            final ByteBuf payload) {
+        final Http2Stream stream = encoder.connection().stream(streamId);
+        final Optional<String> receiptToken = stream.getProperty(pushReceiptPropertyKey);
+        final Optional<Integer> ttl = stream.getProperty(ttlPropertyKey);
+        final String token = WebPushRouter.token(path);
+        final CompletionStage<Optional<Subscription>> subscription = token == null
+                ? NO_SUBSCRIPTION
+                : webpushServer.subscriptionByPushToken(token);
+        whenComplete(ctx, subscription, (sub, e) -> {
+            if (e != null) {
+                payload.release();
+                internalServerError(ctx, streamId, "Could not look up subscription", e);
+            } else if (!sub.isPresent()) {
+                payload.release();
+                encoder.writeHeaders(ctx, streamId, ResponseHeaders.notFound(), 0, true, ctx.newPromise());
+            } else if (receiptToken.isPresent()) {
+                whenComplete(ctx, webpushServer.subscriptionByReceiptToken(receiptToken.get()), (receiptSub, re) -> {
+                    if (re != null) {
+                        payload.release();
+                        internalServerError(ctx, streamId, "Could not look up receipt subscription", re);
+                    } else if (!receiptSub.isPresent() || !sub.equals(receiptSub)) {
+                        payload.release();
+                        badRequest(ctx, streamId, "Subscriptions don't match");
+                    } else {
+                        push(ctx, streamId, sub.get(), payload, receiptToken, ttl);
+                    }
+                });
             } else {
-                final PushMessage pushMessage = buildPushMessage(sub.id(), data, stream);
-                encoder.writeHeaders(ctx, streamId, pushMessageHeaders(pushMessage), 0, true, ctx.newPromise());
-                final Client client = monitoredStreams.get(sub.id());
-                if (client != null) {
-                    receivePushMessage(pushMessage, client);
-                } else {
-                    webpushServer.saveMessage(pushMessage);
-                    LOGGER.info("UA not connected, saved to storage: {}", pushMessage);
-                }
+                push(ctx, streamId, sub.get(), payload, receiptToken, ttl);
             }
         });
-        if (!subscription.isPresent()) {
-            encoder.writeHeaders(ctx, streamId, notFoundHeaders(), 0, true, ctx.newPromise());
+    }
+
+    /**
+     * Delivers or stores a message, taking over the reference to its payload.
+     */
+    private void push(final ChannelHandlerContext ctx,
+                      final int streamId,
+                      final Subscription sub,
+                      final ByteBuf payload,
+                      final Optional<String> receiptToken,
+                      final Optional<Integer> ttl) {
+        final PushMessage pushMessage = buildPushMessage(sub.id(), payload, receiptToken, ttl);
+        final List<Client> clients = subscribers.monitors().get(sub.id());
+        final CompletionStage<Void> stored;
+        if (!clients.isEmpty()) {
+            stored = offer(pushMessage, clients);
+        } else if (ttl.isPresent() && ttl.get() == 0) {
+            // a message that may not be kept is only delivered to a UA that is connected right now.
+            stored = STORED;
+            LOGGER.debug("UA not connected, dropped message with zero TTL: {}", pushMessage);
+        } else {
+            stored = webpushServer.saveMessage(pushMessage);
+            LOGGER.debug("UA not connected, saved to storage: {}", pushMessage);
+        }
+        whenComplete(ctx, stored, (v, e) -> {
+            writePushResponse(ctx, streamId, pushMessage, e);
+            // the monitor and the store hold their own references by now.
+            ReferenceCountUtil.release(pushMessage);
+        });
+    }
+
+    private static CompletionStage<Void> offer(final PushMessage pushMessage, final List<Client> clients) {
+        if (clients.size() == 1) {
+            return clients.get(0).outbox.offer(pushMessage);
+        }
+        final CompletableFuture<?>[] offered = new CompletableFuture<?>[clients.size()];
+        for (int i = 0; i < offered.length; i++) {
+            offered[i] = clients.get(i).outbox.offer(pushMessage).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(offered);
+    }
+
+    /**
+     * Runs the action once the stage has completed.
+     *
+     * A stage that is already complete runs the action at once, on the event loop that is handling the frame.
+     * Otherwise the store completes it on one of its own threads, and the action is handed back to the event loop
+     * of the channel, which is the only thread that may write to it, and is followed by a flush.
+     */
+    private static <T> void whenComplete(final ChannelHandlerContext ctx,
+                                         final CompletionStage<T> stage,
+                                         final BiConsumer<? super T, ? super Throwable> action) {
+        final CompletableFuture<T> future = stage.toCompletableFuture();
+        if (future.isDone()) {
+            future.whenComplete(action);
+        } else {
+            future.whenCompleteAsync((v, e) -> {
+                action.accept(v, e);
+                ctx.flush();
+            }, ctx.executor());
         }
     }
 
-    private PushMessage buildPushMessage(final String subId, final ByteBuf data, final Http2Stream stream) {
+    private void writePushResponse(final ChannelHandlerContext ctx,
+                                   final int streamId,
+                                   final PushMessage pushMessage,
+                                   final Throwable storeFailure) {
+        if (storeFailure != null) {
+            internalServerError(ctx, streamId, "Could not store push message " + pushMessage.id(), storeFailure);
+        } else {
+            encoder.writeHeaders(ctx, streamId, pushMessageHeaders(pushMessage), 0, true, ctx.newPromise());
+        }
+    }
+
+    private PushMessage buildPushMessage(final String subId,
+                                         final ByteBuf payload,
+                                         final Optional<String> receiptToken,
+                                         final Optional<Integer> ttl) {
         final String pushMessageId = UUID.randomUUID().toString();
-        final Optional<String> receiptToken = stream.getProperty(pushReceiptPropertyKey);
-        final Optional<Integer> ttl = stream.getProperty(ttlPropertyKey);
-        return new DefaultPushMessage(pushMessageId, subId, receiptToken, data.toString(UTF_8), ttl);
+        final String pushMessageToken = webpushServer.generateEndpointToken(pushMessageId, subId);
+        return new DefaultPushMessage(pushMessageId, pushMessageToken, subId, receiptToken, payload, ttl);
     }
 
-    private Http2Headers pushMessageHeaders(final PushMessage pushMessage) {
-        final String pushMessageToken = webpushServer
-                .generateEndpointToken(pushMessage.id(), pushMessage.subscription());
-        return resourceHeaders(Resource.PUSH_MESSAGE, pushMessageToken, EXPOSE_HEADERS_LOCATION);
+    private static Http2Headers pushMessageHeaders(final PushMessage pushMessage) {
+        final Http2Headers headers = ResponseHeaders.created(webpushUri(Resource.PUSH_MESSAGE,
+                pushMessage.token()));
+        pushMessage.ttl().ifPresent(ttl -> headers.setInt(TTL_HEADER, ttl));
+        return headers;
     }
 
     private static Optional<String> getPushReceiptToken(final Http2Headers headers) {
         final CharSequence pushReceiptHeader = headers.get(PUSH_RECEIPT_HEADER);
         if (pushReceiptHeader != null) {
-            return extractToken(pushReceiptHeader.toString(), Resource.RECEIPT);
+            return Optional.ofNullable(WebPushRouter.receiptToken(pushReceiptHeader));
         }
         return Optional.empty();
     }
 
-    private static Optional<Integer> getTtl(final Http2Headers headers) {
+    /**
+     * Returns the cache-control value of a subscription, whose max-age is in seconds and is left out if
+     * subscriptions never expire.
+     */
+    static AsciiString cacheControl(final long subscriptionMaxAge) {
+        return subscriptionMaxAge > 0
+                ? new AsciiString("private, max-age=" + TimeUnit.MILLISECONDS.toSeconds(subscriptionMaxAge))
+                : new AsciiString("private");
+    }
+
+    /**
+     * Returns the number of seconds the message may be stored for. Malformed or negative values are ignored.
+     */
+    static Optional<Integer> getTtl(final Http2Headers headers) {
         final CharSequence ttlHeader = headers.get(TTL_HEADER);
         if (ttlHeader != null) {
-            Optional.of(AsciiString.of(ttlHeader).parseInt());
+            try {
+                final int ttl = AsciiString.of(ttlHeader).parseInt();
+                if (ttl >= 0) {
+                    return Optional.of(ttl);
+                }
+            } catch (final NumberFormatException e) {
+                LOGGER.debug("Ignoring malformed TTL header {}", ttlHeader);
+            }
         }
         return Optional.empty();
     }
 
-    private static Http2Headers messageToLarge() {
-        return new DefaultHttp2Headers()
-                .status(REQUEST_ENTITY_TOO_LARGE.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);
-    }
-
     private void handleReceivingPushMessages(final ChannelHandlerContext ctx,
                                              final int streamId,
                                              final Http2Headers headers,
-                                             final String path) {
-        extractToken(path).flatMap(webpushServer::subscriptionById).ifPresent(sub -> {
-            final Client client = new Client(ctx, streamId, encoder);
-            monitoredStreams.put(sub.id(), client); //close the storage
-            // all new messages will be sent to the connected client
-            try {
-                List<PushMessage> newMessages = null;
-                while (!(newMessages = webpushServer.waitingDeliveryMessages(sub.id())).isEmpty()) {
-                    for (PushMessage pushMessage : newMessages) {
-                        receivePushMessage(pushMessage, client);
+                                             final String token) {
+        final boolean wait = Optional.ofNullable(headers.get(PREFER_HEADER))
+                .filter(val -> "wait=0".equals(val.toString()))
+                .isPresent();
+        final CompletionStage<Optional<Subscription>> subscription = token == null
+                ? NO_SUBSCRIPTION
+                : webpushServer.subscriptionById(token);
+        whenComplete(ctx, subscription, (sub, e) -> {
+            if (e != null) {
+                LOGGER.error("Error handleReceivingPushMessages", e);
+                return;
+            }
+            sub.ifPresent(s -> {
+                final Client client = newClient(ctx, streamId, Optional.of(s.id()));
+                register(subscribers.monitors(), s.id(), client); //close the storage
+                // all new messages will be sent to the connected client
+                deliverWaitingMessages(ctx, s.id(), client, () -> {
+                    if (wait) {
+                        unregister(subscribers.monitors(), s.id(), client);  //open the storage
+                        encoder.writeHeaders(ctx, streamId, ResponseHeaders.noContent(), 0, true, ctx.newPromise());
+                        LOGGER.debug("204 No Content has sent to client={}", client);
+                    } else {
+                        LOGGER.debug("Registered client={}", client);
                     }
-                }
-                final Optional<CharSequence> wait =
-                        Optional.ofNullable(headers.get(PREFER_HEADER)).filter(val -> "wait=0".equals(val.toString()));
-                if (wait.isPresent()) {
-                    monitoredStreams.remove(sub.id());  //open the storage
-                    encoder.writeHeaders(ctx, streamId, noContentHeaders(), 0, true, ctx.newPromise());
-                    LOGGER.info("204 No Content has sent to client={}", client);
-                } else {
-                    ctx.attr(SUBSCRIPTION_ID).set(sub.id());
-                    LOGGER.info("Registered client={}", client);
-                }
-            } catch (Exception e) {
+                });
+            });
+        });
+    }
+
+    private void deliverWaitingMessages(final ChannelHandlerContext ctx,
+                                        final String subId,
+                                        final Client client,
+                                        final Runnable whenDrained) {
+        whenComplete(ctx, webpushServer.waitingDeliveryMessages(subId), (newMessages, e) -> {
+            if (e != null) {
                 LOGGER.error("Error handleReceivingPushMessages", e);
-                monitoredStreams.remove(sub.id());  //open the storage if exception occurred
+                unregister(subscribers.monitors(), subId, client);  //open the storage if exception occurred
                 //TODO probably, we also should send something to client
+            } else if (newMessages.isEmpty()) {
+                whenDrained.run();
+            } else {
+                // the whole batch goes out with a single flush.
+                client.outbox.requeue(newMessages);
+                if (client.outbox.spilled()) {
+                    // the client has enough to catch up on, the outbox takes the rest back once it has.
+                    whenDrained.run();
+                } else {
+                    deliverWaitingMessages(ctx, subId, client, whenDrained);
+                }
             }
         });
     }
 
-    private void receivePushMessage(final PushMessage pushMessage, final Client client) {
+    private CompletionStage<Void> receivePushMessage(final PushMessage pushMessage,
+                                                     final Client client,
+                                                     final ChannelPromise written) {
         final Http2Headers promiseHeaders = promiseHeaders(pushMessage);
         final Http2Headers monitorHeaders = monitorHeaders(pushMessage);
         final int pushStreamId = client.encoder.connection().local().incrementAndGetNextStreamId();
@@ -332,187 +500,193 @@ class WebPushFrameListener extends Http2FrameAdapter {
                 client.ctx.newPromise()).addListener(WebPushFrameListener::logFutureError);
         client.encoder.writeHeaders(client.ctx, pushStreamId, monitorHeaders, 0, false, client.ctx.newPromise())
                 .addListener(WebPushFrameListener::logFutureError);
-        client.encoder.writeData(client.ctx, pushStreamId, copiedBuffer(pushMessage.payload(), UTF_8), 0, true,
-                client.ctx.newPromise()).addListener(WebPushFrameListener::logFutureError);
-        writePendingBytesAndFlush(client);  //FIXME flush at the end of all writes
-        LOGGER.info("Sent to client={}, pushPromiseStreamId={}, promiseHeaders={}, monitorHeaders={}, pushMessage={}",
-                client, pushStreamId, promiseHeaders, monitorHeaders, pushMessage);
+        client.encoder.writeData(client.ctx, pushStreamId, pushMessage.content().duplicate().retain(), 0, true,
+                written).addListener(WebPushFrameListener::logFutureError);
+        client.flusher.written(pushMessage.content().readableBytes());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sent to client={}, pushPromiseStreamId={}, promiseHeaders={}, monitorHeaders={}, "
+                    + "pushMessage={}", client, pushStreamId, promiseHeaders, monitorHeaders, pushMessage);
+        }
 
-        pushMessage.receiptSubscription().ifPresent(rs -> webpushServer.saveSentMessage(pushMessage));
+        if (pushMessage.receiptSubscription().isPresent()) {
+            return webpushServer.saveSentMessage(pushMessage);
+        }
+        return STORED;
     }
 
-    private Http2Headers monitorHeaders(final PushMessage pushMessage) {
-        return new DefaultHttp2Headers()
-                .status(OK.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY)
-                .set(ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSE_HEADERS_CACHE_CONTROL_CONTENT_TYPE_CONTENT_LENGTH)
-                .set(CACHE_CONTROL, CACHE_CONTROL_PRIVATE)
-                .set(CONTENT_TYPE, CONTENT_TYPE_VALUE)
-                .setInt(CONTENT_LENGTH, pushMessage.payload().length());
-        //TODO add "last-modified" headers
+    private static Http2Headers monitorHeaders(final PushMessage pushMessage) {
+        return ResponseHeaders.monitor(pushMessage.content().readableBytes());
     }
 
-    private void handleAcknowledgement(final ChannelHandlerContext ctx, final int streamId, final String path) {
-        extractToken(path).flatMap(webpushServer::sentMessage).ifPresent(pushMessage -> {
-            final Client client = acksStreams.get(pushMessage.receiptSubscription().get());
-            if (client != null) {
-                receivePushMessageReceipts(pushMessage, client);
+    private void handleAcknowledgement(final ChannelHandlerContext ctx, final int streamId, final String token) {
+        final CompletionStage<Optional<PushMessage>> sentMessage = token == null
+                ? CompletableFuture.completedFuture(Optional.empty())
+                : webpushServer.sentMessage(token);
+        whenComplete(ctx, sentMessage, (msg, e) -> {
+            if (e != null) {
+                internalServerError(ctx, streamId, "Could not acknowledge push message", e);
+                return;
             }
+            msg.ifPresent(pushMessage -> {
+                for (Client client : subscribers.receipts().get(pushMessage.receiptSubscription().get())) {
+                    ReferenceCountUtil.retain(pushMessage);
+                    client.execute(() -> {
+                        receivePushMessageReceipts(pushMessage, client);
+                        ReferenceCountUtil.release(pushMessage);
+                    });
+                }
+                ReferenceCountUtil.release(pushMessage);
+            });
+            encoder.writeHeaders(ctx, streamId, ResponseHeaders.noContent(), 0, true, ctx.newPromise());
         });
-        encoder.writeHeaders(ctx, streamId, noContentHeaders(), 0, true, ctx.newPromise());
     }
 
     private void receivePushMessageReceipts(final PushMessage pushMessage, final Client client) {
         final Http2Headers promiseHeaders = promiseHeaders(pushMessage);
-        final Http2Headers ackHeaders = goneHeaders();
+        final Http2Headers ackHeaders = ResponseHeaders.gone();
         final int pushStreamId = client.encoder.connection().local().incrementAndGetNextStreamId();
         client.encoder.writePushPromise(client.ctx, client.streamId, pushStreamId, promiseHeaders, 0,
                 client.ctx.newPromise()).addListener(WebPushFrameListener::logFutureError);
         client.encoder.writeHeaders(client.ctx, pushStreamId, ackHeaders, 0, true,
                 client.ctx.newPromise()).addListener(WebPushFrameListener::logFutureError);
-        writePendingBytesAndFlush(client);
-        LOGGER.info("Sent ack to client={}, pushPromiseStreamId={}, promiseHeaders={}, ackHeaders={}, pushMessage={}",
-                client, pushStreamId, promiseHeaders, ackHeaders, pushMessage);
+        client.flusher.written(0);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sent ack to client={}, pushPromiseStreamId={}, promiseHeaders={}, ackHeaders={}, "
+                    + "pushMessage={}", client, pushStreamId, promiseHeaders, ackHeaders, pushMessage);
+        }
     }
 
     private void handleReceivingPushMessageReceipts(final ChannelHandlerContext ctx,
                                                     final int streamId,
-                                                    final String path) {
-        final Optional<String> receiptToken = extractToken(path);
-        receiptToken.flatMap(webpushServer::subscriptionByReceiptToken).ifPresent(sub -> {
-            final Client client = new Client(ctx, streamId, encoder);
-            acksStreams.put(receiptToken.get(), client);
-            ctx.attr(RECEIPT_SUBSCRIPTION_ID).set(receiptToken.get());
-            LOGGER.info("Registered application for acks={}", client);
+                                                    final String receiptToken) {
+        final CompletionStage<Optional<Subscription>> subscription = receiptToken == null
+                ? NO_SUBSCRIPTION
+                : webpushServer.subscriptionByReceiptToken(receiptToken);
+        whenComplete(ctx, subscription, (sub, e) -> {
+            if (e != null) {
+                LOGGER.error("Error handleReceivingPushMessageReceipts", e);
+                return;
+            }
+            sub.ifPresent(s -> {
+                final Client client = newClient(ctx, streamId, Optional.empty());
+                register(subscribers.receipts(), receiptToken, client);
+                LOGGER.debug("Registered application for acks={}", client);
+            });
         });
     }
 
     private void handlePushMessageSubscriptionRemoval(final ChannelHandlerContext ctx,
                                                       final int streamId,
-                                                      final String path) {
-        final String subId = extractEndpointToken(path);
-        final List<PushMessage> sentMessages = webpushServer.removeSubscription(subId);
-        removeClient(Optional.ofNullable(subId), monitoredStreams);
-        sentMessages.forEach(sm -> removeClient(sm.receiptSubscription(), acksStreams));
-        LOGGER.info("Subscription {} removed", subId);
-        encoder.writeHeaders(ctx, streamId, noContentHeaders(), 0, true, ctx.newPromise());
+                                                      final String subId) {
+        if (subId == null) {
+            encoder.writeHeaders(ctx, streamId, ResponseHeaders.notFound(), 0, true, ctx.newPromise());
+            return;
+        }
+        whenComplete(ctx, webpushServer.removeSubscription(subId), (sentMessages, e) -> {
+            if (e != null) {
+                internalServerError(ctx, streamId, "Could not remove subscription " + subId, e);
+                return;
+            }
+            removeClients(Optional.of(subId), subscribers.monitors());
+            sentMessages.forEach(sm -> {
+                removeClients(sm.receiptSubscription(), subscribers.receipts());
+                ReferenceCountUtil.release(sm);
+            });
+            LOGGER.debug("Subscription {} removed", subId);
+            encoder.writeHeaders(ctx, streamId, ResponseHeaders.noContent(), 0, true, ctx.newPromise());
+        });
     }
 
     private void handleReceiptSubscriptionRemoval(final ChannelHandlerContext ctx,
                                                   final int streamId,
-                                                  final String path) {
-        final Optional<String> recSubId = extractToken(path);
-        removeClient(recSubId, acksStreams);
-        encoder.writeHeaders(ctx, streamId, noContentHeaders(), 0, true, ctx.newPromise());
-    }
-
-    private static Http2Headers resourceHeaders(final Resource resource,
-                                                final String resourceToken,
-                                                final AsciiString exposeHeaders) {
-        return new DefaultHttp2Headers()
-                .status(CREATED.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY)
-                .set(ACCESS_CONTROL_EXPOSE_HEADERS, exposeHeaders)
-                .set(LOCATION, webpushUri(resource, resourceToken));
+                                                  final String recSubId) {
+        removeClients(Optional.ofNullable(recSubId), subscribers.receipts());
+        encoder.writeHeaders(ctx, streamId, ResponseHeaders.noContent(), 0, true, ctx.newPromise());
     }
 
     private static AsciiString webpushUri(final Resource resource, final String id) {
-        return new AsciiString(WEBPUSH_URI + resource.resourceName() + "/" + id);
+        return new AsciiString(WebPushRouter.WEBPUSH_URI + resource.resourceName() + "/" + id);
     }
 
-    private static Optional<String> extractToken(final String path, final Resource resource) {
-        final String segment = WEBPUSH_URI + resource.resourceName();
-        int idx = path.indexOf(segment);
-        if (idx < 0) {
-            return Optional.empty();
-        }
-        final String subpath = path.substring(idx + segment.length());
-        return extractToken(subpath);
+    private void internalServerError(final ChannelHandlerContext ctx,
+                                     final int streamId,
+                                     final String errorMsg,
+                                     final Throwable cause) {
+        LOGGER.error(errorMsg, cause);
+        encoder.writeHeaders(ctx, streamId, ResponseHeaders.internalServerError(), 0, true, ctx.newPromise());
     }
 
-    private static Optional<String> extractToken(final String path) {
-        final int idx = path.lastIndexOf('/');
-        if (idx < 0) {
-            return Optional.empty();
-        }
-        return Optional.of(path.substring(idx + 1));
+    private void badRequest(final ChannelHandlerContext ctx, final int streamId, final String errorMsg) {
+        encoder.writeHeaders(ctx, streamId, ResponseHeaders.badRequest(), 0, false, ctx.newPromise());
+        encoder.writeData(ctx, streamId, copiedBuffer(errorMsg, UTF_8), 0, true, ctx.newPromise());
     }
 
-    private static String extractEndpointToken(final String path) {
-        return path.substring(path.lastIndexOf('/') + 1);
+    private Http2Headers promiseHeaders(final PushMessage pushMessage) {
+        return ResponseHeaders.pushPromise(authority, webpushUri(Resource.PUSH_MESSAGE, pushMessage.token()));
     }
 
-    private static Resource getResource(final String path) {
-        final String resourceName;
-        final int idx = path.indexOf('/', WEBPUSH_URI.length());
-        if (idx > 0) {
-            resourceName = path.substring(WEBPUSH_URI.length(), idx);
-        } else {
-            resourceName = path.substring(WEBPUSH_URI.length());
+    /**
+     * Closes the clients of this connection.
+     */
+    void shutdown() {
+        for (Registration registration : registrations) {
+            registration.registry.unregister(registration.id, registration.client);
+            registration.client.close();
         }
-        return Resource.byResourceName(resourceName);
+        registrations.clear();
     }
 
-    private static Http2Headers goneHeaders() {
-        return new DefaultHttp2Headers()
-                .status(GONE.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);  //FIXME add date
-    }
-
-    private static Http2Headers noContentHeaders() {
-        return new DefaultHttp2Headers()
-                .status(NO_CONTENT.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);
-    }
-
-    private static Http2Headers notFoundHeaders() {
-        return new DefaultHttp2Headers()
-                .status(NOT_FOUND.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);
-    }
-
-    private static Http2Headers badRequestHeaders() {
-        return new DefaultHttp2Headers()
-                .status(BAD_REQUEST.codeAsText())
-                .set(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY);
+    /**
+     * Resumes the delivery of messages to the user agents of this connection once it has become writable again.
+     */
+    void writabilityChanged() {
+        for (Registration registration : registrations) {
+            registration.client.outbox.writabilityChanged();
+        }
     }
 
-    private void badRequest(final ChannelHandlerContext ctx, final int streamId, final String errorMsg) {
-        encoder.writeHeaders(ctx, streamId, badRequestHeaders(), 0, false, ctx.newPromise());
-        encoder.writeData(ctx, streamId, copiedBuffer(errorMsg, UTF_8), 0, true, ctx.newPromise());
+    /**
+     * Returns the number of payload bytes accepted for the user agents of this connection but not written yet.
+     */
+    long queuedBytes() {
+        long queued = 0;
+        for (Registration registration : registrations) {
+            queued += registration.client.outbox.queuedBytes();
+        }
+        return queued;
     }
 
-    private Http2Headers promiseHeaders(final PushMessage pushMessage) {
-        final String token = webpushServer.generateEndpointToken(pushMessage.id(), pushMessage.subscription());
-        return new DefaultHttp2Headers()
-                .method(GET_ASCII)
-                .path(webpushUri(Resource.PUSH_MESSAGE, token))
-                .authority(authority);
+    void disconnect(final ChannelHandlerContext ctx) {
+        for (Registration registration : registrations) {
+            if (registration.registry.unregister(registration.id, registration.client)) {
+                registration.client.outbox.close();
+            }
+        }
+        registrations.clear();
+        LOGGER.debug("Disconnected channel {}", ctx.channel().id());
     }
 
-    void shutdown() {
-        monitoredStreams.values().stream().forEach(client -> client.ctx.close());
-        monitoredStreams.clear();
-        acksStreams.values().stream().forEach(client -> client.ctx.close());
-        acksStreams.clear();
+    private void register(final SubscriberRegistry<Client> registry, final String id, final Client client) {
+        registry.register(id, client);
+        registrations.add(new Registration(registry, id, client));
     }
 
-    void disconnect(final ChannelHandlerContext ctx) {
-        final Optional<String> subId = Optional.ofNullable(ctx.attr(SUBSCRIPTION_ID).get());
-        removeClient(subId, monitoredStreams);
-        final Optional<String> recSubId = Optional.ofNullable(ctx.attr(RECEIPT_SUBSCRIPTION_ID).get());
-        removeClient(recSubId, acksStreams);
-        LOGGER.info("Disconnected channel {}", ctx.channel().id());
+    private void unregister(final SubscriberRegistry<Client> registry, final String id, final Client client) {
+        registry.unregister(id, client);
+        registrations.removeIf(registration -> registration.client == client);
+        client.outbox.close();
     }
 
-    private static void removeClient(final Optional<String> idOpt, final Map<String, Client> map) {
+    private static void removeClients(final Optional<String> idOpt, final SubscriberRegistry<Client> registry) {
         idOpt.ifPresent(id -> {
-            final Client client = map.remove(id);
-            if (client != null) {
-                client.encoder.writeHeaders(client.ctx, client.streamId, goneHeaders(), 0, true,
-                        client.ctx.newPromise());
-                writePendingBytesAndFlush(client);
-                LOGGER.info("Removed client={}", client);
+            for (Client client : registry.unregisterAll(id)) {
+                client.outbox.close();
+                client.execute(() -> {
+                    client.encoder.writeHeaders(client.ctx, client.streamId, ResponseHeaders.gone(), 0, true,
+                            client.ctx.newPromise());
+                    client.flusher.flush();
+                });
+                LOGGER.debug("Removed client={}", client);
             }
         });
     }
@@ -523,26 +697,54 @@ class WebPushFrameListener extends Http2FrameAdapter {
         }
     }
 
-    private static void writePendingBytesAndFlush(final Client client) {
-        try {
-            client.encoder.flowController().writePendingBytes();
-        } catch (final Http2Exception e) {
-            //TODO: handle errors
-            e.printStackTrace();
-        }
-        client.ctx.flush();
+    private Client newClient(final ChannelHandlerContext ctx, final int streamId, final Optional<String> subId) {
+        final WebPushServerConfig config = webpushServer.config();
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, config.flushMaxPendingMessages(),
+                config.flushMaxPendingBytes());
+        return new Client(ctx, streamId, encoder, flusher, client -> new Outbox(ctx, flusher,
+                (message, written) -> receivePushMessage(message, client, written),
+                webpushServer::saveMessage,
+                () -> subId.isPresent() ? webpushServer.waitingDeliveryMessages(subId.get()) : NO_MESSAGES,
+                config.outboundQueueMaxBytes()));
     }
 
-    private static class Client {
+    static final class Client {
 
         private final ChannelHandlerContext ctx;
         private final Http2ConnectionEncoder encoder;
         private final int streamId;
-
-        Client(final ChannelHandlerContext ctx, final int streamId, final Http2ConnectionEncoder encoder) {
+        private final CoalescingFlusher flusher;
+        private final Outbox outbox;
+
+        Client(final ChannelHandlerContext ctx,
+               final int streamId,
+               final Http2ConnectionEncoder encoder,
+               final CoalescingFlusher flusher,
+               final Function<Client, Outbox> outbox) {
             this.ctx = ctx;
             this.streamId = streamId;
             this.encoder = encoder;
+            this.flusher = flusher;
+            this.outbox = outbox.apply(this);
+        }
+
+        /**
+         * Closes the client's connection.
+         */
+        void close() {
+            outbox.close();
+            ctx.close();
+        }
+
+        /**
+         * Runs a task that writes to the client on the event loop of its channel.
+         */
+        void execute(final Runnable task) {
+            if (ctx.executor().inEventLoop()) {
+                task.run();
+            } else {
+                ctx.executor().execute(task);
+            }
         }
 
         @Override
@@ -550,4 +752,17 @@ class WebPushFrameListener extends Http2FrameAdapter {
             return "Client[streamid=" + streamId + ", ctx=" + ctx + "]";
         }
     }
+
+    private static final class Registration {
+
+        private final SubscriberRegistry<Client> registry;
+        private final String id;
+        private final Client client;
+
+        Registration(final SubscriberRegistry<Client> registry, final String id, final Client client) {
+            this.registry = registry;
+            this.id = id;
+            this.client = client;
+        }
+    }
 }
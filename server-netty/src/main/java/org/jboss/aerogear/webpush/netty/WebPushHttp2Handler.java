@@ -40,6 +40,12 @@ public class WebPushHttp2Handler extends Http2ConnectionHandler {
         ctx.close();
     }
 
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext ctx) throws Exception {
+        super.channelWritabilityChanged(ctx);
+        listener.writabilityChanged();
+    }
+
     @Override
     public void channelUnregistered(final ChannelHandlerContext ctx) throws Exception {
         listener.disconnect(ctx);
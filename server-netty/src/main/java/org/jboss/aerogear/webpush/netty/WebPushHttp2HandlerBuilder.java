@@ -28,12 +28,28 @@ public class WebPushHttp2HandlerBuilder
         extends AbstractHttp2ConnectionHandlerBuilder<WebPushHttp2Handler, WebPushHttp2HandlerBuilder> {
 
     private WebPushServer webpushServer;
+    private Subscribers subscribers;
+    private AccessLog accessLog;
+
+    public WebPushHttp2HandlerBuilder() {
+        headerSensitivityDetector(ResponseHeaders.SENSITIVITY_DETECTOR);
+    }
 
     public WebPushHttp2HandlerBuilder webPushServer(final WebPushServer webpushServer) {
         this.webpushServer = checkNotNull(webpushServer, "webpushServer");
         return self();
     }
 
+    WebPushHttp2HandlerBuilder subscribers(final Subscribers subscribers) {
+        this.subscribers = checkNotNull(subscribers, "subscribers");
+        return self();
+    }
+
+    WebPushHttp2HandlerBuilder accessLog(final AccessLog accessLog) {
+        this.accessLog = checkNotNull(accessLog, "accessLog");
+        return self();
+    }
+
     @Override
     public WebPushHttp2Handler build() {
         return super.build();
@@ -46,8 +62,21 @@ public class WebPushHttp2HandlerBuilder
         if (webpushServer == null) {
             throw new IllegalStateException("WebPushServer was not specified");
         }
-        WebPushFrameListener listener = new WebPushFrameListener(webpushServer, encoder);
-        frameListener(listener);
+        if (subscribers == null) {
+            throw new IllegalStateException("Subscribers were not specified");
+        }
+        if (accessLog == null) {
+            throw new IllegalStateException("AccessLog was not specified");
+        }
+        final WebPushFrameListener listener;
+        if (accessLog.enabled()) {
+            final AccessLog.Recorder recorder = accessLog.recorder(encoder.connection());
+            listener = new WebPushFrameListener(webpushServer, subscribers, recorder.encoder(encoder));
+            frameListener(recorder.listener(listener));
+        } else {
+            listener = new WebPushFrameListener(webpushServer, subscribers, encoder);
+            frameListener(listener);
+        }
         return new WebPushHttp2Handler(decoder, encoder, initialSettings, listener);
     }
 }
@@ -20,8 +20,7 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.MultithreadEventLoopGroup;
 import io.netty.handler.codec.http2.Http2SecurityUtil;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
@@ -34,13 +33,17 @@ import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.SslProvider;
 import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import org.jboss.aerogear.webpush.DefaultWebPushServer;
 import org.jboss.aerogear.webpush.WebPushServerConfig;
-import org.jboss.aerogear.webpush.datastore.DataStore;
 import org.jboss.aerogear.webpush.datastore.InMemoryDataStore;
 import org.jboss.aerogear.webpush.standalone.ConfigReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A HTTP/2 based WebPush Server.
  */
@@ -50,25 +53,64 @@ public final class WebPushNettyServer {
     private static final String DEFAULT_CONFIG = "/webpush-config.json";
 
     public static void main(final String[] args) throws Exception {
+        final StartupReport report = new StartupReport();
+        long phaseStart = System.nanoTime();
         final WebPushServerConfig config = readConfig(args);
-        final DataStore inMemoryDataStore = new InMemoryDataStore();
-        final SslContext sslCtx = createSslContext(config);
+        final InMemoryDataStore inMemoryDataStore = new InMemoryDataStore(config.messageMaxAge());
+        report.record("config", phaseStart);
 
-        final EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        final EventLoopGroup workerGroup = new NioEventLoopGroup();
+        final Transport transport = Transport.of(config);
+        // every acceptor has an event loop of its own.
+        final EventLoopGroup bossGroup = transport.newEventLoopGroup(config.transportAcceptors());
+        final MultithreadEventLoopGroup workerGroup = transport.newEventLoopGroup(0);
+        // the registry of connected clients has a shard per event loop.
+        final Subscribers subscribers = new Subscribers(workerGroup.executorCount());
+        final AccessLog accessLog = new AccessLog(config.accessLogSampling());
+        accessLog.start();
+        // the key derivation is slow, so it runs while the SSL context is created and the socket is bound.
+        final CompletableFuture<DefaultWebPushServer> webPushServer = CompletableFuture.supplyAsync(() -> {
+            final long keyStart = System.nanoTime();
+            final byte[] privateKey = DefaultWebPushServer.generateAndStorePrivateKey(inMemoryDataStore, config);
+            report.record("serverKey", keyStart);
+            return new DefaultWebPushServer(inMemoryDataStore, config, privateKey);
+        }, workerGroup.next());
         try {
+            phaseStart = System.nanoTime();
+            final SslContext sslCtx = createSslContext(config);
+            report.record("ssl", phaseStart);
+
+            phaseStart = System.nanoTime();
             final ServerBootstrap b = new ServerBootstrap();
-            b.option(ChannelOption.SO_BACKLOG, 1024)
+            transport.configure(b, config);
+            // connections are only accepted once the server key is available.
+            b.option(ChannelOption.AUTO_READ, false)
                     .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
                     .handler(new LoggingHandler(LogLevel.INFO))
-                    .childHandler(new WebPushChannelInitializer(sslCtx, inMemoryDataStore, config));
-            final Channel ch = b.bind(config.host(), config.port()).sync().channel();
-            LOGGER.info("WebPush server bound to {}:{}", config.host(), config.port());
-            ch.closeFuture().sync();
+                    .childHandler(new WebPushChannelInitializer(sslCtx, webPushServer, subscribers,
+                            accessLog));
+            final List<Channel> channels = new ArrayList<>(config.transportAcceptors());
+            for (int i = 0; i < config.transportAcceptors(); i++) {
+                channels.add(b.bind(config.host(), config.port()).sync().channel());
+            }
+            report.record("bind", phaseStart);
+
+            webPushServer.join();
+            for (Channel ch : channels) {
+                ch.config().setAutoRead(true);
+            }
+            LOGGER.info("WebPush server bound to {}:{} using {} transport with {} acceptor(s)", config.host(),
+                    config.port(), transport, channels.size());
+            LOGGER.info("{}", report);
+            for (Channel ch : channels) {
+                ch.closeFuture().sync();
+            }
         } finally {
+            subscribers.shutdown();
+            accessLog.close();
+            webPushServer.thenAccept(DefaultWebPushServer::close);
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            inMemoryDataStore.close();
         }
     }
 
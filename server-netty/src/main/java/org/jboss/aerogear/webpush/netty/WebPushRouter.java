@@ -0,0 +1,147 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.util.AsciiString;
+import org.jboss.aerogear.webpush.Resource;
+
+/**
+ * Routes WebPush requests by looking at the method and path headers directly, without turning them into Strings.
+ *
+ * Netty decodes header values into {@link AsciiString}s, so every check here is a comparison of bytes. A
+ * {@link Resource} is resolved by a perfect hash over the first character and the length of its name, followed
+ * by a single comparison with that name. The only String ever created is the token at the end of the path.
+ */
+final class WebPushRouter {
+
+    static final String WEBPUSH_URI = "/webpush/";
+
+    /**
+     * The request methods that WebPush resources respond to.
+     */
+    enum Method {
+        GET, POST, DELETE;
+
+        private final AsciiString ascii = new AsciiString(name());
+    }
+
+    private static final int PREFIX_LENGTH = WEBPUSH_URI.length();
+    private static final Resource[] RESOURCES = new Resource[1 << 9];
+    private static final AsciiString RECEIPT_SEGMENT =
+            new AsciiString(WEBPUSH_URI + Resource.RECEIPT.resourceName() + '/');
+
+    static {
+        for (Resource resource : Resource.values()) {
+            final String name = resource.resourceName();
+            final int slot = slot(name.charAt(0), name.length());
+            if (RESOURCES[slot] != null) {
+                throw new IllegalStateException(resource + " collides with " + RESOURCES[slot]);
+            }
+            RESOURCES[slot] = resource;
+        }
+    }
+
+    private WebPushRouter() {
+    }
+
+    /**
+     * Returns the method of a request, or {@code null} if no resource responds to it.
+     */
+    static Method method(final CharSequence method) {
+        final Method candidate;
+        switch (method.length()) {
+            case 3:
+                candidate = Method.GET;
+                break;
+            case 4:
+                candidate = Method.POST;
+                break;
+            case 6:
+                candidate = Method.DELETE;
+                break;
+            default:
+                return null;
+        }
+        return AsciiString.contentEquals(candidate.ascii, method) ? candidate : null;
+    }
+
+    /**
+     * Returns the resource that a path points to, or {@code null} if it is not a WebPush resource.
+     */
+    static Resource resource(final CharSequence path) {
+        final int length = path.length();
+        if (length <= PREFIX_LENGTH || !AsciiString.regionMatches(path, false, 0, WEBPUSH_URI, 0, PREFIX_LENGTH)) {
+            return null;
+        }
+        int end = AsciiString.indexOf(path, '/', PREFIX_LENGTH);
+        if (end < 0) {
+            end = length;
+        }
+        final Resource resource = RESOURCES[slot(path.charAt(PREFIX_LENGTH), end - PREFIX_LENGTH)];
+        if (resource == null) {
+            return null;
+        }
+        final String name = resource.resourceName();
+        return name.length() == end - PREFIX_LENGTH
+                && AsciiString.regionMatches(path, true, PREFIX_LENGTH, name, 0, name.length()) ? resource : null;
+    }
+
+    /**
+     * Returns the token that a resource path ends with, or {@code null} if it has none.
+     */
+    static String token(final CharSequence path) {
+        final int resourceEnd = AsciiString.indexOf(path, '/', PREFIX_LENGTH);
+        if (resourceEnd < 0) {
+            return null;
+        }
+        return substring(path, lastIndexOf(path, '/') + 1);
+    }
+
+    /**
+     * Returns the token of a receipt subscription URI, which may be absolute, or {@code null} if the value is no
+     * such URI.
+     */
+    static String receiptToken(final CharSequence uri) {
+        final int length = RECEIPT_SEGMENT.length();
+        for (int i = 0, last = uri.length() - length; i <= last; i++) {
+            if (AsciiString.regionMatches(uri, false, i, RECEIPT_SEGMENT, 0, length)) {
+                return substring(uri, lastIndexOf(uri, '/') + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int slot(final char first, final int length) {
+        return ((length & 0xf) << 5) | (first | 0x20) & 0x1f;
+    }
+
+    private static int lastIndexOf(final CharSequence value, final char c) {
+        for (int i = value.length() - 1; i >= 0; i--) {
+            if (value.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String substring(final CharSequence value, final int start) {
+        if (value instanceof AsciiString) {
+            return ((AsciiString) value).toString(start);
+        }
+        return value.subSequence(start, value.length()).toString();
+    }
+}
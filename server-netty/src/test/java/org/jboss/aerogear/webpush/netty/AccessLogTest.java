@@ -0,0 +1,86 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2FrameListener;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.AsciiString;
+import org.jboss.aerogear.webpush.Resource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AccessLogTest {
+
+    private final List<AccessLog.Record> written = new ArrayList<>();
+
+    @Test
+    public void dropsRecordsWhenTheBufferIsFull() {
+        final AccessLog accessLog = new AccessLog(1, 2, written::add);
+        assertThat(accessLog.offer(record()), is(true));
+        assertThat(accessLog.offer(record()), is(true));
+        assertThat(accessLog.offer(record()), is(false));
+        assertThat(accessLog.dropped(), is(1L));
+
+        assertThat(accessLog.drain(), is(2));
+        assertThat(written.size(), is(2));
+        assertThat(accessLog.offer(record()), is(true));
+        assertThat(accessLog.drain(), is(1));
+        assertThat(accessLog.drain(), is(0));
+    }
+
+    @Test
+    public void sampling() {
+        assertThat(new AccessLog(0, 2, written::add).enabled(), is(false));
+        assertThat(new AccessLog(0, 2, written::add).sample(), is(false));
+        assertThat(new AccessLog(1, 2, written::add).sample(), is(true));
+    }
+
+    @Test
+    public void recordsAStreamWhenItCloses() throws Exception {
+        final AccessLog accessLog = new AccessLog(1, 16, written::add);
+        final Http2Connection connection = new DefaultHttp2Connection(true);
+        final Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
+        when(encoder.connection()).thenReturn(connection);
+        final ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        final AccessLog.Recorder recorder = accessLog.recorder(connection);
+        final Http2FrameListener listener = recorder.listener(mock(Http2FrameListener.class));
+        final Http2ConnectionEncoder recordingEncoder = recorder.encoder(encoder);
+
+        final Http2Stream stream = connection.remote().createStream(3, false);
+        listener.onHeadersRead(ctx, 3, new DefaultHttp2Headers()
+                .method(new AsciiString("POST"))
+                .path(new AsciiString("/webpush/p/token")), 0, false);
+        listener.onDataRead(ctx, 3, Unpooled.wrappedBuffer(new byte[5]), 0, true);
+        recordingEncoder.writeHeaders(ctx, 3, ResponseHeaders.created(new AsciiString("/webpush/d/id")), 0, false,
+                null);
+        recordingEncoder.writeData(ctx, 3, Unpooled.wrappedBuffer(new byte[7]), 0, true, null);
+        assertThat(accessLog.drain(), is(0));
+
+        stream.close();
+        assertThat(accessLog.drain(), is(1));
+        final AccessLog.Record record = written.get(0);
+        assertThat(record.method.toString(), equalTo("POST"));
+        assertThat(record.resource, is(Resource.PUSH));
+        assertThat(record.status, equalTo(CREATED.codeAsText()));
+        assertThat(record.bytesIn, is(5L));
+        assertThat(record.bytesOut, is(7L));
+    }
+
+    private static AccessLog.Record record() {
+        return new AccessLog.Record("GET", Resource.SUBSCRIPTION, System.nanoTime());
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2RemoteFlowController;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoalescingFlusherTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final ChannelHandlerContext ctx = mockContext(tasks);
+    private final Http2ConnectionEncoder encoder = mockEncoder();
+
+    @Test
+    public void flushesOncePerTick() throws Exception {
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 128, 65536);
+        for (int i = 0; i < 100; i++) {
+            flusher.written(10);
+        }
+        verify(ctx, never()).flush();
+        assertThat(tasks.size(), equalTo(1));
+
+        tasks.remove(0).run();
+        verify(encoder.flowController()).writePendingBytes();
+        verify(ctx).flush();
+        assertThat(flusher.flushes(), equalTo(1L));
+    }
+
+    @Test
+    public void flushesWhenTooManyMessagesArePending() {
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 10, 65536);
+        for (int i = 0; i < 25; i++) {
+            flusher.written(10);
+        }
+        verify(ctx, times(2)).flush();
+
+        tasks.remove(0).run();
+        verify(ctx, times(3)).flush();
+        // nothing was written since, so nothing is left to flush.
+        flusher.run();
+        assertThat(flusher.flushes(), equalTo(3L));
+    }
+
+    @Test
+    public void flushesWhenTooManyBytesArePending() {
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 128, 1000);
+        flusher.written(600);
+        verify(ctx, never()).flush();
+        flusher.written(600);
+        verify(ctx).flush();
+    }
+
+    @Test
+    public void flushesEveryMessageWithoutLimits() {
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 0, 0);
+        flusher.written(10);
+        flusher.written(10);
+        verify(ctx, times(2)).flush();
+        assertThat(tasks.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void flushesBatchExplicitly() {
+        final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 128, 65536);
+        flusher.written(10);
+        flusher.written(10);
+        flusher.flush();
+        verify(ctx).flush();
+
+        tasks.remove(0).run();
+        assertThat(flusher.flushes(), equalTo(1L));
+    }
+
+    private static ChannelHandlerContext mockContext(final List<Runnable> tasks) {
+        final ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        final EventExecutor executor = mock(EventExecutor.class);
+        doAnswer(i -> tasks.add((Runnable) i.getArguments()[0])).when(executor).execute(any(Runnable.class));
+        when(ctx.executor()).thenReturn(executor);
+        return ctx;
+    }
+
+    private static Http2ConnectionEncoder mockEncoder() {
+        final Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
+        final Http2RemoteFlowController flowController = mock(Http2RemoteFlowController.class);
+        when(encoder.flowController()).thenReturn(flowController);
+        return encoder;
+    }
+
+}
@@ -8,7 +8,10 @@ import org.mockito.stubbing.OngoingStubbing;
 
 import java.util.Collections;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 
@@ -24,9 +27,23 @@ public class MockWebPushServerBuilder {
 
     private MockWebPushServerBuilder(final Subscription subscription) {
         this.subscription = subscription;
-        when(webPushServer.subscribe()).thenReturn(subscription);
-        when(webPushServer.subscriptionById(subscription.id())).thenReturn(Optional.of(subscription));
+        when(webPushServer.subscriptionById(anyString())).thenReturn(completed(Optional.empty()));
+        when(webPushServer.subscriptionByToken(anyString())).thenReturn(completed(Optional.empty()));
+        when(webPushServer.subscriptionByPushToken(anyString())).thenReturn(completed(Optional.empty()));
+        when(webPushServer.subscriptionByReceiptToken(anyString())).thenReturn(completed(Optional.empty()));
+        when(webPushServer.sentMessage(anyString())).thenReturn(completed(Optional.empty()));
+        when(webPushServer.waitingDeliveryMessages(anyString())).thenReturn(completed(Collections.emptyList()));
+        when(webPushServer.removeSubscription(anyString())).thenReturn(completed(Collections.emptyList()));
+        when(webPushServer.subscribe()).thenReturn(completed(subscription));
+        when(webPushServer.subscriptionById(subscription.id())).thenReturn(completed(Optional.of(subscription)));
         when(config.messageMaxSize()).thenReturn(4096L);
+        when(config.flushMaxPendingMessages()).thenReturn(128);
+        when(config.flushMaxPendingBytes()).thenReturn(65536L);
+        when(config.outboundQueueMaxBytes()).thenReturn(262144L);
+        when(config.accessLogSampling()).thenReturn(0);
+        when(webPushServer.saveMessage(any(PushMessage.class))).thenReturn(completed(null));
+        when(webPushServer.saveSentMessage(any(PushMessage.class))).thenReturn(completed(null));
+        when(webPushServer.generateEndpointToken(anyString(), eq(subscription.id()))).thenReturn("pushMessageToken");
         when(webPushServer.generateEndpointToken(eq(subscription.pushResourceId()), eq(subscription.id())))
                 .thenReturn(subscription.pushResourceId());
     }
@@ -37,8 +54,14 @@ public class MockWebPushServerBuilder {
     }
 
     public MockWebPushServerBuilder waitingPushMessage(final PushMessage message) {
-        when(webPushServer.waitingDeliveryMessages(subscription.id())).thenReturn(Collections.singletonList(message))
-                .thenReturn(Collections.emptyList());
+        when(webPushServer.waitingDeliveryMessages(subscription.id()))
+                .thenReturn(completed(Collections.singletonList(message)))
+                .thenReturn(completed(Collections.emptyList()));
+        return this;
+    }
+
+    public MockWebPushServerBuilder saveMessageCompletes(final CompletionStage<Void> stored) {
+        when(webPushServer.saveMessage(any(PushMessage.class))).thenReturn(stored);
         return this;
     }
 
@@ -49,31 +72,31 @@ public class MockWebPushServerBuilder {
 
     public MockWebPushServerBuilder receiptsToken(final String token) {
         when(webPushServer.generateEndpointToken(subscription.id())).thenReturn(token);
-        when(webPushServer.subscriptionByToken(eq(token))).thenReturn(Optional.of(subscription));
-        when(webPushServer.subscriptionByReceiptToken(token)).thenReturn(Optional.of(subscription));
+        when(webPushServer.subscriptionByToken(eq(token))).thenReturn(completed(Optional.of(subscription)));
+        when(webPushServer.subscriptionByReceiptToken(token)).thenReturn(completed(Optional.of(subscription)));
         return this;
     }
 
     public MockWebPushServerBuilder receiptToken(final String token) {
-        when(webPushServer.subscriptionByReceiptToken(eq(token))).thenReturn(Optional.of(subscription));
+        when(webPushServer.subscriptionByReceiptToken(eq(token))).thenReturn(completed(Optional.of(subscription)));
         when(webPushServer.generateEndpointToken(anyString(), eq(subscription.id()))).thenReturn(token);
         return this;
     }
 
     public MockWebPushServerBuilder receiptToken(final String token, final PushMessage pushMessage) {
         receiptToken(token);
-        when(webPushServer.sentMessage(token)).thenReturn(Optional.of(pushMessage));
+        when(webPushServer.sentMessage(token)).thenReturn(completed(Optional.of(pushMessage)));
         return this;
     }
 
     public MockWebPushServerBuilder pushResourceToken(final String token) {
         when(webPushServer.generateEndpointToken(eq(token), eq(subscription.id()))).thenReturn(token);
-        when(webPushServer.subscriptionByPushToken(token)).thenReturn(Optional.of(subscription));
+        when(webPushServer.subscriptionByPushToken(token)).thenReturn(completed(Optional.of(subscription)));
         return this;
     }
 
     public MockWebPushServerBuilder nonexistentPushResourceToken(final String token) {
-        when(webPushServer.subscriptionByPushToken(token)).thenReturn(Optional.empty());
+        when(webPushServer.subscriptionByPushToken(token)).thenReturn(completed(Optional.empty()));
         return this;
     }
 
@@ -87,6 +110,10 @@ public class MockWebPushServerBuilder {
         return webPushServer;
     }
 
+    private static <T> CompletionStage<T> completed(final T value) {
+        return CompletableFuture.completedFuture(value);
+    }
+
     public static MockWebPushServerBuilder withSubscription(final Subscription subscription) {
         return new MockWebPushServerBuilder(subscription);
     }
@@ -0,0 +1,237 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelPromise;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2RemoteFlowController;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.jboss.aerogear.webpush.DefaultPushMessage;
+import org.jboss.aerogear.webpush.PushMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OutboxTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<PushMessage> written = new ArrayList<>();
+    private final List<ChannelPromise> writes = new ArrayList<>();
+    private final List<PushMessage> stored = new ArrayList<>();
+    private final AtomicInteger refills = new AtomicInteger();
+    private final EventExecutor executor = mock(EventExecutor.class);
+    private final Channel channel = mock(Channel.class);
+    private final ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+    private final Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
+    private final CoalescingFlusher flusher = new CoalescingFlusher(ctx, encoder, 128, 65536);
+
+    public OutboxTest() {
+        doAnswer(i -> tasks.add((Runnable) i.getArguments()[0])).when(executor).execute(any(Runnable.class));
+        when(ctx.executor()).thenReturn(executor);
+        when(ctx.channel()).thenReturn(channel);
+        when(ctx.newPromise()).thenAnswer(i -> new DefaultChannelPromise(channel, ImmediateEventExecutor.INSTANCE));
+        when(channel.isWritable()).thenReturn(true);
+        when(encoder.flowController()).thenReturn(mock(Http2RemoteFlowController.class));
+    }
+
+    @Test
+    public void writesDirectlyOnTheChannelsEventLoop() {
+        final Outbox outbox = outbox(1024);
+        when(executor.inEventLoop()).thenReturn(true);
+        final DefaultPushMessage message = message("payload");
+        final CompletionStage<Void> delivered = outbox.offer(message);
+        assertThat(written, equalTo(Collections.<PushMessage>singletonList(message)));
+        assertThat(delivered.toCompletableFuture().isDone(), is(true));
+        assertThat(tasks.isEmpty(), is(true));
+    }
+
+    @Test
+    public void batchesMessagesFromOtherThreadsIntoOneTask() {
+        final Outbox outbox = outbox(1024);
+        final DefaultPushMessage first = message("first");
+        final DefaultPushMessage second = message("second");
+        final CompletionStage<Void> firstDelivered = outbox.offer(first);
+        final CompletionStage<Void> secondDelivered = outbox.offer(second);
+        assertThat(written.isEmpty(), is(true));
+        assertThat(tasks.size(), is(1));
+        // the outbox holds on to the messages until they have been written.
+        assertThat(first.refCnt(), is(2));
+
+        tasks.remove(0).run();
+        assertThat(written.size(), is(2));
+        assertThat(written.get(0), equalTo(first));
+        assertThat(written.get(1), equalTo(second));
+        assertThat(flusher.flushes(), is(1L));
+        assertThat(firstDelivered.toCompletableFuture().isDone(), is(true));
+        assertThat(secondDelivered.toCompletableFuture().isDone(), is(true));
+        assertThat(first.refCnt(), is(1));
+        assertThat(second.refCnt(), is(1));
+    }
+
+    @Test
+    public void pausesWhileTheChannelIsNotWritable() {
+        final Outbox outbox = outbox(1024);
+        when(channel.isWritable()).thenReturn(false);
+        final CompletionStage<Void> delivered = outbox.offer(message("payload"));
+        tasks.remove(0).run();
+        assertThat(written.isEmpty(), is(true));
+        assertThat(flusher.flushes(), is(0L));
+
+        when(channel.isWritable()).thenReturn(true);
+        outbox.writabilityChanged();
+        assertThat(written.size(), is(1));
+        assertThat(delivered.toCompletableFuture().isDone(), is(true));
+    }
+
+    @Test
+    public void countsBytesUntilTheyHaveBeenWritten() {
+        final Outbox outbox = outbox(1024);
+        when(executor.inEventLoop()).thenReturn(true);
+        outbox.offer(message("first"));
+        outbox.offer(message("second"));
+        assertThat(outbox.queuedBytes(), is(11L));
+
+        writes.get(0).setSuccess();
+        assertThat(outbox.queuedBytes(), is(6L));
+        writes.get(1).setFailure(new IllegalStateException("closed"));
+        assertThat(outbox.queuedBytes(), is(0L));
+    }
+
+    @Test
+    public void spillsToTheFallbackWhenFullAndRefillsOnceWritten() {
+        final Outbox outbox = outbox(8);
+        when(executor.inEventLoop()).thenReturn(true);
+        outbox.offer(message("first"));
+        final DefaultPushMessage second = message("second");
+        final CompletionStage<Void> spilled = outbox.offer(second);
+        assertThat(written.size(), is(1));
+        assertThat(stored, equalTo(Collections.<PushMessage>singletonList(second)));
+        assertThat(spilled.toCompletableFuture().isDone(), is(true));
+        assertThat(outbox.spilledMessages(), is(1L));
+        assertThat(outbox.spilled(), is(true));
+        assertThat(refills.get(), is(0));
+
+        writes.get(0).setSuccess();
+        assertThat(refills.get(), is(1));
+        assertThat(written.get(1), equalTo(second));
+        assertThat(outbox.spilled(), is(true));
+
+        writes.get(1).setSuccess();
+        assertThat(refills.get(), is(2));
+        assertThat(outbox.spilled(), is(false));
+    }
+
+    @Test
+    public void storesLaterMessagesBehindTheSpilledOnes() {
+        final Outbox outbox = outbox(8);
+        when(executor.inEventLoop()).thenReturn(true);
+        outbox.offer(message("first"));
+        final DefaultPushMessage second = message("second");
+        final DefaultPushMessage third = message("3");
+        outbox.offer(second);
+        // fits the bound, but must not overtake the stored message.
+        outbox.offer(third);
+        assertThat(written.size(), is(1));
+        assertThat(stored.size(), is(2));
+
+        // refilled messages are queued regardless of the bound, none are stored again.
+        final DefaultPushMessage fourth = message("fourth");
+        fourth.retain();
+        outbox.requeue(Collections.<PushMessage>singletonList(fourth));
+        writes.get(0).setSuccess();
+        writes.get(1).setSuccess();
+        assertThat(written.size(), is(4));
+        assertThat(written.get(1), equalTo(fourth));
+        assertThat(written.get(2), equalTo(second));
+        assertThat(written.get(3), equalTo(third));
+        assertThat(stored.isEmpty(), is(true));
+        assertThat(fourth.refCnt(), is(1));
+    }
+
+    @Test
+    public void dropsMessagesThatMayNotBeStored() {
+        final Outbox outbox = outbox(8);
+        when(executor.inEventLoop()).thenReturn(true);
+        outbox.offer(message("first"));
+        final CompletionStage<Void> dropped = outbox.offer(message("second", Optional.of(0)));
+        assertThat(dropped.toCompletableFuture().isDone(), is(true));
+        assertThat(stored.isEmpty(), is(true));
+        assertThat(outbox.spilled(), is(false));
+
+        final Outbox closing = outbox(1024);
+        final DefaultPushMessage queued = message("queued", Optional.of(0));
+        when(executor.inEventLoop()).thenReturn(false);
+        closing.offer(queued);
+        closing.close();
+        assertThat(stored.isEmpty(), is(true));
+        assertThat(queued.refCnt(), is(1));
+    }
+
+    @Test
+    public void acceptsASingleMessageLargerThanTheBound() {
+        final Outbox outbox = outbox(0);
+        when(executor.inEventLoop()).thenReturn(true);
+        outbox.offer(message("payload"));
+        assertThat(written.size(), is(1));
+        outbox.offer(message("payload"));
+        assertThat(stored.size(), is(1));
+    }
+
+    @Test
+    public void handsQueuedMessagesToTheFallbackOnClose() {
+        final Outbox outbox = outbox(1024);
+        final DefaultPushMessage queued = message("queued");
+        final CompletionStage<Void> delivered = outbox.offer(queued);
+        outbox.close();
+        assertThat(stored, equalTo(Collections.<PushMessage>singletonList(queued)));
+        assertThat(delivered.toCompletableFuture().isDone(), is(true));
+        assertThat(queued.refCnt(), is(1));
+        assertThat(outbox.queuedBytes(), is(0L));
+
+        outbox.offer(message("late"));
+        tasks.forEach(Runnable::run);
+        assertThat(stored.size(), is(2));
+        assertThat(written.isEmpty(), is(true));
+    }
+
+    private Outbox outbox(final long maxQueuedBytes) {
+        return new Outbox(ctx, flusher, (message, promise) -> {
+            written.add(message);
+            writes.add(promise);
+            return CompletableFuture.completedFuture(null);
+        }, message -> {
+            stored.add(message);
+            return CompletableFuture.completedFuture(null);
+        }, () -> {
+            refills.incrementAndGet();
+            final List<PushMessage> refilled = new ArrayList<>(stored);
+            stored.clear();
+            return CompletableFuture.completedFuture(refilled);
+        }, maxQueuedBytes);
+    }
+
+    private static DefaultPushMessage message(final String payload) {
+        return message(payload, Optional.empty());
+    }
+
+    private static DefaultPushMessage message(final String payload, final Optional<Integer> ttl) {
+        return new DefaultPushMessage("id", "token", "subscription", Optional.empty(), payload, ttl);
+    }
+
+}
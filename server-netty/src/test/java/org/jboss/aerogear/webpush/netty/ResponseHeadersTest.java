@@ -0,0 +1,62 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.util.AsciiString;
+import org.junit.Test;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
+import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
+import static io.netty.handler.codec.http.HttpResponseStatus.NO_CONTENT;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.ALLOW_ORIGIN_ANY;
+import static org.jboss.aerogear.webpush.util.HttpHeaders.LINK_HEADER;
+
+public class ResponseHeadersTest {
+
+    @Test
+    public void sharesFixedResponses() {
+        final Http2Headers headers = ResponseHeaders.noContent();
+        assertThat(ResponseHeaders.noContent(), sameInstance(headers));
+        assertThat(headers.status(), equalTo(NO_CONTENT.codeAsText()));
+        assertThat(headers.get(ACCESS_CONTROL_ALLOW_ORIGIN), equalTo(ALLOW_ORIGIN_ANY));
+    }
+
+    @Test
+    public void copiesTemplatesForLocations() {
+        final Http2Headers first = ResponseHeaders.created(new AsciiString("/webpush/d/first"));
+        final Http2Headers second = ResponseHeaders.created(new AsciiString("/webpush/d/second"));
+        first.set(CACHE_CONTROL, "private");
+        assertThat(first.status(), equalTo(CREATED.codeAsText()));
+        assertThat(first.get(LOCATION).toString(), equalTo("/webpush/d/first"));
+        assertThat(second.get(LOCATION).toString(), equalTo("/webpush/d/second"));
+        assertThat(second.get(CACHE_CONTROL), is(nullValue()));
+    }
+
+    @Test
+    public void monitor() {
+        final Http2Headers headers = ResponseHeaders.monitor(42);
+        assertThat(headers.status(), equalTo(OK.codeAsText()));
+        assertThat(headers.getInt(CONTENT_LENGTH), is(42));
+        assertThat(ResponseHeaders.monitor(7).getInt(CONTENT_LENGTH), is(7));
+    }
+
+    @Test
+    public void keepsUniqueValuesOutOfTheDynamicTable() {
+        assertThat(ResponseHeaders.SENSITIVITY_DETECTOR.isSensitive(LOCATION, "/webpush/d/x"), is(true));
+        assertThat(ResponseHeaders.SENSITIVITY_DETECTOR.isSensitive(LINK_HEADER, "<x>"), is(true));
+        assertThat(ResponseHeaders.SENSITIVITY_DETECTOR.isSensitive(CONTENT_LENGTH, "42"), is(true));
+        assertThat(ResponseHeaders.SENSITIVITY_DETECTOR.isSensitive(Http2Headers.PseudoHeaderName.PATH.value(),
+                "/webpush/d/x"), is(true));
+        assertThat(ResponseHeaders.SENSITIVITY_DETECTOR.isSensitive(ACCESS_CONTROL_ALLOW_ORIGIN, ALLOW_ORIGIN_ANY),
+                is(false));
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.jboss.aerogear.webpush.netty;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SubscriberRegistryTest {
+
+    @Test
+    public void keepsAllClientsOfASubscription() {
+        final SubscriberRegistry<String> registry = new SubscriberRegistry<>(4);
+        registry.register("sub1", "first");
+        registry.register("sub1", "second");
+        registry.register("sub2", "third");
+        assertThat(registry.get("sub1"), equalTo(Arrays.asList("first", "second")));
+        assertThat(registry.get("sub2"), equalTo(Collections.singletonList("third")));
+        assertThat(registry.get("sub3").isEmpty(), is(true));
+        assertThat(registry.size(), is(2));
+    }
+
+    @Test
+    public void unregistersASingleClient() {
+        final SubscriberRegistry<String> registry = new SubscriberRegistry<>(4);
+        registry.register("sub1", "first");
+        registry.register("sub1", "second");
+        final List<String> before = registry.get("sub1");
+
+        assertThat(registry.unregister("sub1", "first"), is(true));
+        assertThat(registry.unregister("sub1", "first"), is(false));
+        assertThat(registry.get("sub1"), equalTo(Collections.singletonList("second")));
+        // a lookup is a snapshot that later changes do not affect.
+        assertThat(before, equalTo(Arrays.asList("first", "second")));
+
+        assertThat(registry.unregister("sub1", "second"), is(true));
+        assertThat(registry.size(), is(0));
+    }
+
+    @Test
+    public void unregistersAllClients() {
+        final SubscriberRegistry<String> registry = new SubscriberRegistry<>(1);
+        registry.register("sub1", "first");
+        registry.register("sub1", "second");
+        assertThat(registry.unregisterAll("sub1"), equalTo(Arrays.asList("first", "second")));
+        assertThat(registry.unregisterAll("sub1").isEmpty(), is(true));
+        assertThat(registry.get("sub1").isEmpty(), is(true));
+    }
+
+    @Test
+    public void clearsEveryShard() {
+        final SubscriberRegistry<String> registry = new SubscriberRegistry<>(3);
+        for (int i = 0; i < 100; i++) {
+            registry.register("sub" + i, "client" + i);
+        }
+        assertThat(registry.size(), is(100));
+        assertThat(new HashSet<>(registry.clear()).size(), is(100));
+        assertThat(registry.size(), is(0));
+    }
+
+}
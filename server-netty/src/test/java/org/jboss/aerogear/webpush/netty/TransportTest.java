@@ -0,0 +1,63 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.jboss.aerogear.webpush.WebPushServerConfig;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransportTest {
+
+    @Test
+    public void nio() {
+        assertThat(Transport.of(config("nio", 1)), is(Transport.NIO));
+        assertThat(Transport.NIO.isAvailable(), is(true));
+        final MultithreadEventLoopGroup group = Transport.NIO.newEventLoopGroup(1);
+        try {
+            assertThat(group, instanceOf(NioEventLoopGroup.class));
+            assertThat(group.executorCount(), is(1));
+        } finally {
+            group.shutdownGracefully();
+        }
+    }
+
+    @Test
+    public void autoResolvesToAnAvailableTransport() {
+        final Transport transport = Transport.of(config("auto", 1));
+        assertThat(transport.isAvailable(), is(true));
+        assertThat(transport == Transport.AUTO, is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTransport() {
+        Transport.of(config("carrier-pigeon", 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unavailableNativeTransport() {
+        assumeFalse(Transport.IO_URING.isAvailable());
+        Transport.of(config("io_uring", 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nioHasASingleAcceptor() {
+        Transport.NIO.configure(new ServerBootstrap(), config("nio", 2));
+    }
+
+    private static WebPushServerConfig config(final String transport, final int acceptors) {
+        final WebPushServerConfig config = mock(WebPushServerConfig.class);
+        when(config.transport()).thenReturn(transport);
+        when(config.transportAcceptors()).thenReturn(acceptors);
+        when(config.socketBacklog()).thenReturn(1024);
+        when(config.tcpNoDelay()).thenReturn(true);
+        return config;
+    }
+
+}
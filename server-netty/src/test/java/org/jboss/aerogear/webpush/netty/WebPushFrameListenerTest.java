@@ -1,6 +1,8 @@
 package org.jboss.aerogear.webpush.netty;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
@@ -17,12 +19,14 @@ import io.netty.handler.codec.http2.Http2Stream;
 import io.netty.util.AsciiString;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ImmediateEventExecutor;
 import org.jboss.aerogear.webpush.DefaultPushMessage;
 import org.jboss.aerogear.webpush.DefaultSubscription;
 import org.jboss.aerogear.webpush.PushMessage;
 import org.jboss.aerogear.webpush.Resource;
 import org.jboss.aerogear.webpush.Subscription;
 import org.jboss.aerogear.webpush.WebLink;
+import org.jboss.aerogear.webpush.WebPushServer;
 import org.jboss.aerogear.webpush.util.HttpHeaders;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -30,10 +34,13 @@ import org.mockito.stubbing.OngoingStubbing;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import static io.netty.buffer.Unpooled.copiedBuffer;
 import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
 import static io.netty.handler.codec.http.HttpHeaderNames.LOCATION;
 import static io.netty.handler.codec.http.HttpResponseStatus.CREATED;
@@ -51,9 +58,12 @@ import static org.jboss.aerogear.webpush.util.HttpHeaders.LINK_HEADER;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -65,7 +75,7 @@ public class WebPushFrameListenerTest {
 
     @Test (expected = NullPointerException.class)
     public void withNullWebPushServer() {
-        new WebPushFrameListener(null, null);
+        new WebPushFrameListener(null, new Subscribers(1), null);
     }
 
     @Test
@@ -77,21 +87,27 @@ public class WebPushFrameListenerTest {
         final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(subscribePath(subscriptionId)), SUBSCRIBE);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, receiptToken))
                 .pushResourceToken(pushToken)
                 .receiptsToken(receiptToken)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers responseHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             assertThat(responseHeaders.status(), equalTo(CREATED.codeAsText()));
             assertThat(responseHeaders.get(LOCATION), equalTo(subscriptionLocation(subscriptionId)));
             assertThat(responseHeaders.getAll(LINK_HEADER), hasItems(pushWebLink(pushResourceId), receiptWebLink(receiptToken)));
-            assertThat(responseHeaders.get(CACHE_CONTROL), equalTo(asciiString("private, max-age=0")));
+            assertThat(responseHeaders.get(CACHE_CONTROL), equalTo(asciiString("private")));
         } finally {
             frameListener.shutdown();
         }
     }
 
+    @Test
+    public void cacheControlMaxAgeIsInSeconds() {
+        assertThat(WebPushFrameListener.cacheControl(10000L), equalTo(asciiString("private, max-age=10")));
+        assertThat(WebPushFrameListener.cacheControl(0L), equalTo(asciiString("private")));
+    }
+
     @Test
     public void deleteSubscription() throws Exception {
         final String subscriptionId = "subscriptionId";
@@ -100,9 +116,9 @@ public class WebPushFrameListenerTest {
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
                 .nonexistentPushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             UserAgent.receivePushMessages(frameListener, ctx, subscribeHeaders);
@@ -127,10 +143,10 @@ public class WebPushFrameListenerTest {
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
                 .subscriptionMaxAge(10000L)
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             UserAgent.receivePushMessages(frameListener, ctx, subscribeHeaders);
@@ -143,6 +159,34 @@ public class WebPushFrameListenerTest {
         }
     }
 
+    @Test
+    public void receivePushMessagesForwardsPayloadBytes() throws Exception {
+        final String subscriptionId = "subscriptionId";
+        final String pushResourceId = "pushResourceId";
+        final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
+        final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
+                .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
+        final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
+                .subscriptionMaxAge(10000L)
+                .pushResourceToken(pushResourceId)
+                .build(), new Subscribers(1), encoder);
+        try {
+            final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
+            UserAgent.receivePushMessages(frameListener, ctx, subscribeHeaders);
+            final ByteBuf payload = copiedBuffer("h\u00e9llo \u20ac", UTF_8);
+            AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders, payload);
+            final Http2Headers headers = capturePromiseHeaders(encoder);
+            assertThat(headers.getInt(CONTENT_LENGTH), equalTo(payload.readableBytes()));
+            final ArgumentCaptor<ByteBuf> data = ArgumentCaptor.forClass(ByteBuf.class);
+            verify(encoder).writeData(eq(ctx), eq(PROMISE_STEAM_ID), data.capture(), eq(0), eq(true),
+                    any(ChannelPromise.class));
+            assertThat(data.getValue(), equalTo(payload));
+        } finally {
+            frameListener.shutdown();
+        }
+    }
+
     @Test
     public void receivePushMessagesWaitNoMessages() throws Exception {
         final String subscriptionId = "subscriptionId";
@@ -151,10 +195,10 @@ public class WebPushFrameListenerTest {
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
                 .subscriptionMaxAge(10000L)
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders, copiedBuffer("payload", UTF_8));
@@ -171,16 +215,16 @@ public class WebPushFrameListenerTest {
     public void receivePushMessagesWait() throws Exception {
         final String subscriptionId = "subscriptionId";
         final String pushResourceId = "pushResourceId";
-        final PushMessage pushMessage = new DefaultPushMessage("pushMessageId", subscriptionId, Optional.empty(), "testing", Optional.of(0));
+        final PushMessage pushMessage = new DefaultPushMessage("pushMessageId", "pushMessageToken", subscriptionId, Optional.empty(), "testing", Optional.of(0));
         final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
                 .subscriptionMaxAge(10000L)
                 .waitingPushMessage(pushMessage)
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders, copiedBuffer(pushMessage.payload(), UTF_8));
@@ -204,12 +248,12 @@ public class WebPushFrameListenerTest {
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, receiptsToken))
                 .subscriptionMaxAge(10000L)
                 .receiptsToken(receiptsToken)
                 .pushResourceToken(pushResourceId)
                 .pushMessageToken(pushMessageToken)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             final Http2Headers headers = AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders, copiedBuffer("Test", UTF_8));
@@ -220,22 +264,106 @@ public class WebPushFrameListenerTest {
         }
     }
 
+    @Test
+    public void sendPushRespondsOnEventLoopOnceStored() throws Exception {
+        final String subscriptionId = "subscriptionId";
+        final String pushResourceId = "pushResourceId";
+        final String pushMessageToken = "pushMessageToken";
+        final CompletableFuture<Void> stored = new CompletableFuture<>();
+        final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
+        final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
+                .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
+        final WebPushServer webPushServer = MockWebPushServerBuilder
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
+                .subscriptionMaxAge(10000L)
+                .pushResourceToken(pushResourceId)
+                .pushMessageToken(pushMessageToken)
+                .saveMessageCompletes(stored)
+                .build();
+        final WebPushFrameListener frameListener = new WebPushFrameListener(webPushServer, new Subscribers(1), encoder);
+        try {
+            final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
+            final CharSequence push = getLinkUri(WebLink.PUSH, subscribeHeaders.getAll(LINK_HEADER));
+            final ByteBuf data = copiedBuffer("payload", UTF_8);
+            frameListener.onHeadersRead(ctx, STREAM_ID, sendHeaders(push, Optional.empty()), 0, (short) 22, false, 0,
+                    false);
+            frameListener.onDataRead(ctx, STREAM_ID, data, 0, true);
+            data.release();
+            verify(encoder, times(1)).writeHeaders(eq(ctx), eq(STREAM_ID), any(Http2Headers.class), eq(0), eq(true),
+                    any(ChannelPromise.class));
+            final ArgumentCaptor<PushMessage> message = ArgumentCaptor.forClass(PushMessage.class);
+            verify(webPushServer).saveMessage(message.capture());
+            assertThat(message.getValue().payload(), equalTo("payload"));
+            // the message holds on to the frame's buffer until it has been stored.
+            assertThat(data.refCnt(), equalTo(1));
+
+            stored.complete(null);
+            final Http2Headers headers = verifyAndCapture(ctx, encoder, STREAM_ID, true);
+            assertThat(headers.status(), equalTo(CREATED.codeAsText()));
+            assertThat(headers.get(LOCATION), equalTo(asciiString(messagePath(pushMessageToken))));
+            verify(ctx).flush();
+            assertThat(data.refCnt(), equalTo(0));
+        } finally {
+            frameListener.shutdown();
+        }
+    }
+
+    @Test
+    public void sendPushWithZeroTtlToDisconnectedClientIsDropped() throws Exception {
+        final String subscriptionId = "subscriptionId";
+        final String pushResourceId = "pushResourceId";
+        final String pushMessageToken = "pushMessageToken";
+        final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
+        final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
+                .thenReturn(pushPath(pushResourceId)), null, Optional.of(0), Resource.PUSH);
+        final WebPushServer webPushServer = MockWebPushServerBuilder
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
+                .subscriptionMaxAge(10000L)
+                .pushResourceToken(pushResourceId)
+                .pushMessageToken(pushMessageToken)
+                .build();
+        final WebPushFrameListener frameListener = new WebPushFrameListener(webPushServer, new Subscribers(1), encoder);
+        try {
+            final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
+            final Http2Headers headers = AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders,
+                    copiedBuffer("typing", UTF_8));
+            assertThat(headers.status(), equalTo(CREATED.codeAsText()));
+            assertThat(headers.getInt(HttpHeaders.TTL_HEADER), equalTo(0));
+            verify(webPushServer, never()).saveMessage(any(PushMessage.class));
+        } finally {
+            frameListener.shutdown();
+        }
+    }
+
+    @Test
+    public void ttlHeader() {
+        assertThat(WebPushFrameListener.getTtl(new DefaultHttp2Headers()), equalTo(Optional.empty()));
+        assertThat(WebPushFrameListener.getTtl(new DefaultHttp2Headers().set(HttpHeaders.TTL_HEADER, "0")),
+                equalTo(Optional.of(0)));
+        assertThat(WebPushFrameListener.getTtl(new DefaultHttp2Headers().set(HttpHeaders.TTL_HEADER, "3600")),
+                equalTo(Optional.of(3600)));
+        assertThat(WebPushFrameListener.getTtl(new DefaultHttp2Headers().set(HttpHeaders.TTL_HEADER, "-1")),
+                equalTo(Optional.empty()));
+        assertThat(WebPushFrameListener.getTtl(new DefaultHttp2Headers().set(HttpHeaders.TTL_HEADER, "soon")),
+                equalTo(Optional.empty()));
+    }
+
     @Test
     public void sendPushMessageTooBig() throws Exception {
         final String subscriptionId = "subscriptionId";
         final String pushResourceId = "pushResourceId";
         final String payload = new String(new byte[4099]);
         final ByteBuf data = copiedBuffer(payload, UTF_8);
-        final PushMessage pushMessage = new DefaultPushMessage("pushMessageId", subscriptionId, Optional.empty(), payload, Optional.of(0));
+        final PushMessage pushMessage = new DefaultPushMessage("pushMessageId", "pushMessageToken", subscriptionId, Optional.empty(), payload, Optional.of(0));
         final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                 .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
                 .subscriptionMaxAge(10000L)
                 .waitingPushMessage(pushMessage)
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             final Http2Headers headers = AppServer.sendPush(frameListener, ctx, encoder, subscribeHeaders, data);
@@ -245,6 +373,80 @@ public class WebPushFrameListenerTest {
         }
     }
 
+    @Test
+    public void sendPushAggregatesFramesUntilEndOfStream() throws Exception {
+        final String subscriptionId = "subscriptionId";
+        final String pushResourceId = "pushResourceId";
+        final CompletableFuture<Void> stored = new CompletableFuture<>();
+        final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
+        final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
+                .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
+        final WebPushServer webPushServer = MockWebPushServerBuilder
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
+                .subscriptionMaxAge(10000L)
+                .pushResourceToken(pushResourceId)
+                .saveMessageCompletes(stored)
+                .build();
+        final WebPushFrameListener frameListener = new WebPushFrameListener(webPushServer, new Subscribers(1), encoder);
+        try {
+            final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
+            final CharSequence push = getLinkUri(WebLink.PUSH, subscribeHeaders.getAll(LINK_HEADER));
+            frameListener.onHeadersRead(ctx, STREAM_ID, sendHeaders(push, Optional.empty()), 0, (short) 22, false, 0,
+                    false);
+            frameListener.onDataRead(ctx, STREAM_ID, copiedBuffer("pay", UTF_8), 0, false);
+            frameListener.onDataRead(ctx, STREAM_ID, copiedBuffer("lo", UTF_8), 0, false);
+            verify(webPushServer, never()).saveMessage(any(PushMessage.class));
+            // only the subscription has been responded to so far.
+            verify(encoder, times(1)).writeHeaders(eq(ctx), eq(STREAM_ID), any(Http2Headers.class), eq(0), eq(true),
+                    any(ChannelPromise.class));
+
+            frameListener.onDataRead(ctx, STREAM_ID, copiedBuffer("ad", UTF_8), 0, true);
+            final ArgumentCaptor<PushMessage> message = ArgumentCaptor.forClass(PushMessage.class);
+            verify(webPushServer, times(1)).saveMessage(message.capture());
+            assertThat(message.getValue().payload(), equalTo("payload"));
+            stored.complete(null);
+            final Http2Headers headers = verifyAndCapture(ctx, encoder, STREAM_ID, true);
+            assertThat(headers.status(), equalTo(CREATED.codeAsText()));
+        } finally {
+            frameListener.shutdown();
+        }
+    }
+
+    @Test
+    public void sendPushTooBigIsRejectedBeforeEndOfStream() throws Exception {
+        final String subscriptionId = "subscriptionId";
+        final String pushResourceId = "pushResourceId";
+        final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
+        final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
+                .thenReturn(pushPath(pushResourceId)), Resource.PUSH);
+        final WebPushServer webPushServer = MockWebPushServerBuilder
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, "receiptsToken"))
+                .subscriptionMaxAge(10000L)
+                .pushResourceToken(pushResourceId)
+                .build();
+        final WebPushFrameListener frameListener = new WebPushFrameListener(webPushServer, new Subscribers(1), encoder);
+        try {
+            final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
+            final CharSequence push = getLinkUri(WebLink.PUSH, subscribeHeaders.getAll(LINK_HEADER));
+            final ByteBuf first = copiedBuffer(new byte[4000]);
+            final ByteBuf second = copiedBuffer(new byte[100]);
+            frameListener.onHeadersRead(ctx, STREAM_ID, sendHeaders(push, Optional.empty()), 0, (short) 22, false, 0,
+                    false);
+            frameListener.onDataRead(ctx, STREAM_ID, first, 0, false);
+            frameListener.onDataRead(ctx, STREAM_ID, second, 0, false);
+
+            final Http2Headers headers = verifyAndCapture(ctx, encoder, STREAM_ID, true);
+            assertThat(headers.status(), equalTo(REQUEST_ENTITY_TOO_LARGE.codeAsText()));
+            verify(encoder).writeRstStream(eq(ctx), eq(STREAM_ID), anyLong(), any(ChannelPromise.class));
+            verify(webPushServer, never()).saveMessage(any(PushMessage.class));
+            // the frames collected so far have been let go of.
+            assertThat(first.refCnt(), equalTo(1));
+            assertThat(second.refCnt(), equalTo(1));
+        } finally {
+            frameListener.shutdown();
+        }
+    }
+
     @Test
     public void receipt() throws Exception {
         final String subscriptionId = "subscriptionId";
@@ -254,12 +456,12 @@ public class WebPushFrameListenerTest {
         final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(recieptsPath(receiptToken)), Resource.RECEIPT);
         final WebPushFrameListener frameListener = new WebPushFrameListener(MockWebPushServerBuilder
-                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId))
+                .withSubscription(new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, receiptsToken))
                 .subscriptionMaxAge(10000L)
                 .receiptsToken(receiptsToken)
                 .receiptToken(receiptToken)
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             final CharSequence receiptsUri = getLinkUri(WebLink.RECEIPTS, subscribeHeaders.getAll(LINK_HEADER));
@@ -278,7 +480,7 @@ public class WebPushFrameListenerTest {
         final String receiptsToken = "receiptsToken";
         final String receiptToken = "receiptToken";
         final ByteBuf payload = copiedBuffer("Testing", UTF_8);
-        final Subscription subscription = new DefaultSubscription(subscriptionId, pushResourceId);
+        final Subscription subscription = new DefaultSubscription(subscriptionId, pushResourceId, pushResourceId, receiptsToken);
         final ChannelHandlerContext ctx = mockChannelHandlerContext(subscriptionId);
         final Http2ConnectionEncoder encoder = mockEncoder(w -> w.thenReturn(pushPath(pushResourceId))
                         .thenReturn(pushPath(pushResourceId)),
@@ -289,9 +491,9 @@ public class WebPushFrameListenerTest {
                 .withSubscription(subscription)
                 .subscriptionMaxAge(10000L)
                 .receiptsToken(receiptsToken)
-                .receiptToken(receiptToken, new DefaultPushMessage("123", subscriptionId, Optional.of(receiptToken), "test", Optional.empty()))
+                .receiptToken(receiptToken, new DefaultPushMessage("123", "pushMessageToken", subscriptionId, Optional.of(receiptToken), "test", Optional.empty()))
                 .pushResourceToken(pushResourceId)
-                .build(), encoder);
+                .build(), new Subscribers(1), encoder);
         try {
             final Http2Headers subscribeHeaders = UserAgent.subscribe(frameListener, ctx, encoder);
             final CharSequence receiptsUri = getLinkUri(WebLink.RECEIPTS, subscribeHeaders.getAll(LINK_HEADER));
@@ -378,6 +580,13 @@ public class WebPushFrameListenerTest {
     private static Http2ConnectionEncoder mockEncoder(final Consumer<OngoingStubbing<String>> consumer,
                                                       final String receiptToken,
                                                       final Resource... resources) {
+        return mockEncoder(consumer, receiptToken, Optional.empty(), resources);
+    }
+
+    private static Http2ConnectionEncoder mockEncoder(final Consumer<OngoingStubbing<String>> consumer,
+                                                      final String receiptToken,
+                                                      final Optional<Integer> ttl,
+                                                      final Resource... resources) {
         final Http2ConnectionEncoder encoder = mock(Http2ConnectionEncoder.class);
         final Http2Connection connection = mock(Http2Connection.class);
         final Http2RemoteFlowController flowController = mock(Http2RemoteFlowController.class);
@@ -391,15 +600,21 @@ public class WebPushFrameListenerTest {
         final PropertyKey resourcePropertyKey = mock(PropertyKey.class);
         final PropertyKey pushReceiptPropertyKey = mock(PropertyKey.class);
         final PropertyKey ttlPropertyKey = mock(PropertyKey.class);
+        final PropertyKey bodyPropertyKey = mock(PropertyKey.class);
         when(connection.newKey())
                 .thenReturn(pathPropertyKey)
                 .thenReturn(resourcePropertyKey)
                 .thenReturn(pushReceiptPropertyKey)
-                .thenReturn(ttlPropertyKey);
+                .thenReturn(ttlPropertyKey)
+                .thenReturn(bodyPropertyKey);
+        final AtomicReference<Object> body = new AtomicReference<>();
+        when(stream.setProperty(eq(bodyPropertyKey), any())).thenAnswer(i -> body.getAndSet(i.getArguments()[1]));
+        when(stream.getProperty(bodyPropertyKey)).thenAnswer(i -> body.get());
+        when(stream.removeProperty(bodyPropertyKey)).thenAnswer(i -> body.getAndSet(null));
         when(stream.getProperty(pushReceiptPropertyKey))
                 .thenReturn(Optional.ofNullable(receiptToken));
         when(stream.getProperty(ttlPropertyKey))
-                .thenReturn(Optional.empty());
+                .thenReturn(ttl);
 
         consumer.accept(when(stream.getProperty(pathPropertyKey)));
         for (Resource r : resources) {
@@ -468,6 +683,11 @@ public class WebPushFrameListenerTest {
         when(attribute.get()).thenReturn(subscriptionId);
         when(ctx.attr(any(AttributeKey.class))).thenReturn(attribute);
         when(ctx.newPromise()).thenReturn(promise);
+        when(ctx.alloc()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+        when(ctx.executor()).thenReturn(ImmediateEventExecutor.INSTANCE);
+        final Channel channel = mock(Channel.class);
+        when(channel.isWritable()).thenReturn(true);
+        when(ctx.channel()).thenReturn(channel);
         return ctx;
     }
 
@@ -0,0 +1,61 @@
+package org.jboss.aerogear.webpush.netty;
+
+import io.netty.util.AsciiString;
+import org.jboss.aerogear.webpush.Resource;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WebPushRouterTest {
+
+    @Test
+    public void method() {
+        assertThat(WebPushRouter.method(new AsciiString("GET")), is(WebPushRouter.Method.GET));
+        assertThat(WebPushRouter.method(new AsciiString("POST")), is(WebPushRouter.Method.POST));
+        assertThat(WebPushRouter.method("DELETE"), is(WebPushRouter.Method.DELETE));
+        assertThat(WebPushRouter.method(new AsciiString("PUT")), is(nullValue()));
+        assertThat(WebPushRouter.method(new AsciiString("PATCH")), is(nullValue()));
+    }
+
+    @Test
+    public void resource() {
+        for (Resource resource : Resource.values()) {
+            final AsciiString path = new AsciiString("/webpush/" + resource.resourceName() + "/token");
+            assertThat(WebPushRouter.resource(path), is(resource));
+        }
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/subscribe")), is(Resource.SUBSCRIBE));
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/SUBSCRIBE")), is(Resource.SUBSCRIBE));
+        assertThat(WebPushRouter.resource("/webpush/receipts/token"), is(Resource.RECEIPTS));
+    }
+
+    @Test
+    public void unknownResource() {
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/")), is(nullValue()));
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/x/token")), is(nullValue()));
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/subscribes")), is(nullValue()));
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/sabscribe")), is(nullValue()));
+        assertThat(WebPushRouter.resource(new AsciiString("/webpush/sssssssssssssssss")), is(nullValue()));
+        assertThat(WebPushRouter.resource(new AsciiString("/other/s/token")), is(nullValue()));
+    }
+
+    @Test
+    public void token() {
+        assertThat(WebPushRouter.token(new AsciiString("/webpush/p/abc-123")), equalTo("abc-123"));
+        assertThat(WebPushRouter.token("/webpush/d/xyz"), equalTo("xyz"));
+        assertThat(WebPushRouter.token(new AsciiString("/webpush/subscribe")), is(nullValue()));
+        assertThat(WebPushRouter.token(new AsciiString("/webpush/s/")), equalTo(""));
+    }
+
+    @Test
+    public void receiptToken() {
+        assertThat(WebPushRouter.receiptToken(new AsciiString("https://localhost:8443/webpush/r/abc")),
+                equalTo("abc"));
+        assertThat(WebPushRouter.receiptToken(new AsciiString("/webpush/r/abc")), equalTo("abc"));
+        assertThat(WebPushRouter.receiptToken(new AsciiString("/webpush/s/abc")), is(nullValue()));
+        assertThat(WebPushRouter.receiptToken(new AsciiString("")), is(nullValue()));
+    }
+
+}